@@ -15,6 +15,8 @@
  */
 package com.android.helper.aoa;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -30,6 +32,7 @@ import java.util.Objects;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 /**
  * USB connected AOAv2-compatible Android device.
@@ -37,6 +40,9 @@ import javax.annotation.Nonnull;
  * <p>This host-side utility can be used to send commands (e.g. clicks, swipes, keystrokes, and
  * more) to a connected device without the need for ADB.
  *
+ * <p>Multi-event actions (e.g. swipes and key presses) are precomputed as timed HID report
+ * sequences and sent from a dedicated thread, see {@link #getLastSendStats()} for their timing.
+ *
  * @see <a href="https://source.android.com/devices/accessories/aoa2">Android Open Accessory
  *     Protocol 2.0</a>
  */
@@ -79,10 +85,13 @@ public class AoaDevice implements AutoCloseable {
     static final Duration LONG_CLICK = Duration.ofSeconds(1L);
     static final int SCROLL_STEPS = 40;
     static final int FLING_STEPS = 10;
+    static final int MAX_CONTACTS = 2;
 
     private final UsbHelper mHelper;
     private UsbDevice mDelegate;
     private String mSerialNumber;
+    private HidSender mSender;
+    private HidSendStats mLastSendStats;
 
     AoaDevice(@Nonnull UsbHelper helper, @Nonnull UsbDevice delegate) {
         mHelper = helper;
@@ -148,7 +157,7 @@ public class AoaDevice implements AutoCloseable {
      * e.g. when toggling accessory mode or USB debugging.
      */
     public void resetConnection() {
-        close();
+        disconnect();
         mDelegate = mHelper.getDevice(mSerialNumber, CONNECTION_TIMEOUT);
         initialize();
     }
@@ -207,6 +216,12 @@ public class AoaDevice implements AutoCloseable {
         swipe(from, to, FLING_STEPS);
     }
 
+    /** Perform a synthesized gesture, see {@link Gesture}. */
+    public void perform(@Nonnull Gesture gesture) {
+        send(gesture.toSequence());
+        sleep(ACTION_DELAY);
+    }
+
     /** Drag from one location to another. */
     public void drag(@Nonnull Point from, @Nonnull Point to) {
         touch(TOUCH_DOWN, from, LONG_CLICK);
@@ -219,19 +234,43 @@ public class AoaDevice implements AutoCloseable {
         float xStep = ((float) (to.x - from.x)) / steps;
         float yStep = ((float) (to.y - from.y)) / steps;
 
+        HidSequence.Builder sequence = HidSequence.builder();
         for (int i = 0; i <= steps; i++) {
             Point point = new Point((int) (from.x + xStep * i), (int) (from.y + yStep * i));
-            touch(TOUCH_DOWN, point, STEP_DELAY);
+            sequence.report(HID.TOUCH_SCREEN, touchReport(TOUCH_DOWN, point)).pause(STEP_DELAY);
         }
-        touch(TOUCH_UP, to, ACTION_DELAY);
+        sequence.report(HID.TOUCH_SCREEN, touchReport(TOUCH_UP, to));
+        send(sequence.build());
+        sleep(ACTION_DELAY);
     }
 
     // Send a touch event to the device
     private void touch(byte type, Point point, Duration pause) {
+        send(HID.TOUCH_SCREEN, touchReport(type, point), pause);
+    }
+
+    // Create a touch report, clamping the coordinates to the screen
+    static byte[] touchReport(byte type, Point point) {
         int x = Math.min(Math.max(point.x, 0), 360);
         int y = Math.min(Math.max(point.y, 0), 640);
-        byte[] data = new byte[] {type, (byte) x, (byte) (x >> 8), (byte) y, (byte) (y >> 8)};
-        send(HID.TOUCH_SCREEN, data, pause);
+        return new byte[] {type, (byte) x, (byte) (x >> 8), (byte) y, (byte) (y >> 8)};
+    }
+
+    // Create a multi-touch report with the same type for every contact, using their indices as IDs
+    static byte[] multiTouchReport(byte type, Point... points) {
+        checkArgument(
+                points.length > 0 && points.length <= MAX_CONTACTS,
+                "Unsupported number of contacts %s",
+                points.length);
+        byte[] data = new byte[MAX_CONTACTS * 6 + 1];
+        for (int i = 0; i < points.length; i++) {
+            byte[] touch = touchReport(type, points[i]);
+            data[i * 6] = touch[0];
+            data[i * 6 + 1] = (byte) i;
+            System.arraycopy(touch, 1, data, i * 6 + 2, 4);
+        }
+        data[MAX_CONTACTS * 6] = (byte) points.length;
+        return data;
     }
 
     /**
@@ -267,11 +306,18 @@ public class AoaDevice implements AutoCloseable {
      */
     public void key(Integer... keyCodes) {
         Iterator<Integer> it = Arrays.stream(keyCodes).filter(Objects::nonNull).iterator();
+        if (!it.hasNext()) {
+            return;
+        }
+
+        HidSequence.Builder sequence = HidSequence.builder();
         while (it.hasNext()) {
             Integer keyCode = it.next();
-            send(HID.KEYBOARD, new byte[] {keyCode.byteValue()}, STEP_DELAY);
-            send(HID.KEYBOARD, new byte[] {(byte) 0}, it.hasNext() ? STEP_DELAY : ACTION_DELAY);
+            sequence.report(HID.KEYBOARD, new byte[] {keyCode.byteValue()}).pause(STEP_DELAY);
+            sequence.report(HID.KEYBOARD, new byte[] {(byte) 0}).pause(STEP_DELAY);
         }
+        send(sequence.build());
+        sleep(ACTION_DELAY);
     }
 
     /** Wake up the device if it is sleeping. */
@@ -289,8 +335,29 @@ public class AoaDevice implements AutoCloseable {
         send(AoaDevice.HID.SYSTEM, new byte[] {SYSTEM_BACK}, ACTION_DELAY);
     }
 
+    /** @return timing of the most recent HID report sequence, or {@code null} if none was sent */
+    @Nullable
+    public HidSendStats getLastSendStats() {
+        return mLastSendStats;
+    }
+
     // Send a HID event to the device
     private void send(HID hid, byte[] data, Duration pause) {
+        transfer(hid, data);
+        sleep(pause);
+    }
+
+    // Send a sequence of HID events to the device, paced by the sender thread
+    private void send(HidSequence sequence) {
+        if (mSender == null) {
+            mSender = new HidSender(mSerialNumber);
+        }
+        mLastSendStats =
+                mSender.send(sequence, report -> transfer(report.getHid(), report.getData()));
+    }
+
+    // Transfer a HID event, retrying once if the connection needs to be reset
+    private void transfer(HID hid, byte[] data) {
         int result =
                 mDelegate.controlTransfer(OUTPUT, ACCESSORY_SEND_HID_EVENT, hid.getId(), 0, data);
         if (result == DEVICE_NOT_FOUND) {
@@ -301,12 +368,20 @@ public class AoaDevice implements AutoCloseable {
                             OUTPUT, ACCESSORY_SEND_HID_EVENT, hid.getId(), 0, data);
         }
         mHelper.checkResult(result);
-        sleep(pause);
     }
 
     /** Close the device connection. */
     @Override
     public void close() {
+        disconnect();
+        if (mSender != null) {
+            mSender.close();
+            mSender = null;
+        }
+    }
+
+    // Close the USB connection, keeping the sender thread
+    private void disconnect() {
         if (isValid()) {
             if (isAccessoryMode()) {
                 unregisterHIDs();
@@ -400,6 +475,83 @@ public class AoaDevice implements AutoCloseable {
                     0x95, 0x05, //          Report Count (5) - padding
                     0x81, 0x01, //          Input (Constant)
                     0xC0, //            End Collection
+                }),
+
+        /**
+         * 360 x 640 multi-touch screen with two contacts, each with 6-bit padding, 2-bit type,
+         * 8-bit contact ID, 16-bit X coord., 16-bit Y coord., followed by an 8-bit contact count.
+         */
+        MULTI_TOUCH_SCREEN(
+                new Integer[] {
+                    0x05, 0x0D, //      Usage Page (Digitizer)
+                    0x09, 0x04, //      Usage (Touch Screen)
+                    0xA1, 0x01, //      Collection (Application)
+                    0x09, 0x22, //          Usage (Finger)
+                    0xA1, 0x02, //          Collection (Logical) - contact 0
+                    0x09, 0x42, //              Usage (Tip Switch) - contact with screen
+                    0x09, 0x32, //              Usage (In Range) - proximity to screen
+                    0x15, 0x00, //              Logical Minimum (0)
+                    0x25, 0x01, //              Logical Maximum (1)
+                    0x75, 0x01, //              Report Size (1)
+                    0x95, 0x02, //              Report Count (2)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x75, 0x01, //              Report Size (1)
+                    0x95, 0x06, //              Report Count (6) - padding
+                    0x81, 0x01, //              Input (Constant)
+                    0x09, 0x51, //              Usage (Contact Identifier)
+                    0x25, 0x7F, //              Logical Maximum (127)
+                    0x75, 0x08, //              Report Size (8)
+                    0x95, 0x01, //              Report Count (1)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x05, 0x01, //              Usage Page (Generic)
+                    0x09, 0x30, //              Usage (X)
+                    0x26, 0x68, 0x01, //        Logical Maximum (360)
+                    0x75, 0x10, //              Report Size (16)
+                    0x95, 0x01, //              Report Count (1)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x09, 0x31, //              Usage (Y)
+                    0x26, 0x80, 0x02, //        Logical Maximum (640)
+                    0x75, 0x10, //              Report Size (16)
+                    0x95, 0x01, //              Report Count (1)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x05, 0x0D, //              Usage Page (Digitizer)
+                    0xC0, //                End Collection
+                    0x09, 0x22, //          Usage (Finger)
+                    0xA1, 0x02, //          Collection (Logical) - contact 1
+                    0x09, 0x42, //              Usage (Tip Switch) - contact with screen
+                    0x09, 0x32, //              Usage (In Range) - proximity to screen
+                    0x15, 0x00, //              Logical Minimum (0)
+                    0x25, 0x01, //              Logical Maximum (1)
+                    0x75, 0x01, //              Report Size (1)
+                    0x95, 0x02, //              Report Count (2)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x75, 0x01, //              Report Size (1)
+                    0x95, 0x06, //              Report Count (6) - padding
+                    0x81, 0x01, //              Input (Constant)
+                    0x09, 0x51, //              Usage (Contact Identifier)
+                    0x25, 0x7F, //              Logical Maximum (127)
+                    0x75, 0x08, //              Report Size (8)
+                    0x95, 0x01, //              Report Count (1)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x05, 0x01, //              Usage Page (Generic)
+                    0x09, 0x30, //              Usage (X)
+                    0x26, 0x68, 0x01, //        Logical Maximum (360)
+                    0x75, 0x10, //              Report Size (16)
+                    0x95, 0x01, //              Report Count (1)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x09, 0x31, //              Usage (Y)
+                    0x26, 0x80, 0x02, //        Logical Maximum (640)
+                    0x75, 0x10, //              Report Size (16)
+                    0x95, 0x01, //              Report Count (1)
+                    0x81, 0x02, //              Input (Data, Variable, Absolute)
+                    0x05, 0x0D, //              Usage Page (Digitizer)
+                    0xC0, //                End Collection
+                    0x09, 0x54, //          Usage (Contact Count)
+                    0x25, 0x02, //          Logical Maximum (2)
+                    0x75, 0x08, //          Report Size (8)
+                    0x95, 0x01, //          Report Count (1)
+                    0x81, 0x02, //          Input (Data, Variable, Absolute)
+                    0xC0, //            End Collection
                 });
 
         private final ImmutableList<Integer> mDescriptor;
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Manages connections to many AOAv2-compatible devices, setting them up concurrently.
+ *
+ * <p>Setting up a device can take several seconds, as it may need to restart in accessory mode
+ * and reconnect before its HIDs are registered. Devices are therefore set up on a thread pool,
+ * after listing the connected devices once, and the setup latency of each device is reported.
+ */
+public class AoaDeviceManager implements AutoCloseable {
+
+    static final int DEFAULT_PARALLELISM = 16;
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10L);
+
+    private final UsbHelper mHelper;
+    private final boolean mOwnsHelper;
+    private final ExecutorService mExecutor;
+    private final Map<String, AoaDevice> mDevices = new ConcurrentHashMap<>();
+
+    public AoaDeviceManager() {
+        this(new UsbHelper(), true, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param helper USB helper to connect with, which remains open when this manager is closed
+     * @param parallelism maximum number of devices to set up at the same time
+     */
+    public AoaDeviceManager(@Nonnull UsbHelper helper, int parallelism) {
+        this(helper, false, parallelism);
+    }
+
+    private AoaDeviceManager(UsbHelper helper, boolean ownsHelper, int parallelism) {
+        checkArgument(parallelism > 0, "Invalid parallelism %s", parallelism);
+        mHelper = helper;
+        mOwnsHelper = ownsHelper;
+        mExecutor =
+                Executors.newFixedThreadPool(
+                        parallelism,
+                        new ThreadFactoryBuilder()
+                                .setNameFormat("aoa-device-setup-%d")
+                                .setDaemon(true)
+                                .build());
+    }
+
+    /**
+     * Get a connected device, connecting to it if necessary.
+     *
+     * @param serialNumber device serial number
+     * @return AOAv2-compatible device or {@code null} if not found
+     */
+    @Nullable
+    public AoaDevice getDevice(@Nonnull String serialNumber) {
+        AoaDevice device = mDevices.get(serialNumber);
+        if (device != null) {
+            return device;
+        }
+        SetupResult result =
+                connect(ImmutableSet.of(serialNumber), DEFAULT_TIMEOUT).get(serialNumber);
+        return result.getDevice();
+    }
+
+    /** @return connected devices by serial number */
+    @Nonnull
+    public Map<String, AoaDevice> getDevices() {
+        return ImmutableMap.copyOf(mDevices);
+    }
+
+    /**
+     * Connect to all AOAv2-compatible devices currently attached.
+     *
+     * @param timeout maximum time to wait for each device to be attached
+     * @return setup results by serial number
+     */
+    @Nonnull
+    public Map<String, SetupResult> connectAll(@Nonnull Duration timeout) {
+        return connect(mHelper.getSerialNumbers(true), timeout);
+    }
+
+    /**
+     * Connect to several devices concurrently. Devices which are already connected are not set up
+     * again.
+     *
+     * @param serialNumbers device serial numbers
+     * @param timeout maximum time to wait for each device to be attached
+     * @return setup results by serial number, in the same order as the serial numbers
+     */
+    @Nonnull
+    public Map<String, SetupResult> connect(
+            @Nonnull Collection<String> serialNumbers, @Nonnull Duration timeout) {
+        Set<String> pending = new LinkedHashSet<>(serialNumbers);
+        pending.removeAll(mDevices.keySet());
+        // list the attached devices once, instead of once per device
+        Map<String, UsbDevice> attached =
+                pending.isEmpty() ? ImmutableMap.of() : mHelper.getDevices(pending);
+
+        Map<String, Future<SetupResult>> futures = new LinkedHashMap<>();
+        for (String serialNumber : new LinkedHashSet<>(serialNumbers)) {
+            UsbDevice device = attached.get(serialNumber);
+            futures.put(
+                    serialNumber,
+                    mExecutor.submit(() -> setUp(serialNumber, device, timeout)));
+        }
+
+        Map<String, SetupResult> results = new LinkedHashMap<>();
+        for (Map.Entry<String, Future<SetupResult>> entry : futures.entrySet()) {
+            try {
+                results.put(entry.getKey(), Uninterruptibles.getUninterruptibly(entry.getValue()));
+            } catch (ExecutionException e) {
+                Throwables.throwIfUnchecked(e.getCause());
+                throw new UsbException("Failed to set up %s: %s", entry.getKey(), e.getCause());
+            }
+        }
+        return results;
+    }
+
+    // Wait for a device if necessary, and switch it to accessory mode and register its HIDs
+    private SetupResult setUp(String serialNumber, @Nullable UsbDevice device, Duration timeout) {
+        long start = System.nanoTime();
+        AoaDevice connected = mDevices.get(serialNumber);
+        if (connected != null) {
+            return new SetupResult(serialNumber, connected, Duration.ZERO, null);
+        }
+
+        try {
+            if (device == null) {
+                device = mHelper.getDevice(serialNumber, timeout);
+            }
+            if (device == null) {
+                throw new UsbException("Device %s not found", serialNumber);
+            }
+            if (!device.isAoaCompatible()) {
+                device.close();
+                throw new UsbException("Device %s is not AOAv2-compatible", serialNumber);
+            }
+            AoaDevice aoaDevice = createDevice(device);
+            connected = mDevices.putIfAbsent(serialNumber, aoaDevice);
+            if (connected != null) {
+                // concurrently connected by another call
+                aoaDevice.close();
+                return new SetupResult(serialNumber, connected, elapsed(start), null);
+            }
+            return new SetupResult(serialNumber, aoaDevice, elapsed(start), null);
+        } catch (RuntimeException e) {
+            return new SetupResult(serialNumber, null, elapsed(start), e);
+        }
+    }
+
+    @VisibleForTesting
+    AoaDevice createDevice(@Nonnull UsbDevice device) {
+        return new AoaDevice(mHelper, device);
+    }
+
+    private static Duration elapsed(long start) {
+        return Duration.ofNanos(System.nanoTime() - start);
+    }
+
+    /** Disconnect a device. */
+    public void disconnect(@Nonnull String serialNumber) {
+        AoaDevice device = mDevices.remove(serialNumber);
+        if (device != null) {
+            device.close();
+        }
+    }
+
+    /** Disconnect all devices, and stop the setup threads. */
+    @Override
+    public void close() {
+        mExecutor.shutdownNow();
+        for (String serialNumber : mDevices.keySet()) {
+            disconnect(serialNumber);
+        }
+        if (mOwnsHelper) {
+            mHelper.close();
+        }
+    }
+
+    /** Outcome of setting up a device. */
+    public static final class SetupResult {
+
+        private final String mSerialNumber;
+        private final AoaDevice mDevice;
+        private final Duration mLatency;
+        private final RuntimeException mError;
+
+        SetupResult(
+                @Nonnull String serialNumber,
+                @Nullable AoaDevice device,
+                @Nonnull Duration latency,
+                @Nullable RuntimeException error) {
+            mSerialNumber = serialNumber;
+            mDevice = device;
+            mLatency = latency;
+            mError = error;
+        }
+
+        /** @return device serial number */
+        @Nonnull
+        public String getSerialNumber() {
+            return mSerialNumber;
+        }
+
+        /** @return true if the device is connected and its HIDs are registered */
+        public boolean isSuccessful() {
+            return mDevice != null;
+        }
+
+        /** @return connected device, or {@code null} if the setup failed */
+        @Nullable
+        public AoaDevice getDevice() {
+            return mDevice;
+        }
+
+        /** @return time spent setting up the device, or zero if it was already connected */
+        @Nonnull
+        public Duration getLatency() {
+            return mLatency;
+        }
+
+        /** @return cause of the setup failure, or {@code null} if successful */
+        @Nullable
+        public RuntimeException getError() {
+            return mError;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "SetupResult{%s, %s in %dms%s}",
+                    mSerialNumber,
+                    isSuccessful() ? "connected" : "failed",
+                    mLatency.toMillis(),
+                    mError == null ? "" : ": " + mError.getMessage());
+        }
+    }
+}
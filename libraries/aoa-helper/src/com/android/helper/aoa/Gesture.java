@@ -0,0 +1,281 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import static com.android.helper.aoa.AoaDevice.MAX_CONTACTS;
+import static com.android.helper.aoa.AoaDevice.TOUCH_DOWN;
+import static com.android.helper.aoa.AoaDevice.TOUCH_UP;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+
+import java.awt.Point;
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Touch gesture made of one or more contacts, each following a path over the same duration. The
+ * gesture is sampled at a fixed rate into HID touch reports, and can be performed using {@link
+ * AoaDevice#perform(Gesture)}.
+ *
+ * <pre>
+ * Gesture fling = Gesture.builder(Duration.ofMillis(150))
+ *         .addContact(Gesture.curve(new Point(180, 600), new Point(300, 400), new Point(180, 50)))
+ *         .setProfile(Gesture.Profile.DECELERATE)
+ *         .setSampleRate(120)
+ *         .build();
+ * </pre>
+ */
+public final class Gesture {
+
+    static final int DEFAULT_SAMPLE_RATE = 100;
+    static final int MAX_SAMPLE_RATE = 1000;
+
+    private final ImmutableList<Path> mContacts;
+    private final Duration mDuration;
+    private final Profile mProfile;
+    private final int mSampleRate;
+
+    private Gesture(ImmutableList<Path> contacts, Duration duration, Profile profile, int rate) {
+        mContacts = contacts;
+        mDuration = duration;
+        mProfile = profile;
+        mSampleRate = rate;
+    }
+
+    /** @return a builder for a gesture lasting {@code duration} */
+    @Nonnull
+    public static Builder builder(@Nonnull Duration duration) {
+        return new Builder(duration);
+    }
+
+    /**
+     * Two-finger pinch centered on a point, with the fingers moving horizontally from one distance
+     * apart to another. Zoom in using a {@code toSpan} larger than {@code fromSpan}.
+     */
+    @Nonnull
+    public static Gesture pinch(
+            @Nonnull Point center, int fromSpan, int toSpan, @Nonnull Duration duration) {
+        Point leftFrom = new Point(center.x - fromSpan / 2, center.y);
+        Point leftTo = new Point(center.x - toSpan / 2, center.y);
+        Point rightFrom = new Point(center.x + fromSpan / 2, center.y);
+        Point rightTo = new Point(center.x + toSpan / 2, center.y);
+        return builder(duration)
+                .addContact(line(leftFrom, leftTo))
+                .addContact(line(rightFrom, rightTo))
+                .setProfile(Profile.EASE_IN_OUT)
+                .build();
+    }
+
+    /** @return path staying at a point, e.g. for a finger held down during a multi-touch gesture */
+    @Nonnull
+    public static Path hold(@Nonnull Point point) {
+        Point copy = new Point(point);
+        return fraction -> copy;
+    }
+
+    /** @return straight path between two points */
+    @Nonnull
+    public static Path line(@Nonnull Point from, @Nonnull Point to) {
+        return curve(from, to);
+    }
+
+    /**
+     * Bezier curve starting at the first point and ending at the last point, pulled towards the
+     * points in between, e.g. one control point for a quadratic curve and two for a cubic curve.
+     */
+    @Nonnull
+    public static Path curve(@Nonnull Point... points) {
+        checkArgument(points.length >= 2, "Curves need at least two points");
+        double[] xs = new double[points.length];
+        double[] ys = new double[points.length];
+        for (int i = 0; i < points.length; i++) {
+            xs[i] = points[i].x;
+            ys[i] = points[i].y;
+        }
+        return fraction ->
+                new Point(
+                        (int) Math.round(interpolate(xs, fraction)),
+                        (int) Math.round(interpolate(ys, fraction)));
+    }
+
+    // Evaluate a Bezier curve using De Casteljau's algorithm
+    private static double interpolate(double[] controls, double fraction) {
+        double[] values = controls.clone();
+        for (int n = values.length - 1; n > 0; n--) {
+            for (int i = 0; i < n; i++) {
+                values[i] += (values[i + 1] - values[i]) * fraction;
+            }
+        }
+        return values[0];
+    }
+
+    /** @return paths followed by the contacts */
+    @Nonnull
+    public ImmutableList<Path> getContacts() {
+        return mContacts;
+    }
+
+    /** @return time between the first contact and the last movement */
+    @Nonnull
+    public Duration getDuration() {
+        return mDuration;
+    }
+
+    /** @return velocity profile along the paths */
+    @Nonnull
+    public Profile getProfile() {
+        return mProfile;
+    }
+
+    /** @return number of touch reports per second */
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    /**
+     * Sample the gesture into touch reports: one report per sample with all contacts down, and a
+     * final report lifting them. Single contact gestures use the single touch screen.
+     */
+    @VisibleForTesting
+    HidSequence toSequence() {
+        long samples = Math.max(1L, Math.round(mDuration.toNanos() * mSampleRate / 1e9));
+        Duration interval = mDuration.dividedBy(samples);
+        AoaDevice.HID hid =
+                mContacts.size() == 1
+                        ? AoaDevice.HID.TOUCH_SCREEN
+                        : AoaDevice.HID.MULTI_TOUCH_SCREEN;
+
+        HidSequence.Builder sequence = HidSequence.builder();
+        Point[] points = new Point[mContacts.size()];
+        for (long i = 0; i <= samples; i++) {
+            double fraction = mProfile.getProgress((double) i / samples);
+            for (int contact = 0; contact < points.length; contact++) {
+                points[contact] = mContacts.get(contact).getPoint(fraction);
+            }
+            sequence.report(hid, report(TOUCH_DOWN, points)).pause(interval);
+        }
+        sequence.report(hid, report(TOUCH_UP, points));
+        return sequence.build();
+    }
+
+    private static byte[] report(byte type, Point[] points) {
+        return points.length == 1
+                ? AoaDevice.touchReport(type, points[0])
+                : AoaDevice.multiTouchReport(type, points);
+    }
+
+    /** Position of a contact as a function of its progress along the gesture. */
+    public interface Path {
+        /**
+         * @param fraction progress between 0 (start) and 1 (end)
+         * @return contact position, clamped to the screen when sent
+         */
+        @Nonnull
+        Point getPoint(double fraction);
+    }
+
+    /** Velocity profile, mapping elapsed time to progress along the paths. */
+    public enum Profile {
+        /** Constant velocity, e.g. for sustained scrolling. */
+        LINEAR {
+            @Override
+            double getProgress(double time) {
+                return time;
+            }
+        },
+        /** Starting and ending at rest, e.g. for drags and pinches. */
+        EASE_IN_OUT {
+            @Override
+            double getProgress(double time) {
+                return (1 - Math.cos(Math.PI * time)) / 2;
+            }
+        },
+        /** Starting at rest and speeding up. */
+        ACCELERATE {
+            @Override
+            double getProgress(double time) {
+                return time * time;
+            }
+        },
+        /** Starting fast and slowing down to rest, e.g. for flings. */
+        DECELERATE {
+            @Override
+            double getProgress(double time) {
+                return 1 - (1 - time) * (1 - time);
+            }
+        };
+
+        /**
+         * @param time elapsed fraction of the gesture duration, between 0 and 1
+         * @return progress along the paths, between 0 and 1
+         */
+        abstract double getProgress(double time);
+    }
+
+    /** Builder for {@link Gesture}. */
+    public static final class Builder {
+
+        private final ImmutableList.Builder<Path> mContacts = ImmutableList.builder();
+        private final Duration mDuration;
+        private Profile mProfile = Profile.LINEAR;
+        private int mSampleRate = DEFAULT_SAMPLE_RATE;
+
+        private Builder(Duration duration) {
+            checkArgument(
+                    !duration.isNegative() && !duration.isZero(), "Invalid duration %s", duration);
+            mDuration = duration;
+        }
+
+        /** Add a contact following a path. */
+        @Nonnull
+        public Builder addContact(@Nonnull Path path) {
+            mContacts.add(path);
+            return this;
+        }
+
+        /** Set the velocity profile, {@link Profile#LINEAR} by default. */
+        @Nonnull
+        public Builder setProfile(@Nonnull Profile profile) {
+            mProfile = profile;
+            return this;
+        }
+
+        /** Set the number of touch reports per second, 100 by default. */
+        @Nonnull
+        public Builder setSampleRate(int sampleRate) {
+            checkArgument(
+                    sampleRate > 0 && sampleRate <= MAX_SAMPLE_RATE,
+                    "Invalid sample rate %s",
+                    sampleRate);
+            mSampleRate = sampleRate;
+            return this;
+        }
+
+        @Nonnull
+        public Gesture build() {
+            ImmutableList<Path> contacts = mContacts.build();
+            checkArgument(
+                    !contacts.isEmpty() && contacts.size() <= MAX_CONTACTS,
+                    "Gestures need between 1 and %s contacts",
+                    MAX_CONTACTS);
+            return new Gesture(contacts, mDuration, mProfile, mSampleRate);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Timing of a sent HID report sequence. Jitter is the difference between the time at which a
+ * report was scheduled and the time at which its transfer started.
+ */
+public final class HidSendStats {
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final int mEventCount;
+    private final long mDurationNanos;
+    private final long mMeanJitterNanos;
+    private final long mMaxJitterNanos;
+
+    HidSendStats(int eventCount, long durationNanos, long meanJitterNanos, long maxJitterNanos) {
+        mEventCount = eventCount;
+        mDurationNanos = durationNanos;
+        mMeanJitterNanos = meanJitterNanos;
+        mMaxJitterNanos = maxJitterNanos;
+    }
+
+    /** @return number of reports sent */
+    public int getEventCount() {
+        return mEventCount;
+    }
+
+    /** @return time between the first and last report transfers */
+    @Nonnull
+    public Duration getDuration() {
+        return Duration.ofNanos(mDurationNanos);
+    }
+
+    /** @return achieved reports per second, or 0 if fewer than two reports were sent */
+    public double getEventRate() {
+        if (mEventCount < 2 || mDurationNanos <= 0) {
+            return 0;
+        }
+        return (mEventCount - 1) * NANOS_PER_SECOND / mDurationNanos;
+    }
+
+    /** @return mean absolute difference between scheduled and actual transfer times */
+    @Nonnull
+    public Duration getMeanJitter() {
+        return Duration.ofNanos(mMeanJitterNanos);
+    }
+
+    /** @return maximum absolute difference between scheduled and actual transfer times */
+    @Nonnull
+    public Duration getMaxJitter() {
+        return Duration.ofNanos(mMaxJitterNanos);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "HidSendStats{events=%d, duration=%s, rate=%.1f/s, jitter=%dus mean, %dus max}",
+                mEventCount,
+                getDuration(),
+                getEventRate(),
+                mMeanJitterNanos / 1000,
+                mMaxJitterNanos / 1000);
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Sends {@link HidSequence}s from a dedicated high priority thread, starting each report transfer
+ * as close as possible to its scheduled time.
+ *
+ * <p>The sender parks until shortly before a report is due and busy-waits for the remainder, as
+ * parking alone is only accurate to the scheduler's granularity. Reports which are already late,
+ * e.g. after a slow transfer, are sent immediately and the remaining reports are delayed by the
+ * same amount, so that the spacing between reports (and therefore gesture velocity) is preserved.
+ */
+class HidSender implements AutoCloseable {
+
+    // Remaining time under which the sender busy-waits instead of parking
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(500L);
+
+    private final ExecutorService mExecutor;
+
+    HidSender(@Nonnull String name) {
+        mExecutor =
+                Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder()
+                                .setNameFormat(name + "-hid-sender")
+                                .setDaemon(true)
+                                .setPriority(Thread.MAX_PRIORITY)
+                                .build());
+    }
+
+    /**
+     * Send a sequence and wait for it to complete.
+     *
+     * @param sequence reports to send
+     * @param transfer performs a single report transfer, invoked on the sender thread
+     * @return achieved timing
+     */
+    @Nonnull
+    HidSendStats send(
+            @Nonnull HidSequence sequence, @Nonnull Consumer<HidSequence.Report> transfer) {
+        Future<HidSendStats> result = mExecutor.submit(() -> run(sequence, transfer));
+        try {
+            return Uninterruptibles.getUninterruptibly(result);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new UsbException("Failed to send HID reports: %s", e.getCause());
+        }
+    }
+
+    // Transfer each report at its scheduled time, and measure the deviation from the schedule
+    private static HidSendStats run(
+            HidSequence sequence, Consumer<HidSequence.Report> transfer) {
+        long start = System.nanoTime();
+        long first = 0L;
+        long last = 0L;
+        long totalJitter = 0L;
+        long maxJitter = 0L;
+        int count = 0;
+
+        for (HidSequence.Report report : sequence.getReports()) {
+            long deadline = start + report.getOffsetNanos();
+            waitUntil(deadline);
+
+            long now = System.nanoTime();
+            long jitter = Math.abs(now - deadline);
+            if (now - deadline > 0) {
+                start += now - deadline;
+            }
+            totalJitter += jitter;
+            maxJitter = Math.max(maxJitter, jitter);
+            if (count == 0) {
+                first = now;
+            }
+            last = now;
+            count++;
+
+            transfer.accept(report);
+        }
+
+        return new HidSendStats(
+                count, last - first, count == 0 ? 0L : totalJitter / count, maxJitter);
+    }
+
+    // Park until shortly before the deadline, then spin until it is reached
+    private static void waitUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        while (remaining > SPIN_THRESHOLD_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+            remaining = deadline - System.nanoTime();
+        }
+        while (deadline - System.nanoTime() > 0) {
+            // busy-wait
+        }
+    }
+
+    /** Stop the sender thread. */
+    @Override
+    public void close() {
+        mExecutor.shutdownNow();
+    }
+}
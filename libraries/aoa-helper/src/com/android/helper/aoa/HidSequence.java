@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+
+import java.time.Duration;
+
+import javax.annotation.Nonnull;
+
+/** Precomputed sequence of HID reports, each scheduled at an offset from the sequence start. */
+final class HidSequence {
+
+    private final ImmutableList<Report> mReports;
+
+    private HidSequence(ImmutableList<Report> reports) {
+        mReports = reports;
+    }
+
+    /** @return a builder for a new sequence */
+    static Builder builder() {
+        return new Builder();
+    }
+
+    /** @return reports in the order they will be sent */
+    ImmutableList<Report> getReports() {
+        return mReports;
+    }
+
+    /** Single HID report and its offset from the sequence start. */
+    static final class Report {
+
+        private final AoaDevice.HID mHid;
+        private final byte[] mData;
+        private final long mOffsetNanos;
+
+        private Report(AoaDevice.HID hid, byte[] data, long offsetNanos) {
+            mHid = hid;
+            mData = data;
+            mOffsetNanos = offsetNanos;
+        }
+
+        AoaDevice.HID getHid() {
+            return mHid;
+        }
+
+        byte[] getData() {
+            return mData;
+        }
+
+        long getOffsetNanos() {
+            return mOffsetNanos;
+        }
+    }
+
+    /** Builds a sequence by appending reports and pauses. */
+    static final class Builder {
+
+        private final ImmutableList.Builder<Report> mReports = ImmutableList.builder();
+        private long mOffsetNanos;
+
+        private Builder() {}
+
+        /** Append a report at the current offset. */
+        Builder report(@Nonnull AoaDevice.HID hid, @Nonnull byte[] data) {
+            mReports.add(new Report(hid, data, mOffsetNanos));
+            return this;
+        }
+
+        /** Advance the offset of the following reports. */
+        Builder pause(@Nonnull Duration duration) {
+            checkArgument(!duration.isNegative(), "Negative pause %s", duration);
+            mOffsetNanos += duration.toNanos();
+            return this;
+        }
+
+        HidSequence build() {
+            return new HidSequence(mReports.build());
+        }
+    }
+}
@@ -26,8 +26,11 @@ import com.sun.jna.ptr.PointerByReference;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -120,6 +123,34 @@ public class UsbHelper implements AutoCloseable {
         return null;
     }
 
+    /**
+     * Find several USB devices using their serial numbers, listing the connected devices only once.
+     *
+     * @param serialNumbers device serial numbers
+     * @return USB devices found, by serial number
+     */
+    @Nonnull
+    public Map<String, UsbDevice> getDevices(@Nonnull Collection<String> serialNumbers) {
+        Map<String, UsbDevice> devices = new HashMap<>();
+
+        try (DeviceList list = new DeviceList()) {
+            for (Pointer devicePointer : list) {
+                // keep devices with one of the requested serial numbers
+                UsbDevice device = connect(devicePointer);
+                String serialNumber = device.getSerialNumber();
+                if (serialNumber != null
+                        && serialNumbers.contains(serialNumber)
+                        && !devices.containsKey(serialNumber)) {
+                    devices.put(serialNumber, device);
+                } else {
+                    device.close();
+                }
+            }
+        }
+
+        return devices;
+    }
+
     @VisibleForTesting
     UsbDevice connect(@Nonnull Pointer devicePointer) {
         return new UsbDevice(mUsb, devicePointer);
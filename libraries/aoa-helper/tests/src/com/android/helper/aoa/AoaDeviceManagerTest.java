@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.collect.ImmutableList;
+import com.sun.jna.Memory;
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+import com.sun.jna.ptr.PointerByReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+/** Unit tests for {@link AoaDeviceManager} */
+@RunWith(JUnit4.class)
+public class AoaDeviceManagerTest {
+
+    private static final List<String> SERIAL_NUMBERS = ImmutableList.of("one", "two", "three");
+
+    private AoaDeviceManager mManager;
+
+    private IUsbNative mUsb;
+    private UsbHelper mHelper;
+    private final Map<String, UsbDevice> mDevices = new HashMap<>();
+    private final AtomicInteger mSetups = new AtomicInteger();
+    private CountDownLatch mSetupLatch;
+
+    @Before
+    public void setUp() {
+        Pointer context = new Memory(1);
+        // one dummy pointer per device
+        Map<Pointer, UsbDevice> devicesByPointer = new HashMap<>();
+        Memory list = new Memory((long) Native.POINTER_SIZE * SERIAL_NUMBERS.size());
+        for (int i = 0; i < SERIAL_NUMBERS.size(); i++) {
+            String serialNumber = SERIAL_NUMBERS.get(i);
+            UsbDevice device = mock(UsbDevice.class);
+            when(device.isValid()).thenReturn(true);
+            when(device.getSerialNumber()).thenReturn(serialNumber);
+            when(device.isAoaCompatible()).thenReturn(true);
+            mDevices.put(serialNumber, device);
+
+            Pointer pointer = new Memory(1);
+            list.setPointer((long) i * Native.POINTER_SIZE, pointer);
+            devicesByPointer.put(pointer, device);
+        }
+
+        mUsb = mock(IUsbNative.class);
+        // populate context when initialized
+        when(mUsb.libusb_init(any()))
+                .then(
+                        invocation -> {
+                            PointerByReference ref =
+                                    (PointerByReference) invocation.getArguments()[0];
+                            ref.setValue(context);
+                            return 0;
+                        });
+        // list all device pointers
+        when(mUsb.libusb_get_device_list(any(), any()))
+                .then(
+                        invocation -> {
+                            PointerByReference ref =
+                                    (PointerByReference) invocation.getArguments()[1];
+                            ref.setValue(list);
+                            return SERIAL_NUMBERS.size();
+                        });
+
+        mHelper = spy(new UsbHelper(mUsb));
+        doAnswer(invocation -> devicesByPointer.get(invocation.getArgument(0)))
+                .when(mHelper)
+                .connect(any());
+
+        // setups don't wait for each other by default
+        mSetupLatch = new CountDownLatch(0);
+        mManager =
+                new AoaDeviceManager(mHelper, SERIAL_NUMBERS.size()) {
+                    @Override
+                    AoaDevice createDevice(@Nonnull UsbDevice device) {
+                        mSetups.incrementAndGet();
+                        mSetupLatch.countDown();
+                        try {
+                            if (!mSetupLatch.await(5L, TimeUnit.SECONDS)) {
+                                throw new UsbException("Setups did not run concurrently");
+                            }
+                        } catch (InterruptedException e) {
+                            throw new UsbException("Interrupted");
+                        }
+                        return mock(AoaDevice.class);
+                    }
+                };
+    }
+
+    @After
+    public void tearDown() {
+        mManager.close();
+    }
+
+    @Test
+    public void testConnectsConcurrently() {
+        // every setup waits until all of them have started
+        mSetupLatch = new CountDownLatch(SERIAL_NUMBERS.size());
+
+        Map<String, AoaDeviceManager.SetupResult> results =
+                mManager.connect(SERIAL_NUMBERS, Duration.ZERO);
+
+        assertEquals(SERIAL_NUMBERS, ImmutableList.copyOf(results.keySet()));
+        for (AoaDeviceManager.SetupResult result : results.values()) {
+            assertTrue(result.toString(), result.isSuccessful());
+            assertNotNull(result.getLatency());
+        }
+        assertEquals(SERIAL_NUMBERS.size(), mManager.getDevices().size());
+
+        // attached devices were only listed once
+        verify(mUsb, times(1)).libusb_get_device_list(any(), any());
+    }
+
+    @Test
+    public void testConnectAll() {
+        when(mDevices.get("two").isAoaCompatible()).thenReturn(false);
+
+        Map<String, AoaDeviceManager.SetupResult> results = mManager.connectAll(Duration.ZERO);
+
+        assertEquals(2, results.size());
+        assertTrue(results.get("one").isSuccessful());
+        assertTrue(results.get("three").isSuccessful());
+    }
+
+    @Test
+    public void testReportsMissingDevice() {
+        AoaDeviceManager.SetupResult result =
+                mManager.connect(ImmutableList.of("missing"), Duration.ZERO).get("missing");
+
+        assertFalse(result.isSuccessful());
+        assertTrue(result.getError() instanceof UsbException);
+        assertEquals(0, mSetups.get());
+    }
+
+    @Test
+    public void testReportsIncompatibleDevice() {
+        UsbDevice device = mDevices.get("one");
+        when(device.isAoaCompatible()).thenReturn(false);
+
+        AoaDeviceManager.SetupResult result =
+                mManager.connect(ImmutableList.of("one"), Duration.ZERO).get("one");
+
+        assertFalse(result.isSuccessful());
+        verify(device, times(1)).close();
+    }
+
+    @Test
+    public void testSkipsConnectedDevices() {
+        AoaDevice device = mManager.getDevice("one");
+        assertNotNull(device);
+
+        AoaDeviceManager.SetupResult result =
+                mManager.connect(ImmutableList.of("one"), Duration.ZERO).get("one");
+
+        assertSame(device, result.getDevice());
+        assertEquals(Duration.ZERO, result.getLatency());
+        assertEquals(1, mSetups.get());
+    }
+
+    @Test
+    public void testClose() {
+        mManager.connect(SERIAL_NUMBERS, Duration.ZERO);
+        Map<String, AoaDevice> devices = mManager.getDevices();
+
+        mManager.close();
+
+        for (AoaDevice device : devices.values()) {
+            verify(device, times(1)).close();
+        }
+        assertTrue(mManager.getDevices().isEmpty());
+    }
+}
@@ -33,6 +33,7 @@ import static com.android.helper.aoa.AoaDevice.TOUCH_UP;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyByte;
@@ -264,6 +265,57 @@ public class AoaDeviceTest {
         verifyTouches(events);
     }
 
+    @Test
+    public void testSendStats() {
+        mDevice = createDevice();
+        assertNull(mDevice.getLastSendStats());
+
+        mDevice.fling(new Point(0, 0), new Point(FLING_STEPS, 0));
+
+        // one report per step and a final touch up, paced by the step delay
+        HidSendStats stats = mDevice.getLastSendStats();
+        assertEquals(FLING_STEPS + 2, stats.getEventCount());
+        assertTrue(stats.getDuration().compareTo(Duration.ofMillis(10L * FLING_STEPS)) >= 0);
+        assertTrue(stats.getEventRate() > 0);
+    }
+
+    @Test
+    public void testPerformGesture() {
+        mDevice = createDevice();
+        mDevice.perform(
+                Gesture.builder(Duration.ofMillis(100L))
+                        .addContact(Gesture.line(new Point(0, 0), new Point(0, 10)))
+                        .build());
+
+        // one touch report per sample at the default rate, one pixel apart
+        List<Touch> events =
+                Stream.iterate(0, i -> i + 1)
+                        .limit(11)
+                        .map(i -> new Touch(TOUCH_DOWN, 0, i))
+                        .collect(Collectors.toList());
+        events.add(new Touch(TOUCH_UP, 0, 10));
+
+        verifyTouches(events);
+    }
+
+    @Test
+    public void testPerformMultiTouchGesture() {
+        mDevice = createDevice();
+        mDevice.perform(Gesture.pinch(new Point(180, 320), 200, 100, Duration.ofMillis(100L)));
+
+        InOrder order = inOrder(mDelegate);
+        verifyHidRequest(
+                order,
+                times(1),
+                AoaDevice.HID.MULTI_TOUCH_SCREEN,
+                AoaDevice.multiTouchReport(TOUCH_DOWN, new Point(80, 320), new Point(280, 320)));
+        verifyHidRequest(
+                order,
+                times(1),
+                AoaDevice.HID.MULTI_TOUCH_SCREEN,
+                AoaDevice.multiTouchReport(TOUCH_UP, new Point(130, 320), new Point(230, 320)));
+    }
+
     @Test
     public void testWrite() {
         mDevice = spy(createDevice());
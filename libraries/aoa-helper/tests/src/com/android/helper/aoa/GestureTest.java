@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import static com.android.helper.aoa.AoaDevice.TOUCH_DOWN;
+import static com.android.helper.aoa.AoaDevice.TOUCH_UP;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.awt.Point;
+import java.time.Duration;
+import java.util.List;
+
+/** Unit tests for {@link Gesture} */
+@RunWith(JUnit4.class)
+public class GestureTest {
+
+    private static final Duration DURATION = Duration.ofMillis(100L);
+
+    @Test
+    public void testSamplesLine() {
+        Gesture gesture =
+                Gesture.builder(DURATION)
+                        .addContact(Gesture.line(new Point(0, 0), new Point(10, 20)))
+                        .build();
+
+        // one report every 10ms and a final touch up
+        List<HidSequence.Report> reports = gesture.toSequence().getReports();
+        assertEquals(12, reports.size());
+        for (int i = 0; i <= 10; i++) {
+            HidSequence.Report report = reports.get(i);
+            assertEquals(AoaDevice.HID.TOUCH_SCREEN, report.getHid());
+            assertEquals(Duration.ofMillis(10L * i).toNanos(), report.getOffsetNanos());
+            assertArrayEquals(
+                    AoaDevice.touchReport(TOUCH_DOWN, new Point(i, 2 * i)), report.getData());
+        }
+        assertArrayEquals(
+                AoaDevice.touchReport(TOUCH_UP, new Point(10, 20)), reports.get(11).getData());
+    }
+
+    @Test
+    public void testSampleRate() {
+        Gesture gesture =
+                Gesture.builder(DURATION)
+                        .addContact(Gesture.hold(new Point(1, 2)))
+                        .setSampleRate(200)
+                        .build();
+
+        List<HidSequence.Report> reports = gesture.toSequence().getReports();
+        assertEquals(22, reports.size());
+        assertEquals(Duration.ofMillis(5L).toNanos(), reports.get(1).getOffsetNanos());
+    }
+
+    @Test
+    public void testProfiles() {
+        for (Gesture.Profile profile : Gesture.Profile.values()) {
+            assertEquals(0, profile.getProgress(0), 1e-9);
+            assertEquals(1, profile.getProgress(1), 1e-9);
+        }
+        assertEquals(0.5, Gesture.Profile.LINEAR.getProgress(0.5), 1e-9);
+        assertEquals(0.5, Gesture.Profile.EASE_IN_OUT.getProgress(0.5), 1e-9);
+        assertTrue(Gesture.Profile.ACCELERATE.getProgress(0.5) < 0.5);
+        assertTrue(Gesture.Profile.DECELERATE.getProgress(0.5) > 0.5);
+    }
+
+    @Test
+    public void testCurve() {
+        Gesture.Path curve = Gesture.curve(new Point(0, 0), new Point(100, 0), new Point(100, 100));
+
+        assertEquals(new Point(0, 0), curve.getPoint(0));
+        assertEquals(new Point(75, 25), curve.getPoint(0.5));
+        assertEquals(new Point(100, 100), curve.getPoint(1));
+    }
+
+    @Test
+    public void testPinch() {
+        Gesture gesture = Gesture.pinch(new Point(180, 320), 100, 200, DURATION);
+
+        List<HidSequence.Report> reports = gesture.toSequence().getReports();
+        assertEquals(AoaDevice.HID.MULTI_TOUCH_SCREEN, reports.get(0).getHid());
+        assertArrayEquals(
+                AoaDevice.multiTouchReport(TOUCH_DOWN, new Point(130, 320), new Point(230, 320)),
+                reports.get(0).getData());
+        assertArrayEquals(
+                AoaDevice.multiTouchReport(TOUCH_UP, new Point(80, 320), new Point(280, 320)),
+                reports.get(reports.size() - 1).getData());
+    }
+
+    @Test
+    public void testMultiTouchReport() {
+        byte[] data = AoaDevice.multiTouchReport(TOUCH_DOWN, new Point(1, 2), new Point(300, 400));
+
+        assertArrayEquals(
+                new byte[] {TOUCH_DOWN, 0, 1, 0, 2, 0, TOUCH_DOWN, 1, 44, 1, (byte) 144, 1, 2},
+                data);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresContacts() {
+        Gesture.builder(DURATION).build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLimitsContacts() {
+        Gesture.builder(DURATION)
+                .addContact(Gesture.hold(new Point(0, 0)))
+                .addContact(Gesture.hold(new Point(1, 1)))
+                .addContact(Gesture.hold(new Point(2, 2)))
+                .build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresPositiveDuration() {
+        Gesture.builder(Duration.ZERO);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLimitsSampleRate() {
+        Gesture.builder(DURATION).setSampleRate(0);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helper.aoa;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Unit tests for {@link HidSender} */
+@RunWith(JUnit4.class)
+public class HidSenderTest {
+
+    private static final Duration STEP = Duration.ofMillis(5L);
+
+    private HidSender mSender;
+
+    @Before
+    public void setUp() {
+        mSender = new HidSender("test");
+    }
+
+    @After
+    public void tearDown() {
+        mSender.close();
+    }
+
+    @Test
+    public void testSendsInOrderOnSenderThread() {
+        HidSequence sequence =
+                HidSequence.builder()
+                        .report(AoaDevice.HID.KEYBOARD, new byte[] {1})
+                        .pause(STEP)
+                        .report(AoaDevice.HID.KEYBOARD, new byte[] {0})
+                        .pause(STEP)
+                        .report(AoaDevice.HID.SYSTEM, new byte[] {2})
+                        .build();
+
+        List<byte[]> sent = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        HidSendStats stats =
+                mSender.send(
+                        sequence,
+                        report -> {
+                            sent.add(report.getData());
+                            threads.add(Thread.currentThread());
+                        });
+
+        assertEquals(3, sent.size());
+        assertArrayEquals(new byte[] {1}, sent.get(0));
+        assertArrayEquals(new byte[] {0}, sent.get(1));
+        assertArrayEquals(new byte[] {2}, sent.get(2));
+        assertNotEquals(Thread.currentThread(), threads.get(0));
+        assertEquals(Thread.MAX_PRIORITY, threads.get(0).getPriority());
+
+        // reports are not sent before their scheduled time
+        assertEquals(3, stats.getEventCount());
+        assertTrue(stats.getDuration().compareTo(STEP.multipliedBy(2)) >= 0);
+        assertTrue(stats.getEventRate() > 0);
+        assertTrue(stats.getMaxJitter().compareTo(stats.getMeanJitter()) >= 0);
+    }
+
+    @Test
+    public void testEmptySequence() {
+        HidSendStats stats =
+                mSender.send(
+                        HidSequence.builder().build(),
+                        report -> {
+                            throw new AssertionError("unexpected report");
+                        });
+
+        assertEquals(0, stats.getEventCount());
+        assertEquals(0, stats.getEventRate(), 0);
+    }
+
+    @Test(expected = UsbException.class)
+    public void testPropagatesTransferErrors() {
+        HidSequence sequence =
+                HidSequence.builder().report(AoaDevice.HID.KEYBOARD, new byte[] {1}).build();
+        mSender.send(
+                sequence,
+                report -> {
+                    throw new UsbException("transfer failed");
+                });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsNegativePause() {
+        HidSequence.builder().pause(Duration.ofMillis(-1L));
+    }
+}
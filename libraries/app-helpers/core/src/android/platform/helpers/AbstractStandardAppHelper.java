@@ -19,15 +19,16 @@ package android.platform.helpers;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.app.Instrumentation;
+import android.app.KeyguardManager;
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Bundle;
 import android.os.Environment;
 import android.os.RemoteException;
-import android.os.SystemClock;
 import android.platform.helpers.exceptions.AccountException;
 import android.platform.helpers.exceptions.UnknownUiException;
 import android.platform.helpers.watchers.AppIsNotRespondingWatcher;
@@ -37,11 +38,11 @@ import android.support.test.uiautomator.By;
 import android.support.test.uiautomator.UiDevice;
 import android.support.test.uiautomator.UiObject2;
 import android.support.test.uiautomator.UiWatcher;
-import android.support.test.uiautomator.Until;
 import androidx.test.InstrumentationRegistry;
 import android.util.Log;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
+import android.view.accessibility.AccessibilityEvent;
 
 import java.io.File;
 import java.io.IOException;
@@ -53,6 +54,12 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
     private static final String FAVOR_CMD = "favor-shell-commands";
     private static final String USE_HOME_CMD = "press-home-to-exit";
     private static final String LAUNCH_TIMEOUT_OPTION = "app-launch-timeout_ms";
+    private static final String FAST_LAUNCH_OPTION = "fast-launch";
+    // Waits for the launch to complete, and prints its status and timing
+    private static final String LAUNCH_CMD =
+            "am start -W -a android.intent.action.MAIN -c android.intent.category.LAUNCHER -n %s";
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
     private static final String ERROR_NOT_FOUND =
         "Element %s %s is not found in the application %s";
 
@@ -63,15 +70,18 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
     public UiDevice mDevice;
     public Instrumentation mInstrumentation;
     public ILauncherStrategy mLauncherStrategy;
+    protected final UiEventWaiter mWaiter;
     private final KeyCharacterMap mKeyCharacterMap =
             KeyCharacterMap.load(KeyCharacterMap.VIRTUAL_KEYBOARD);
     private final boolean mFavorShellCommands;
     private final boolean mPressHomeToExit;
     private final long mLaunchTimeout;
+    private final boolean mFastLaunch;
 
     public AbstractStandardAppHelper(Instrumentation instr) {
         mInstrumentation = instr;
         mDevice = UiDevice.getInstance(instr);
+        mWaiter = UiEventWaiter.getInstance(instr);
         mFavorShellCommands =
                 Boolean.valueOf(
                         InstrumentationRegistry.getArguments().getString(FAVOR_CMD, "false"));
@@ -85,6 +95,10 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
                                 .getString(
                                         LAUNCH_TIMEOUT_OPTION,
                                         String.valueOf(TimeUnit.SECONDS.toMillis(30))));
+        mFastLaunch =
+                Boolean.valueOf(
+                        InstrumentationRegistry.getArguments()
+                                .getString(FAST_LAUNCH_OPTION, "false"));
     }
 
     /**
@@ -101,7 +115,9 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
             throw new RuntimeException("Could not unlock the device.", e);
         }
         // Unlock the screen if necessary.
-        if (mDevice.hasObject(By.res("com.android.systemui", "keyguard_bottom_area"))) {
+        if (mFastLaunch
+                ? isKeyguardLocked()
+                : mDevice.hasObject(By.res("com.android.systemui", "keyguard_bottom_area"))) {
             mDevice.pressMenu();
             mDevice.waitForIdle();
         }
@@ -110,7 +126,20 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
         long launchInitiationTimeMs = System.currentTimeMillis();
 
         registerDialogWatchers();
-        if (mFavorShellCommands) {
+        if (mFastLaunch) {
+            boolean launched;
+            try {
+                launched = launchAndWait(pkg);
+            } catch (RuntimeException e) {
+                removeDialogWatchers();
+                throw e;
+            }
+            if (launched) {
+                removeDialogWatchers();
+                return;
+            }
+            // The launch didn't complete in time, wait for the package below.
+        } else if (mFavorShellCommands) {
             String output = null;
             try {
                 Log.i(LOG_TAG, String.format("Sending command to launch: %s", pkg));
@@ -134,7 +163,7 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
         }
 
         // Ensure the package is in the foreground for success.
-        if (!mDevice.wait(Until.hasObject(By.pkg(pkg).depth(0)), mLaunchTimeout)) {
+        if (!mWaiter.hasObject(mDevice, By.pkg(pkg).depth(0), mLaunchTimeout)) {
             removeDialogWatchers();
             throw new IllegalStateException(
                     String.format(
@@ -144,6 +173,72 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
         removeDialogWatchers();
     }
 
+    /**
+     * Launches the package and waits for the launch to complete using ActivityManager, instead of
+     * polling the UI, and reports the launch timing as instrumentation status metrics.
+     *
+     * @return false if the launch didn't complete in time, and the caller should wait for it
+     */
+    private boolean launchAndWait(String pkg) {
+        Intent intent =
+                mInstrumentation.getContext().getPackageManager().getLaunchIntentForPackage(pkg);
+        if (intent == null || intent.getComponent() == null) {
+            throw new RuntimeException(String.format("Failed to find package: %s", pkg));
+        }
+        String output;
+        try {
+            Log.i(LOG_TAG, String.format("Sending command to launch and wait: %s", pkg));
+            output =
+                    mDevice.executeShellCommand(
+                            String.format(
+                                    LAUNCH_CMD, intent.getComponent().flattenToShortString()));
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to launch package: %s", pkg), e);
+        }
+
+        // The output has one "Key: value" line per field, e.g. "Status: ok", "TotalTime: 512".
+        Bundle result = new Bundle();
+        for (String line : output.split("\n")) {
+            int separator = line.indexOf(':');
+            if (separator > 0) {
+                result.putString(
+                        line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+            }
+        }
+        if (result.containsKey("Error")) {
+            throw new RuntimeException(
+                    String.format("Failed to launch package %s: %s", pkg, output.trim()));
+        }
+        if (!"ok".equals(result.getString("Status"))) {
+            Log.w(LOG_TAG, String.format("Launch of %s did not complete: %s", pkg, output.trim()));
+            return false;
+        }
+
+        Bundle metrics = new Bundle();
+        putLaunchMetric(metrics, result, "TotalTime", pkg + "_launch_total_time_ms");
+        putLaunchMetric(metrics, result, "WaitTime", pkg + "_launch_wait_time_ms");
+        if (result.containsKey("LaunchState")) {
+            metrics.putString(pkg + "_launch_state", result.getString("LaunchState"));
+        }
+        Log.i(LOG_TAG, String.format("Launched %s: %s", pkg, metrics));
+        mInstrumentation.sendStatus(METRICS_STATUS_CODE, metrics);
+        return true;
+    }
+
+    private static void putLaunchMetric(Bundle metrics, Bundle result, String field, String key) {
+        try {
+            metrics.putLong(key, Long.parseLong(result.getString(field)));
+        } catch (NumberFormatException e) {
+            // Not reported by this platform version.
+        }
+    }
+
+    private boolean isKeyguardLocked() {
+        KeyguardManager keyguardManager =
+                mInstrumentation.getContext().getSystemService(KeyguardManager.class);
+        return keyguardManager != null && keyguardManager.isKeyguardLocked();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -166,8 +261,8 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
                 mDevice.pressHome();
             }
         }
-        if (!mDevice.wait(
-                Until.hasObject(mLauncherStrategy.getWorkspaceSelector()), EXIT_WAIT_TIMEOUT)) {
+        if (!mWaiter.hasObject(
+                mDevice, mLauncherStrategy.getWorkspaceSelector(), EXIT_WAIT_TIMEOUT)) {
             throw new IllegalStateException("Failed to exit the app to launcher.");
         }
     }
@@ -256,12 +351,20 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
     public boolean sendTextEvents(String text, long delay) {
       Log.v(LOG_TAG, String.format("Sending text events for %s", text));
       KeyEvent[] events = mKeyCharacterMap.getEvents(text.toCharArray());
+      boolean[] pressed = new boolean[1];
       for (KeyEvent event : events) {
         if (KeyEvent.ACTION_DOWN == event.getAction()) {
-          if (!mDevice.pressKeyCode(event.getKeyCode(), event.getMetaState())) {
+          Runnable press =
+              () -> pressed[0] = mDevice.pressKeyCode(event.getKeyCode(), event.getMetaState());
+          if (KeyEvent.isModifierKey(event.getKeyCode())) {
+            press.run();
+          } else {
+            // Continue once the text has changed, waiting at most the delay.
+            mWaiter.performAndWait(press, AccessibilityEvent.TYPE_VIEW_TEXT_CHANGED, delay);
+          }
+          if (!pressed[0]) {
             return false;
           }
-          SystemClock.sleep(delay);
         }
       }
       return true;
@@ -305,33 +408,33 @@ public abstract class AbstractStandardAppHelper implements IAppHelper {
     }
 
     protected void waitAndClickById(String packageStr, String id, long timeout) {
-      clickOn(mDevice.wait(Until.findObject(By.res(packageStr, id)), timeout));
+      clickOn(mWaiter.findObject(mDevice, By.res(packageStr, id), timeout));
     }
 
     protected void waitAndClickByText(String text, long timeout) {
-      clickOn(mDevice.wait(Until.findObject(By.text(text)), timeout));
+      clickOn(mWaiter.findObject(mDevice, By.text(text), timeout));
     }
 
     protected void waitAndClickByDescription(String description, long timeout) {
-      clickOn(mDevice.wait(Until.findObject(By.desc(description)), timeout));
+      clickOn(mWaiter.findObject(mDevice, By.desc(description), timeout));
     }
 
 
     protected void checkElementWithIdExists(String packageStr, String id, long timeout) {
-      if (!mDevice.wait(Until.hasObject(By.res(packageStr, id)), timeout)) {
+      if (!mWaiter.hasObject(mDevice, By.res(packageStr, id), timeout)) {
         throw new UnknownUiException(String.format(ERROR_NOT_FOUND, "with id", id, getPackage()));
         }
     }
 
     protected void checkElementWithTextExists(String text, long timeout) {
-      if (!mDevice.wait(Until.hasObject(By.text(text)), timeout)) {
+      if (!mWaiter.hasObject(mDevice, By.text(text), timeout)) {
         throw new UnknownUiException(
             String.format(ERROR_NOT_FOUND, "with text", text, getPackage()));
         }
     }
 
     protected void checkElementWithDescriptionExists(String description, long timeout) {
-      if (!mDevice.wait(Until.hasObject(By.desc(description)), timeout)) {
+      if (!mWaiter.hasObject(mDevice, By.desc(description), timeout)) {
         throw new UnknownUiException(
             String.format(ERROR_NOT_FOUND, "with description", description, getPackage()));
       }
@@ -26,16 +26,24 @@ import android.util.Log;
 
 import dalvik.system.DexFile;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 /**
@@ -53,6 +61,12 @@ import java.util.stream.Collectors;
  * HelperManager and to instantiate implementations. Use of this is discouraged.
  * </ol>
  * <p>
+ * The available classes are indexed by the helper types they implement the first time a helper is
+ * requested, and the implementation chosen for each helper type and keyword is cached, so that
+ * later requests don't load any classes. A build can list the implementations of a helper type in
+ * a {@code META-INF/services/<helper type>} resource, in which case no classes are scanned to find
+ * them.
+ * <p>
  * Including and using this strategy will prune the explicit dependency tree for the App Helper
  * Library and provide a more robust library for use across the Android source tree.
  */
@@ -60,6 +74,14 @@ public class HelperManager {
     public static final String NO_MATCH_ERROR_MESSAGE = "No matching implementations";
 
     private static final String LOG_TAG = HelperManager.class.getSimpleName();
+    private static final String SERVICES_PATH = "META-INF/services/";
+    // Packages of libraries bundled with the helpers, which never contain helper implementations
+    private static final String[] SKIPPED_PACKAGES = {
+        "android.support.test.", "androidx.", "com.google.common.", "junit.", "kotlin.",
+        "kotlinx.", "org.hamcrest.", "org.junit.", "org.mockito.",
+    };
+    // Anonymous classes, e.g. Foo$1, which can't be helper implementations
+    private static final Pattern ANONYMOUS_CLASS = Pattern.compile(".*\\$[0-9]+(\\$.*)?");
     private static HelperManager sInstance;
 
     /**
@@ -117,6 +139,10 @@ public class HelperManager {
 
     private Instrumentation mInstrumentation;
     private List<String> mClasses;
+    // Concrete helper implementations by the helper types they implement, built on first use
+    private Map<Class<?>, List<Class<?>>> mIndex;
+    // Implementation chosen for each helper type and keyword
+    private final Map<String, Constructor<?>> mResolved = new ConcurrentHashMap<>();
 
     private HelperManager(List<String> paths, Instrumentation instr) {
         mInstrumentation = instr;
@@ -149,104 +175,227 @@ public class HelperManager {
      * @param base the interface base class to find an implementation for
      * @param keyword a keyword for matching the helper implementation, if multiple exist
      * @throws RuntimeException if no implementation is found
-     * @return a list of all concrete implementations we could find
+     * @return the first concrete implementation that could be instantiated
      */
     public <T extends IAppHelper> T get(Class<T> base, String keyword) {
-        List<T> matching = getAll(base, keyword);
-        Log.i(
+        String key = base.getName() + "#" + keyword;
+        Constructor<?> resolved = mResolved.get(key);
+        if (resolved != null) {
+            try {
+                return base.cast(resolved.newInstance(mInstrumentation));
+            } catch (ReflectiveOperationException e) {
+                // Resolve again below, reporting the errors of every candidate.
+                mResolved.remove(key);
+            }
+        }
+
+        List<Class<?>> candidates = getCandidates(base, keyword);
+        Log.d(
                 LOG_TAG,
-                String.format("Selecting implementation %s", matching.get(0).getClass().getName()));
-        return matching.get(0);
+                String.format(
+                        "Found matching implementations: %s.",
+                        candidates.stream().map(Class::getName).collect(Collectors.toList())));
+
+        Map<Object, Throwable> mappedExceptions = new HashMap<>();
+        for (Class<?> clazz : candidates) {
+            String className = clazz.getName();
+            // Instantiate the implementation class and return
+            try {
+                Constructor<?> constructor = clazz.getConstructor(Instrumentation.class);
+                T implementation = base.cast(constructor.newInstance(mInstrumentation));
+                mResolved.put(key, constructor);
+                Log.i(LOG_TAG, String.format("Selecting implementation %s", className));
+                return implementation;
+            } catch (NoSuchMethodException e) {
+                mappedExceptions.put(
+                        clazz,
+                        wrapThrowable(
+                                String.format(
+                                        "Failed to find a matching constructor for %s", className),
+                                e));
+            } catch (IllegalAccessException e) {
+                mappedExceptions.put(
+                        clazz,
+                        wrapThrowable(
+                                String.format("Failed to access the constructor %s", className),
+                                e));
+            } catch (InstantiationException e) {
+                mappedExceptions.put(
+                        clazz,
+                        wrapThrowable(String.format("Failed to instantiate %s", className), e));
+            } catch (InvocationTargetException e) {
+                mappedExceptions.put(
+                        clazz,
+                        wrapThrowable(
+                                String.format(
+                                        "Exception encountered instantiating %s", className),
+                                e));
+            }
+        }
+
+        if (mappedExceptions.isEmpty()) {
+            throw new RuntimeException(
+                    String.format(
+                            "Could not find an implementation for %s. %s.",
+                            base, NO_MATCH_ERROR_MESSAGE));
+        }
+        throw new MappedMultiException(
+                String.format(
+                        "Could not find an implementation for %s. "
+                                + "Instantiation for all candidates failed. "
+                                + "Please look at the error messages below to determine why.",
+                        base),
+                mappedExceptions);
     }
 
     /**
-     * Returns a concrete implementation of the helper interface supplied, if available.
-     *
-     * @param base the interface base class to find an implementation for
-     * @param keyword a keyword for matching the helper implementation, if multiple exist
-     * @throws RuntimeException if no implementation is found
-     * @return a concrete implementation of base
+     * Returns the concrete implementations of {@code base} whose names contain {@code keyword}, in
+     * the order they were found.
      */
-    private <T extends IAppHelper> List<T> getAll(Class<T> base, String keyword) {
-        ClassLoader loader = HelperManager.class.getClassLoader();
-        List<T> implementations = new ArrayList<>();
-        Map<Object, Throwable> mappedExceptions = new HashMap<>();
-
-        // Iterate and search for the implementation
-        for (String className : mClasses) {
-            Class<?> clazz = null;
-            try {
-                clazz = loader.loadClass(className);
-                // Skip non-instantiable classes
-                if (isAbstract(clazz.getModifiers()) || isInterface(clazz.getModifiers())) {
-                    continue;
+    private List<Class<?>> getCandidates(Class<?> base, String keyword) {
+        List<Class<?>> implementations = getListedImplementations(base);
+        if (implementations == null) {
+            implementations = getIndex().get(base);
+        }
+        List<Class<?>> candidates = new ArrayList<>();
+        if (implementations != null) {
+            for (Class<?> clazz : implementations) {
+                if (!clazz.equals(base) && clazz.getName().contains(keyword)) {
+                    candidates.add(clazz);
                 }
-            } catch (ClassNotFoundException e) {
-                Log.w(LOG_TAG, String.format("Class not found: %s", className));
-                continue;
             }
-            if (base.isAssignableFrom(clazz)
-                    && !clazz.equals(base)
-                    && className.contains(keyword)) {
-                // Instantiate the implementation class and return
-                try {
-                    Constructor<?> constructor = clazz.getConstructor(Instrumentation.class);
-                    implementations.add((T)constructor.newInstance(mInstrumentation));
-                } catch (NoSuchMethodException e) {
-                    mappedExceptions.put(
-                            clazz,
-                            wrapThrowable(
-                                    String.format(
-                                            "Failed to find a matching constructor for %s",
-                                            className),
-                                    e));
-                } catch (IllegalAccessException e) {
-                    mappedExceptions.put(
-                            clazz,
-                            wrapThrowable(
-                                    String.format("Failed to access the constructor %s", className),
-                                    e));
-                } catch (InstantiationException e) {
-                    mappedExceptions.put(
-                            clazz,
-                            wrapThrowable(String.format("Failed to instantiate %s", className), e));
-                } catch (InvocationTargetException e) {
-                    mappedExceptions.put(
-                            clazz,
-                            wrapThrowable(
-                                    String.format(
-                                            "Exception encountered instantiating %s", className),
-                                    e));
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns the implementations of {@code base} listed in {@code META-INF/services/}, or null if
+     * there is no such listing.
+     */
+    private List<Class<?>> getListedImplementations(Class<?> base) {
+        ClassLoader loader = HelperManager.class.getClassLoader();
+        List<URL> listings;
+        try {
+            listings = Collections.list(loader.getResources(SERVICES_PATH + base.getName()));
+        } catch (IOException e) {
+            Log.w(LOG_TAG, String.format("Failed to list implementations of %s", base), e);
+            return null;
+        }
+        if (listings.isEmpty()) {
+            return null;
+        }
+
+        Set<String> classNames = new LinkedHashSet<>();
+        for (URL listing : listings) {
+            try (BufferedReader reader =
+                    new BufferedReader(
+                            new InputStreamReader(listing.openStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    // Strip comments, as in ServiceLoader files
+                    int comment = line.indexOf('#');
+                    String className = (comment < 0 ? line : line.substring(0, comment)).trim();
+                    if (!className.isEmpty()) {
+                        classNames.add(className);
+                    }
                 }
+            } catch (IOException e) {
+                Log.w(LOG_TAG, String.format("Failed to read %s", listing), e);
             }
         }
 
-        if (implementations.isEmpty()) {
-            if (mappedExceptions.isEmpty()) {
-                throw new RuntimeException(
-                        String.format(
-                                "Could not find an implementation for %s. %s.",
-                                base, NO_MATCH_ERROR_MESSAGE));
+        List<Class<?>> implementations = new ArrayList<>();
+        for (String className : classNames) {
+            Class<?> clazz = loadHelperClass(loader, className);
+            if (clazz != null && base.isAssignableFrom(clazz)) {
+                implementations.add(clazz);
             }
-            throw new MappedMultiException(
-                    String.format(
-                            "Could not find an implementation for %s. "
-                                    + "Instantiation for all candidates failed. "
-                                    + "Please look at the error messages below to determine why.",
-                            base),
-                    mappedExceptions);
         }
+        return implementations;
+    }
 
-        Log.d(
+    /**
+     * Returns the concrete helper implementations in the searched files, by every helper type they
+     * implement. The index is built the first time it is needed, loading each class only once.
+     */
+    private synchronized Map<Class<?>, List<Class<?>>> getIndex() {
+        if (mIndex != null) {
+            return mIndex;
+        }
+
+        long start = System.currentTimeMillis();
+        ClassLoader loader = HelperManager.class.getClassLoader();
+        Map<Class<?>, List<Class<?>>> index = new HashMap<>();
+        for (String className : mClasses) {
+            if (isSkipped(className)) {
+                continue;
+            }
+            Class<?> clazz = loadHelperClass(loader, className);
+            if (clazz == null) {
+                continue;
+            }
+            for (Class<?> type : getHelperTypes(clazz)) {
+                List<Class<?>> implementations = index.get(type);
+                if (implementations == null) {
+                    implementations = new ArrayList<>();
+                    index.put(type, implementations);
+                }
+                implementations.add(clazz);
+            }
+        }
+        mIndex = index;
+        Log.i(
                 LOG_TAG,
                 String.format(
-                        "Found matching implementations: %s.",
-                        implementations
-                                .stream()
-                                .map(i -> i.getClass().getName())
-                                .collect(Collectors.toList())));
+                        "Indexed %d helper types from %d classes in %d ms.",
+                        index.size(), mClasses.size(), System.currentTimeMillis() - start));
+        return mIndex;
+    }
 
-        return implementations;
+    /**
+     * Loads a class, returning null if it can't be found or isn't a concrete helper
+     * implementation.
+     */
+    private static Class<?> loadHelperClass(ClassLoader loader, String className) {
+        Class<?> clazz;
+        try {
+            clazz = loader.loadClass(className);
+        } catch (ClassNotFoundException | LinkageError e) {
+            Log.w(LOG_TAG, String.format("Class not found: %s", className));
+            return null;
+        }
+        // Skip non-instantiable classes
+        if (isAbstract(clazz.getModifiers())
+                || isInterface(clazz.getModifiers())
+                || !IAppHelper.class.isAssignableFrom(clazz)) {
+            return null;
+        }
+        return clazz;
+    }
+
+    /** Returns the helper classes and interfaces {@code clazz} extends or implements. */
+    private static Set<Class<?>> getHelperTypes(Class<?> clazz) {
+        Set<Class<?>> types = new LinkedHashSet<>();
+        List<Class<?>> pending = new ArrayList<>();
+        pending.add(clazz);
+        while (!pending.isEmpty()) {
+            Class<?> type = pending.remove(pending.size() - 1);
+            if (type == null || !IAppHelper.class.isAssignableFrom(type) || !types.add(type)) {
+                continue;
+            }
+            pending.add(type.getSuperclass());
+            pending.addAll(Arrays.asList(type.getInterfaces()));
+        }
+        return types;
+    }
+
+    private static boolean isSkipped(String className) {
+        for (String prefix : SKIPPED_PACKAGES) {
+            if (className.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return ANONYMOUS_CLASS.matcher(className).matches();
     }
 
     /** Wrap the {@link Throwable} in a {@link RuntimeException} with a custom error message. */
@@ -84,6 +84,8 @@ public abstract class HelperTest<T extends IAppHelper> {
     @After
     public void tearDown() {
         exitApp();
+        // Report how much of the test was spent waiting for the UI, compared with acting on it.
+        UiEventWaiter.getInstance(InstrumentationRegistry.getInstrumentation()).reportMetrics();
     }
 
     /**
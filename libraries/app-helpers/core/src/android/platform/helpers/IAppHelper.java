@@ -91,7 +91,7 @@ public interface IAppHelper {
      * <p>
      * Note: use this only when text accessibility is not supported.
      * @param text the text to input as events
-     * @param delay the delay between each event
+     * @param delay the maximum delay between each event, waiting for the text to change
      * @return true if successful, false otherwise
      */
     abstract boolean sendTextEvents(String text, long delay);
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.platform.helpers;
+
+import android.app.Instrumentation;
+import android.app.UiAutomation;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.test.uiautomator.BySelector;
+import android.support.test.uiautomator.UiDevice;
+import android.support.test.uiautomator.UiObject2;
+import android.util.Log;
+import android.view.accessibility.AccessibilityEvent;
+
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for UI conditions by reacting to accessibility events, instead of sleeping or polling at a
+ * fixed interval. The condition is checked again each time a window changes, so a wait returns as
+ * soon as it holds, and the timeout only bounds the worst case.
+ *
+ * <p>Uses {@link UiAutomation#executeAndWaitForEvent}, which leaves the accessibility event
+ * listener of uiautomator in place. Time spent waiting and time spent acting in between waits are
+ * both tracked, and can be reported as instrumentation metrics with {@link #reportMetrics()}.
+ */
+public class UiEventWaiter {
+    private static final String LOG_TAG = UiEventWaiter.class.getSimpleName();
+
+    // Events after which a condition on the UI may have changed
+    public static final int WINDOW_CHANGE_EVENTS =
+            AccessibilityEvent.TYPE_WINDOW_STATE_CHANGED
+                    | AccessibilityEvent.TYPE_WINDOW_CONTENT_CHANGED
+                    | AccessibilityEvent.TYPE_WINDOWS_CHANGED;
+    // Events may be delivered while a condition is being checked, before waiting for the next one,
+    // so each wait for an event is bounded and the condition is checked again afterwards.
+    private static final long MAX_EVENT_WAIT_MS = 250;
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
+    private static final String WAIT_TIME_METRIC = "helper_wait_time_ms";
+    private static final String ACTION_TIME_METRIC = "helper_action_time_ms";
+    private static final String WAIT_COUNT_METRIC = "helper_wait_count";
+
+    private static UiEventWaiter sInstance;
+
+    private final Instrumentation mInstrumentation;
+    private long mStartTimeMs;
+    private long mWaitTimeMs;
+    private int mWaitCount;
+
+    private UiEventWaiter(Instrumentation instr) {
+        mInstrumentation = instr;
+        mStartTimeMs = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Retrieves the singleton instance of {@link UiEventWaiter}, so that all helpers share the
+     * same wait metrics.
+     */
+    public static synchronized UiEventWaiter getInstance(Instrumentation instr) {
+        if (sInstance == null) {
+            sInstance = new UiEventWaiter(instr);
+        }
+        return sInstance;
+    }
+
+    /** A condition on the UI, checked each time the UI changes. */
+    public interface Condition {
+        boolean isMet();
+    }
+
+    /**
+     * Waits until a condition holds, checking it again after each window change.
+     *
+     * @param condition the condition to wait for
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return true if the condition holds, false if it didn't before the timeout
+     */
+    public boolean waitFor(Condition condition, long timeout) {
+        long startTimeMs = SystemClock.uptimeMillis();
+        long deadlineMs = startTimeMs + timeout;
+        try {
+            while (!condition.isMet()) {
+                long remainingMs = deadlineMs - SystemClock.uptimeMillis();
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                long waitMs = Math.min(remainingMs, MAX_EVENT_WAIT_MS);
+                awaitEvent(() -> {}, WINDOW_CHANGE_EVENTS, waitMs);
+            }
+            return true;
+        } finally {
+            addWait(startTimeMs);
+        }
+    }
+
+    /**
+     * Waits for an object to appear.
+     *
+     * @return the object, or null if it didn't appear before the timeout
+     */
+    public UiObject2 findObject(UiDevice device, BySelector selector, long timeout) {
+        UiObject2[] found = new UiObject2[1];
+        waitFor(() -> (found[0] = device.findObject(selector)) != null, timeout);
+        return found[0];
+    }
+
+    /** @return true if the object appeared before the timeout */
+    public boolean hasObject(UiDevice device, BySelector selector, long timeout) {
+        return waitFor(() -> device.hasObject(selector), timeout);
+    }
+
+    /** @return true if the object disappeared before the timeout */
+    public boolean isGone(UiDevice device, BySelector selector, long timeout) {
+        return waitFor(() -> !device.hasObject(selector), timeout);
+    }
+
+    /**
+     * Performs an action, then waits for one of the given accessibility events caused by it. The
+     * action itself doesn't count as waiting.
+     *
+     * @param action the action to perform
+     * @param eventTypes mask of {@link AccessibilityEvent} types to wait for
+     * @param timeout the maximum time to wait, in milliseconds
+     * @return true if a matching event was received, false if none was before the timeout
+     */
+    public boolean performAndWait(Runnable action, int eventTypes, long timeout) {
+        long[] actionEndMs = new long[1];
+        try {
+            return awaitEvent(
+                    () -> {
+                        action.run();
+                        actionEndMs[0] = SystemClock.uptimeMillis();
+                    },
+                    eventTypes,
+                    timeout);
+        } finally {
+            if (actionEndMs[0] > 0) {
+                addWait(actionEndMs[0]);
+            }
+        }
+    }
+
+    private boolean awaitEvent(Runnable command, int eventTypes, long timeout) {
+        UiAutomation uiAutomation = mInstrumentation.getUiAutomation();
+        try {
+            uiAutomation.executeAndWaitForEvent(
+                    command, event -> (event.getEventType() & eventTypes) != 0, timeout);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    private synchronized void addWait(long startTimeMs) {
+        mWaitTimeMs += SystemClock.uptimeMillis() - startTimeMs;
+        mWaitCount++;
+    }
+
+    /** @return the total time spent waiting since the last reset, in milliseconds */
+    public synchronized long getWaitTimeMs() {
+        return mWaitTimeMs;
+    }
+
+    /** @return the total time spent outside of waits since the last reset, in milliseconds */
+    public synchronized long getActionTimeMs() {
+        return SystemClock.uptimeMillis() - mStartTimeMs - mWaitTimeMs;
+    }
+
+    /** @return the number of waits since the last reset */
+    public synchronized int getWaitCount() {
+        return mWaitCount;
+    }
+
+    /** Clears the wait metrics. */
+    public synchronized void reset() {
+        mStartTimeMs = SystemClock.uptimeMillis();
+        mWaitTimeMs = 0;
+        mWaitCount = 0;
+    }
+
+    /** @return the wait metrics since the last reset */
+    public synchronized Bundle getMetrics() {
+        Bundle metrics = new Bundle();
+        metrics.putLong(WAIT_TIME_METRIC, getWaitTimeMs());
+        metrics.putLong(ACTION_TIME_METRIC, getActionTimeMs());
+        metrics.putInt(WAIT_COUNT_METRIC, getWaitCount());
+        return metrics;
+    }
+
+    /** Reports the wait metrics as instrumentation status, and resets them. */
+    public synchronized void reportMetrics() {
+        Bundle metrics = getMetrics();
+        Log.i(LOG_TAG, String.format("Wait metrics: %s", metrics));
+        mInstrumentation.sendStatus(METRICS_STATUS_CODE, metrics);
+        reset();
+    }
+}
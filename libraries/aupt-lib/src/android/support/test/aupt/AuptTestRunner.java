@@ -74,6 +74,9 @@ public class AuptTestRunner extends InstrumentationTestRunner {
     private static final Long ANR_DELAY = 30000L;
     private static final Long DEFAULT_SUITE_TIMEOUT = 0L;
     private static final Long DEFAULT_TEST_TIMEOUT = 10L;
+    private static final long HEAP_DUMP_SHUTDOWN_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+    private static final long DEFAULT_LOG_SEGMENT_BYTES = 4 * 1024 * 1024;
+    private static final long DEFAULT_LOG_RETAIN_BYTES = 256 * 1024 * 1024;
     private static final SimpleDateFormat SCREENSHOT_DATE_FORMAT =
         new SimpleDateFormat("dd-mm-yy:HH:mm:ss:SSS");
 
@@ -93,6 +96,7 @@ public class AuptTestRunner extends InstrumentationTestRunner {
     private long mDumpheapInterval;
     private long mDumpheapThreshold;
     private long mMaxDumpheaps;
+    private HeapDumpPipeline mHeapDumps;
 
     /* String Parameters */
     private List<String> mJars = new ArrayList<>();
@@ -109,7 +113,7 @@ public class AuptTestRunner extends InstrumentationTestRunner {
 
     /* Logging */
     private ProcessStatusTracker mProcessTracker;
-    private List<MemHealthRecord> mMemHealthRecords = new ArrayList<>();
+    private MemHealthStore mMemHealthStore;
     private Map<String, Long> mDumpheapCount = new HashMap<>();
     private Map<String, Long> mLastDumpheap = new HashMap<>();
 
@@ -182,10 +186,18 @@ public class AuptTestRunner extends InstrumentationTestRunner {
             Log.w(LOG_TAG, "Could not find or create output directory " + mResultsDirectory);
         }
 
+        mMemHealthStore = new MemHealthStore(
+                new File(mResultsDirectory, "memory-health-details.txt"));
+
         // Option: -e fileRetainCount 1
         mFileRetainCount = parseLongParam("fileRetainCount", -1);
         mDeleteOldFiles = (mFileRetainCount != -1);
 
+        // Option: -e dumpheapBudgetBytes N [-e compressDumpheap false]
+        mHeapDumps = new HeapDumpPipeline(this, mResultsDirectory,
+                parseLongParam("dumpheapBudgetBytes", -1),
+                parseBoolParam("compressDumpheap", true));
+
         // Primary logging infrastructure
         mDataCollector = new DataCollector(
                 TimeUnit.MINUTES.toMillis(parseLongParam("bugreportInterval", 0)),
@@ -199,6 +211,13 @@ public class AuptTestRunner extends InstrumentationTestRunner {
                 TimeUnit.MINUTES.toMillis(parseLongParam("bugreportzInterval", 0)),
                 mResultsDirectory, this);
 
+        // Option: -e compressLogs true [-e logSegmentBytes N] [-e logRetainBytes N]
+        if (parseBoolParam("compressLogs", false)) {
+            mDataCollector.setLogStore(new CompressedLogStore(mResultsDirectory,
+                    parseLongParam("logSegmentBytes", DEFAULT_LOG_SEGMENT_BYTES),
+                    parseLongParam("logRetainBytes", DEFAULT_LOG_RETAIN_BYTES)));
+        }
+
         // Make our TestRunner and make sure we injectInstrumentation.
         mRunner = new DexTestRunner(this, mScheduler, mJars,
                 TimeUnit.MINUTES.toMillis(parseLongParam("testCaseTimeout", DEFAULT_TEST_TIMEOUT)),
@@ -213,6 +232,8 @@ public class AuptTestRunner extends InstrumentationTestRunner {
                     super.runTest(result);
                 } finally {
                     mDataCollector.stop();
+                    mProcessTracker.stop();
+                    mHeapDumps.shutdown(HEAP_DUMP_SHUTDOWN_TIMEOUT);
                 }
             }
         };
@@ -345,19 +366,9 @@ public class AuptTestRunner extends InstrumentationTestRunner {
             }
 
             private void recordDumpheap(String proc) throws IOException {
-                long count = mDumpheapCount.get(proc);
-
-                String filename = String.format("dumpheap-%s-%d", proc, count);
-                String tempFilename = "/data/local/tmp/" + filename;
-                String finalFilename = mResultsDirectory + "/" + filename;
-
-                AuptTestRunner.this.getUiAutomation().executeShellCommand(
-                        String.format("am dumpheap %s %s", proc, tempFilename));
-
-                SystemClock.sleep(3000);
-
-                AuptTestRunner.this.getUiAutomation().executeShellCommand(
-                        String.format("cp %s %s", tempFilename, finalFilename));
+                Long count = mDumpheapCount.get(proc);
+                mHeapDumps.dump(proc,
+                        String.format("dumpheap-%s-%d", proc, count == null ? 0 : count));
             }
 
             public void run() {
@@ -426,12 +437,8 @@ public class AuptTestRunner extends InstrumentationTestRunner {
             recordMemHealth();
 
             try {
-                MemHealthRecord.saveVerbose(mMemHealthRecords,
+                mMemHealthStore.saveVerbose(
                         new File(mResultsDirectory, "memory-health.txt").getPath());
-                MemHealthRecord.saveCsv(mMemHealthRecords,
-                        new File(mResultsDirectory, "memory-health-details.txt").getPath());
-
-                mMemHealthRecords.clear();
             } catch (IOException ioex) {
                 Log.e(LOG_TAG, "Error writing MemHealthRecords", ioex);
             }
@@ -439,11 +446,13 @@ public class AuptTestRunner extends InstrumentationTestRunner {
 
         private void recordMemHealth() {
             try {
-                mMemHealthRecords.addAll(MemHealthRecord.get(
-                      AuptTestRunner.this,
-                      mMemoryTrackedProcesses,
-                      System.currentTimeMillis(),
-                      getForegroundProcs()));
+                for (MemHealthRecord record : MemHealthRecord.get(
+                        AuptTestRunner.this,
+                        mMemoryTrackedProcesses,
+                        System.currentTimeMillis(),
+                        getForegroundProcs())) {
+                    mMemHealthStore.add(record);
+                }
             } catch (IOException ioex) {
                 Log.e(LOG_TAG, "Error collecting MemHealthRecords", ioex);
             }
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.aupt;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stores periodic log snapshots in compressed, size-bounded segment files instead of one plain
+ * text file per snapshot.
+ *
+ * <p>Snapshots are grouped into streams, e.g. "compact-meminfo". Each stream is written to a
+ * sequence of segments named {@code <stream>-<first timestamp>.gz}. Every snapshot is appended as
+ * its own gzip member, so a segment can be decompressed as a whole with {@code zcat} or one
+ * snapshot at a time from its offset. Next to each segment, a {@code .idx} file lists one
+ * {@code <timestamp>\t<offset>\t<length>} line per snapshot.
+ *
+ * <p>A segment is closed once it grows past the segment size, and the oldest closed segments of
+ * a stream are deleted while the stream takes more than the retained size.
+ */
+public class CompressedLogStore {
+    private static final String TAG = "AuptCompressedLogStore";
+
+    static final String SEGMENT_SUFFIX = ".gz";
+    static final String INDEX_SUFFIX = ".idx";
+
+    private final File mDirectory;
+    private final long mSegmentBytes;
+    private final long mRetainedBytes;
+    private final Map<String, Stream> mStreams = new HashMap<>();
+
+    /**
+     * @param directory where to write the segments
+     * @param segmentBytes size after which a segment is closed and a new one started
+     * @param retainedBytes maximum size of the segments kept for each stream
+     */
+    public CompressedLogStore(File directory, long segmentBytes, long retainedBytes) {
+        if (segmentBytes <= 0 || retainedBytes < segmentBytes) {
+            throw new IllegalArgumentException(String.format(
+                    "Invalid segment size %d for a retained size of %d bytes.",
+                    segmentBytes, retainedBytes));
+        }
+        mDirectory = directory;
+        mSegmentBytes = segmentBytes;
+        mRetainedBytes = retainedBytes;
+    }
+
+    /** Appends a snapshot taken at {@code timestamp} (ms since epoch) to {@code stream}. */
+    public void append(String stream, long timestamp, byte[] content) throws IOException {
+        Stream target;
+        synchronized (mStreams) {
+            target = mStreams.get(stream);
+            if (target == null) {
+                target = new Stream(stream);
+                mStreams.put(stream, target);
+            }
+        }
+        target.append(timestamp, content);
+    }
+
+    /** Closes the current segment of every stream. */
+    public void close() {
+        synchronized (mStreams) {
+            for (Stream stream : mStreams.values()) {
+                stream.close();
+            }
+            mStreams.clear();
+        }
+    }
+
+    /** The segments and index of a single stream. */
+    private class Stream {
+        private final String mName;
+        // Closed segments, oldest first.
+        private final Deque<File> mClosedSegments = new ArrayDeque<>();
+        private long mClosedBytes;
+
+        private File mSegment;
+        private OutputStream mSegmentOut;
+        private Writer mIndexOut;
+        private long mSegmentLength;
+
+        Stream(String name) {
+            mName = name;
+            // Segments left over from an earlier run count toward the retained size.
+            for (File segment : listSegments(mDirectory, name)) {
+                mClosedSegments.add(segment);
+                mClosedBytes += segment.length();
+            }
+        }
+
+        synchronized void append(long timestamp, byte[] content) throws IOException {
+            if (mSegment == null) {
+                open(timestamp);
+            }
+
+            // Compress into memory first, so a failed write never leaves half a member behind
+            // an index entry.
+            ByteArrayOutputStream member = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(member);
+            gzip.write(content);
+            gzip.close();
+
+            long offset = mSegmentLength;
+            member.writeTo(mSegmentOut);
+            mSegmentOut.flush();
+            mSegmentLength += member.size();
+            mIndexOut.write(String.format("%d\t%d\t%d\n", timestamp, offset, member.size()));
+            mIndexOut.flush();
+
+            if (mSegmentLength >= mSegmentBytes) {
+                close();
+                enforceRetention();
+            }
+        }
+
+        synchronized void close() {
+            if (mSegment == null) {
+                return;
+            }
+            try {
+                mSegmentOut.close();
+                mIndexOut.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close segment " + mSegment, e);
+            }
+            mClosedSegments.add(mSegment);
+            mClosedBytes += mSegmentLength;
+            mSegment = null;
+            mSegmentOut = null;
+            mIndexOut = null;
+        }
+
+        private void open(long timestamp) throws IOException {
+            File segment = new File(mDirectory, segmentName(mName, timestamp));
+            while (segment.exists()) {
+                segment = new File(mDirectory, segmentName(mName, ++timestamp));
+            }
+            mSegmentOut = new FileOutputStream(segment);
+            mIndexOut = new FileWriter(indexFor(segment));
+            mSegment = segment;
+            mSegmentLength = 0;
+        }
+
+        private void enforceRetention() {
+            while (mClosedBytes > mRetainedBytes && !mClosedSegments.isEmpty()) {
+                File oldest = mClosedSegments.poll();
+                mClosedBytes -= oldest.length();
+                if (!oldest.delete() || !indexFor(oldest).delete()) {
+                    Log.w(TAG, "Failed to delete old segment " + oldest);
+                }
+            }
+        }
+    }
+
+    /* Reading */
+
+    /** The location of a single snapshot within a segment. */
+    public static class Snapshot {
+        public final File segment;
+        public final long timestamp;
+        public final long offset;
+        public final int length;
+
+        Snapshot(File segment, long timestamp, long offset, int length) {
+            this.segment = segment;
+            this.timestamp = timestamp;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /** Decompresses and returns the content of this snapshot. */
+        public byte[] read() throws IOException {
+            byte[] compressed = new byte[length];
+            try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+                file.seek(offset);
+                file.readFully(compressed);
+            }
+
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+                byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    content.write(buffer, 0, read);
+                }
+            }
+            return content.toByteArray();
+        }
+    }
+
+    /** Returns the snapshots of {@code stream} kept in {@code directory}, oldest first. */
+    public static List<Snapshot> list(File directory, String stream) throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (File segment : listSegments(directory, stream)) {
+            File index = indexFor(segment);
+            if (!index.exists()) {
+                Log.w(TAG, "Missing index for segment " + segment);
+                continue;
+            }
+            long segmentLength = segment.length();
+            try (BufferedReader reader = new BufferedReader(new FileReader(index))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t");
+                    if (fields.length != 3) {
+                        // A partial line from a run that died while writing the index.
+                        continue;
+                    }
+                    Snapshot snapshot = new Snapshot(segment, Long.parseLong(fields[0]),
+                            Long.parseLong(fields[1]), Integer.parseInt(fields[2]));
+                    if (snapshot.offset + snapshot.length <= segmentLength) {
+                        snapshots.add(snapshot);
+                    }
+                }
+            }
+        }
+        return snapshots;
+    }
+
+    /**
+     * Returns the latest snapshot of {@code stream} taken at or before {@code timestamp}, or null
+     * if there is none.
+     */
+    public static Snapshot find(File directory, String stream, long timestamp)
+            throws IOException {
+        Snapshot found = null;
+        for (Snapshot snapshot : list(directory, stream)) {
+            if (snapshot.timestamp > timestamp) {
+                break;
+            }
+            found = snapshot;
+        }
+        return found;
+    }
+
+    /** Returns the segments of {@code stream} in {@code directory}, oldest first. */
+    private static List<File> listSegments(File directory, final String stream) {
+        File[] segments = directory.listFiles(
+                (dir, name) -> name.endsWith(SEGMENT_SUFFIX)
+                        && segmentTimestamp(stream, name) >= 0);
+        if (segments == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(segments, (s1, s2) -> Long.compare(
+                segmentTimestamp(stream, s1.getName()), segmentTimestamp(stream, s2.getName())));
+        return Arrays.asList(segments);
+    }
+
+    private static String segmentName(String stream, long timestamp) {
+        return String.format("%s-%d%s", stream, timestamp, SEGMENT_SUFFIX);
+    }
+
+    /** Returns the first timestamp encoded in a segment name, or -1 if it's not in the stream. */
+    private static long segmentTimestamp(String stream, String name) {
+        String prefix = stream + "-";
+        if (!name.startsWith(prefix) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(
+                    name.substring(prefix.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static File indexFor(File segment) {
+        String name = segment.getName();
+        return new File(segment.getParentFile(),
+                name.substring(0, name.length() - SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+}
@@ -17,27 +17,46 @@
 package android.support.test.aupt;
 
 import android.app.Instrumentation;
+import android.os.Bundle;
 import android.os.SystemClock;
 import android.util.Log;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Periodically saves logs from a set of {@link LogGenerator}s.
+ *
+ * <p>Each generator is scheduled at its own next due time on a small pool of threads, so a slow
+ * generator (e.g. a bugreport) only delays its own next run instead of every other generator.
+ * Lateness and run time are tracked per generator and reported when the collector stops.
+ */
 public class DataCollector {
     private static final String TAG = "AuptDataCollector";
 
+    /** Upper bound on the number of generators that may be saving logs at the same time. */
+    private static final int MAX_THREADS = 3;
+    private static final long STOP_TIMEOUT_MS = 10000;
+    private static final String METRIC_PREFIX = "aupt_collector_";
+    // Status code for reporting metrics while the instrumentation is in progress.
+    private static final int INST_STATUS_IN_PROGRESS = 2;
+
     private final AtomicBoolean mStopped = new AtomicBoolean(true);
-    private final Map<LogGenerator, Long> generatorsWithIntervals = new HashMap<>();
-    private final Map<LogGenerator, Long> mLastUpdate = new HashMap<>();
+    private final Map<LogGenerator, Long> generatorsWithIntervals =
+            new EnumMap<>(LogGenerator.class);
+    private final Map<LogGenerator, GeneratorStats> mStats = new EnumMap<>(LogGenerator.class);
     private final Instrumentation instrumentation;
     private final String resultsDirectory;
-    private final long mSleepInterval;
 
-    private Thread mThread;
+    private ScheduledThreadPoolExecutor mExecutor;
+    private CompressedLogStore mLogStore;
 
     /**
      * Add a generator iff the interval is valid (i.e. > 0).
@@ -72,29 +91,38 @@ public class DataCollector {
         put(LogGenerator.MEM_INFO, meminfoInterval);
         put(LogGenerator.PAGETYPE_INFO, pagetypeinfoInterval);
         put(LogGenerator.TRACE, traceInterval);
+    }
 
-        mSleepInterval = gcd(generatorsWithIntervals.values());
+    /**
+     * Append logs to {@code store} instead of writing one file per snapshot. Must be called before
+     * {@link #start()}; the store is closed when the collector stops.
+     */
+    public synchronized void setLogStore(CompressedLogStore store) {
+        mLogStore = store;
     }
 
     public synchronized void start() {
         if (mStopped.getAndSet(false)) {
-            /* Initialize the LastUpdates to the current time */
+            if (generatorsWithIntervals.isEmpty()) {
+                return;
+            }
+
+            // The executor's delay queue orders the generators by their next due time.
+            mExecutor = new ScheduledThreadPoolExecutor(
+                    Math.min(MAX_THREADS, generatorsWithIntervals.size()));
+            mExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            mStats.clear();
+
+            long now = SystemClock.uptimeMillis();
             for (Map.Entry<LogGenerator, Long> entry : generatorsWithIntervals.entrySet()) {
-                if (entry.getValue() > 0) {
-                    Log.d(TAG, "Collecting " + entry.getKey() + " logs every " +
+                Log.d(TAG, "Collecting " + entry.getKey() + " logs every " +
                         entry.getValue() + " milliseconds");
 
-                    mLastUpdate.put(entry.getKey(), SystemClock.uptimeMillis());
-                }
+                GeneratorStats stats = new GeneratorStats();
+                mStats.put(entry.getKey(), stats);
+                new GeneratorTask(entry.getKey(), entry.getValue(), stats, mExecutor)
+                        .scheduleAt(now + entry.getValue());
             }
-
-            mThread = new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    loop();
-                }
-            });
-            mThread.start();
         } else {
             Log.e(TAG, "Tried to start a started DataCollector!");
         }
@@ -102,70 +130,147 @@ public class DataCollector {
 
     public synchronized void stop() {
         if (!mStopped.getAndSet(true)) {
-            mThread.interrupt();
+            if (mExecutor == null) {
+                return;
+            }
 
+            mExecutor.shutdownNow();
             try {
-                mThread.join();
+                if (!mExecutor.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.w(TAG, "Timed out waiting for log generators to finish.");
+                }
             } catch (InterruptedException e) {
-                // ignore
+                Thread.currentThread().interrupt();
+            }
+            mExecutor = null;
+
+            if (mLogStore != null) {
+                mLogStore.close();
             }
+            reportStats();
         } else {
             Log.e(TAG, "Tried to stop a stoppped DataCollector!");
         }
     }
 
-    private void loop() {
-        if (mSleepInterval <= 0) {
-            return;
+    /** Logs and reports the scheduling statistics of every generator. */
+    private void reportStats() {
+        Bundle metrics = new Bundle();
+        for (Map.Entry<LogGenerator, GeneratorStats> entry : mStats.entrySet()) {
+            String prefix = METRIC_PREFIX + entry.getKey().name().toLowerCase() + "_";
+            GeneratorStats stats = entry.getValue();
+            synchronized (stats) {
+                Log.i(TAG, String.format("%s: %d runs, %d missed, lateness mean %.1f ms "
+                        + "(jitter %.1f ms, max %d ms), run time mean %.1f ms",
+                        entry.getKey(), stats.runs, stats.missed, stats.meanLatenessMs(),
+                        stats.jitterMs(), stats.maxLatenessMs, stats.meanDurationMs()));
+
+                metrics.putInt(prefix + "runs", stats.runs);
+                metrics.putInt(prefix + "missed_runs", stats.missed);
+                metrics.putDouble(prefix + "lateness_mean_ms", stats.meanLatenessMs());
+                metrics.putDouble(prefix + "lateness_jitter_ms", stats.jitterMs());
+                metrics.putLong(prefix + "lateness_max_ms", stats.maxLatenessMs);
+                metrics.putDouble(prefix + "duration_mean_ms", stats.meanDurationMs());
+            }
         }
+        if (!metrics.isEmpty()) {
+            instrumentation.sendStatus(INST_STATUS_IN_PROGRESS, metrics);
+        }
+    }
 
-        while (!mStopped.get()) {
+    /** Saves the logs of a single generator and reschedules itself at its next due time. */
+    private class GeneratorTask implements Runnable {
+        private final LogGenerator mGenerator;
+        private final long mInterval;
+        private final GeneratorStats mGeneratorStats;
+        // Captured so that rescheduling never needs the collector's lock, which stop() holds
+        // while waiting for running tasks.
+        private final ScheduledExecutorService mTaskExecutor;
+        private long mDueTime;
+
+        GeneratorTask(LogGenerator generator, long interval, GeneratorStats stats,
+                ScheduledExecutorService executor) {
+            mTaskExecutor = executor;
+            mGenerator = generator;
+            mInterval = interval;
+            mGeneratorStats = stats;
+        }
+
+        void scheduleAt(long dueTime) {
+            mDueTime = dueTime;
             try {
-                for (Map.Entry<LogGenerator, Long> entry : generatorsWithIntervals.entrySet()) {
-                    Long t = SystemClock.uptimeMillis() - mLastUpdate.get(entry.getKey());
-
-                    if (entry.getValue() > 0 && t >= entry.getValue()) {
-                        try {
-                            entry.getKey().save(instrumentation, resultsDirectory);
-                        } catch (IOException ex) {
-                            Log.e(TAG, "Error writing results in " + resultsDirectory +
-                                    ": " + ex.toString());
-                        }
-
-                        mLastUpdate.put(entry.getKey(), SystemClock.uptimeMillis());
-                    }
-                }
+                mTaskExecutor.schedule(this,
+                        Math.max(0, dueTime - SystemClock.uptimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The collector was stopped.
+            }
+        }
 
-                Thread.sleep(mSleepInterval);
-            } catch (InterruptedException e) {
-                // Ignore.
+        @Override
+        public void run() {
+            if (mStopped.get()) {
+                return;
+            }
+
+            long start = SystemClock.uptimeMillis();
+            try {
+                mGenerator.save(instrumentation, resultsDirectory, mLogStore);
+            } catch (IOException ex) {
+                Log.e(TAG, "Error writing results in " + resultsDirectory +
+                        ": " + ex.toString());
+            } catch (InterruptedException ex) {
+                // Stopped while saving; don't reschedule.
+                return;
             }
+            long end = SystemClock.uptimeMillis();
+
+            // Due times that passed while this run was late or still saving are skipped rather
+            // than run back to back.
+            long nextDue = mDueTime + mInterval;
+            int missed = 0;
+            if (nextDue <= end) {
+                missed = (int) ((end - nextDue) / mInterval) + 1;
+                nextDue += missed * mInterval;
+            }
+            mGeneratorStats.record(start - mDueTime, end - start, missed);
+
+            scheduleAt(nextDue);
         }
     }
 
-    private long gcd(Collection<Long> values) {
-        if (values.size() < 1) {
-            return 0;
-        }
+    /** Lateness, run time and missed runs of a single generator. */
+    private static class GeneratorStats {
+        int runs;
+        int missed;
+        long maxLatenessMs;
+        double latenessSumMs;
+        double latenessSquaresMs;
+        double durationSumMs;
 
-        long gcdSoFar = values.iterator().next();
+        synchronized void record(long latenessMs, long durationMs, int missedRuns) {
+            runs++;
+            missed += missedRuns;
+            maxLatenessMs = Math.max(maxLatenessMs, latenessMs);
+            latenessSumMs += latenessMs;
+            latenessSquaresMs += (double) latenessMs * latenessMs;
+            durationSumMs += durationMs;
+        }
 
-        for (Long value : values) {
-            gcdSoFar = gcd(gcdSoFar, value);
+        double meanLatenessMs() {
+            return runs > 0 ? latenessSumMs / runs : 0;
         }
 
-        return gcdSoFar;
-    }
+        /** Standard deviation of the lateness. */
+        double jitterMs() {
+            if (runs == 0) {
+                return 0;
+            }
+            double mean = meanLatenessMs();
+            return Math.sqrt(Math.max(0, latenessSquaresMs / runs - mean * mean));
+        }
 
-    private long gcd(long a, long b) {
-        if (a == 0) {
-            return b;
-        } else if (b == 0) {
-            return a;
-        } else if (a > b) {
-            return gcd(b, a % b);
-        } else {
-            return gcd(a, b % a);
+        double meanDurationMs() {
+            return runs > 0 ? durationSumMs / runs : 0;
         }
     }
 }
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.aupt;
+
+import android.app.Instrumentation;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Takes heap dumps in the background while the test keeps running.
+ *
+ * <p>Each dump is written by {@code am dumpheap} to a temporary file in the results directory.
+ * The dump is considered complete once the file size stops changing, and is then renamed to its
+ * final name and, optionally, gzipped on a separate thread. Dumps are taken one at a time, and
+ * new dumps are skipped once the dumps taken so far use up the byte budget.
+ */
+class HeapDumpPipeline {
+    private static final String TAG = "AuptHeapDumpPipeline";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long POLL_INTERVAL_MS = 500;
+    // Number of consecutive polls with the same non-zero size after which a dump is complete.
+    private static final int STABLE_POLLS = 4;
+    private static final long DUMP_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+    // A dump still empty after this long has failed, e.g. because the process died.
+    private static final long EMPTY_DUMP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final Instrumentation mInstrumentation;
+    private final File mDirectory;
+    private final long mBudgetBytes;
+    private final boolean mCompress;
+
+    private final ExecutorService mDumpExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService mCompressExecutor = Executors.newSingleThreadExecutor();
+    // Bytes used by finished dumps, after compression if enabled.
+    private final AtomicLong mUsedBytes = new AtomicLong();
+
+    /**
+     * @param directory where to write the dumps
+     * @param budgetBytes total size of dumps after which new dumps are skipped, or -1 for none
+     * @param compress whether to gzip finished dumps
+     */
+    HeapDumpPipeline(Instrumentation instr, File directory, long budgetBytes, boolean compress) {
+        mInstrumentation = instr;
+        mDirectory = directory;
+        mBudgetBytes = budgetBytes;
+        mCompress = compress;
+    }
+
+    /**
+     * Queues a heap dump of {@code proc} named {@code name} and returns immediately.
+     *
+     * @return false if the dump was skipped because the byte budget is used up
+     */
+    boolean dump(final String proc, final String name) {
+        if (overBudget()) {
+            Log.w(TAG, String.format("Skipping heap dump %s: %d byte budget used up.",
+                    name, mBudgetBytes));
+            return false;
+        }
+
+        mDumpExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (overBudget()) {
+                    Log.w(TAG, String.format("Skipping heap dump %s: %d byte budget used up.",
+                            name, mBudgetBytes));
+                    return;
+                }
+                try {
+                    final File dump = takeDump(proc, name);
+                    if (mCompress) {
+                        mCompressExecutor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                compress(dump);
+                            }
+                        });
+                    } else {
+                        mUsedBytes.addAndGet(dump.length());
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to take heap dump " + name, e);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while taking heap dump " + name);
+                }
+            }
+        });
+        return true;
+    }
+
+    /** Waits up to {@code timeoutMs} for the queued dumps to be written and compressed. */
+    void shutdown(long timeoutMs) {
+        long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        mDumpExecutor.shutdown();
+        try {
+            // The compress executor must stay open until every dump has queued its compression.
+            if (mDumpExecutor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                mCompressExecutor.shutdown();
+                mCompressExecutor.awaitTermination(
+                        Math.max(0, deadline - SystemClock.uptimeMillis()),
+                        TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!mDumpExecutor.isTerminated() || !mCompressExecutor.isTerminated()) {
+            Log.w(TAG, "Timed out waiting for heap dumps to finish.");
+        }
+        mDumpExecutor.shutdownNow();
+        mCompressExecutor.shutdownNow();
+    }
+
+    private boolean overBudget() {
+        return mBudgetBytes >= 0 && mUsedBytes.get() >= mBudgetBytes;
+    }
+
+    /** Dumps the heap of {@code proc} and returns the finished dump. */
+    private File takeDump(String proc, String name) throws IOException, InterruptedException {
+        File temp = new File(mDirectory, name + TEMP_SUFFIX);
+        File dump = new File(mDirectory, name);
+
+        ParcelFileDescriptor pfd = mInstrumentation.getUiAutomation().executeShellCommand(
+                String.format("am dumpheap %s %s", proc, temp.getPath()));
+        // Wait for the command itself to return; the dump may still be written afterwards.
+        drain(new ParcelFileDescriptor.AutoCloseInputStream(pfd));
+
+        long start = SystemClock.uptimeMillis();
+        long deadline = start + DUMP_TIMEOUT_MS;
+        long emptyDeadline = start + EMPTY_DUMP_TIMEOUT_MS;
+        long lastSize = -1;
+        int stablePolls = 0;
+        while (stablePolls < STABLE_POLLS) {
+            if (SystemClock.uptimeMillis() > deadline) {
+                temp.delete();
+                throw new IOException(String.format(
+                        "Heap dump %s didn't complete within %d ms.", temp, DUMP_TIMEOUT_MS));
+            }
+            Thread.sleep(POLL_INTERVAL_MS);
+            long size = temp.length();
+            if (size == 0 && SystemClock.uptimeMillis() > emptyDeadline) {
+                temp.delete();
+                throw new IOException(String.format(
+                        "Heap dump %s is still empty after %d ms.", temp, EMPTY_DUMP_TIMEOUT_MS));
+            }
+            stablePolls = size > 0 && size == lastSize ? stablePolls + 1 : 0;
+            lastSize = size;
+        }
+
+        if (!temp.renameTo(dump)) {
+            throw new IOException(String.format("Failed to rename %s to %s", temp, dump));
+        }
+        Log.i(TAG, String.format("Heap dump %s complete: %d bytes", dump, dump.length()));
+        return dump;
+    }
+
+    /** Replaces {@code dump} with a gzipped copy. */
+    private void compress(File dump) {
+        File compressed = new File(dump.getPath() + ".gz");
+        try {
+            InputStream in = new FileInputStream(dump);
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed));
+            try {
+                byte[] buffer = new byte[64 * 1024];
+                int read;
+                while ((read = in.read(buffer)) >= 0) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+                out.close();
+            }
+            dump.delete();
+            mUsedBytes.addAndGet(compressed.length());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compress heap dump " + dump, e);
+            compressed.delete();
+            mUsedBytes.addAndGet(dump.length());
+        }
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        try {
+            while (in.read(buffer) >= 0) {
+                // Discard the command output.
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
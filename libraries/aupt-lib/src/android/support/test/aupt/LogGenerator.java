@@ -19,6 +19,7 @@ package android.support.test.aupt;
 import android.app.Instrumentation;
 import android.util.Log;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 
@@ -35,30 +36,43 @@ enum LogGenerator {
 
     private static final String TAG = "AuptDataCollector";
 
-    /** Save the output of a process to a log file with the given name template. */
+    /**
+     * Save the output of a process to a log file with the given name template, or append it to
+     * the store if there is one. In the store, the stream is named after the template's file name
+     * without the timestamp, e.g. "cpuinfo" for ".../cpuinfo-%s.txt".
+     */
     private static void saveLog(
             Instrumentation instr,
             String command,
-            String template) throws IOException {
-        FilesystemUtil.saveProcessOutput(
-            instr,
-            command,
-            new File(FilesystemUtil.templateToFilename(template)));
+            String template,
+            CompressedLogStore store) throws IOException {
+        if (store == null) {
+            FilesystemUtil.saveProcessOutput(
+                instr,
+                command,
+                new File(FilesystemUtil.templateToFilename(template)));
+            return;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FilesystemUtil.saveProcessOutput(instr, command, out);
+        String stream = new File(template).getName().replace("-%s.txt", "");
+        store.append(stream, System.currentTimeMillis(), out.toByteArray());
     }
 
     /* Generator Types */
 
     protected interface Generator {
-        void save(Instrumentation instr, String logDir)
+        void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException;
     }
 
     private static class CompactMemInfoGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
-                saveLog(instr, "dumpsys meminfo -c -S", logDir + "/compact-meminfo-%s.txt");
+                saveLog(instr, "dumpsys meminfo -c -S", logDir + "/compact-meminfo-%s.txt", store);
             } catch (IOException ioe) {
                 Log.w(TAG, "Error while saving dumpsys meminfo -c: " + ioe.getMessage());
             }
@@ -67,10 +81,10 @@ enum LogGenerator {
 
     private static class CpuInfoGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
-                saveLog(instr, "dumpsys cpuinfo", logDir + "/cpuinfo-%s.txt");
+                saveLog(instr, "dumpsys cpuinfo", logDir + "/cpuinfo-%s.txt", store);
             } catch (IOException ioe) {
                 Log.w(TAG, "Error while saving dumpsys cpuinfo : " + ioe.getMessage());
             }
@@ -79,7 +93,7 @@ enum LogGenerator {
 
     private static class BugreportGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
                 FilesystemUtil.saveBugreport(instr, logDir + "/bugreport-%s.txt");
@@ -91,7 +105,7 @@ enum LogGenerator {
 
     private static class BugreportzGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
                 FilesystemUtil.saveBugreportz(instr);
@@ -103,10 +117,11 @@ enum LogGenerator {
 
     private static class FragmentationGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
-                saveLog(instr, "cat /d/extfrag/unusable_index", logDir + "/unusable-index-%s.txt");
+                saveLog(instr, "cat /d/extfrag/unusable_index",
+                        logDir + "/unusable-index-%s.txt", store);
             } catch (IOException e) {
                 Log.w(TAG, String.format("Failed to save frangmentation: %s", e.getMessage()));
             }
@@ -115,10 +130,10 @@ enum LogGenerator {
 
     private static class GraphicsGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
-                saveLog(instr, "dumpsys graphicsstats", logDir + "/graphics-%s.txt");
+                saveLog(instr, "dumpsys graphicsstats", logDir + "/graphics-%s.txt", store);
             } catch (IOException e) {
                 Log.w(TAG, String.format("Failed to save graphicsstats: %s", e.getMessage()));
             }
@@ -127,11 +142,11 @@ enum LogGenerator {
 
     private static class IonHeapGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
-                saveLog(instr, "cat /d/ion/heaps/audio", logDir + "/ion-audio-%s.txt");
-                saveLog(instr, "cat /d/ion/heaps/system", logDir + "/ion-system-%s.txt");
+                saveLog(instr, "cat /d/ion/heaps/audio", logDir + "/ion-audio-%s.txt", store);
+                saveLog(instr, "cat /d/ion/heaps/system", logDir + "/ion-system-%s.txt", store);
             } catch (IOException e) {
                 Log.w(TAG, String.format("Failed to save ION heap: %s", e.getMessage()));
             }
@@ -140,10 +155,10 @@ enum LogGenerator {
 
     private static class PageTypeInfoGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
-                saveLog(instr, "cat /proc/pagetypeinfo", logDir + "/pagetypeinfo-%s.txt");
+                saveLog(instr, "cat /proc/pagetypeinfo", logDir + "/pagetypeinfo-%s.txt", store);
             } catch (IOException e) {
                 Log.w(TAG, String.format("Failed to save pagetypeinfo: %s", e.getMessage()));
             }
@@ -152,10 +167,11 @@ enum LogGenerator {
 
     private static class TraceGenerator implements Generator {
         @Override
-        public void save(Instrumentation instr, String logDir)
+        public void save(Instrumentation instr, String logDir, CompressedLogStore store)
                 throws IOException, InterruptedException {
             try {
-                saveLog(instr, "cat /sys/kernel/debug/tracing/trace", logDir + "/trace-%s.txt");
+                saveLog(instr, "cat /sys/kernel/debug/tracing/trace",
+                        logDir + "/trace-%s.txt", store);
             } catch (IOException e) {
                 Log.w(TAG, String.format("Failed to save trace: %s", e.getMessage()));
             }
@@ -169,8 +185,12 @@ enum LogGenerator {
         mGenerator = generator;
     }
 
-    public void save(Instrumentation instr, String logDir)
+    /**
+     * Save this generator's logs into {@code logDir}, or into {@code store} if it isn't null.
+     * Bugreports are always saved as files.
+     */
+    public void save(Instrumentation instr, String logDir, CompressedLogStore store)
             throws IOException, InterruptedException {
-        mGenerator.save(instr, logDir);
+        mGenerator.save(instr, logDir, store);
     }
 }
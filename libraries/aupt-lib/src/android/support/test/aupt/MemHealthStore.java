@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.aupt;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Incrementally stores {@link MemHealthRecord}s for a whole run with bounded memory.
+ *
+ * <p>Records are buffered per process in primitive columns, one per field, and appended to a CSV
+ * file whenever a buffer fills up. Alongside, running statistics are kept per process and context
+ * (foreground or background), so that summaries don't need to rescan the samples.
+ */
+class MemHealthStore {
+    private static final int FIELD_COUNT = MemHealthRecord.FIELD_COUNT;
+    private static final int BUFFER_ROWS = 256;
+    private static final double MS_PER_HOUR = 60 * 60 * 1000;
+
+    private final File mCsvFile;
+    private final Map<String, Columns> mColumns = new LinkedHashMap<>();
+
+    // Statistics since the last call to saveVerbose()
+    private final Map<String, Summary> mForegroundWindow = new LinkedHashMap<>();
+    private final Map<String, Summary> mBackgroundWindow = new LinkedHashMap<>();
+
+    /** @param csvFile where to append the individual records */
+    MemHealthStore(File csvFile) {
+        mCsvFile = csvFile;
+    }
+
+    synchronized void add(MemHealthRecord record) throws IOException {
+        String procName = record.getProcName();
+        long[] fields = record.getFields();
+
+        Columns columns = mColumns.get(procName);
+        if (columns == null) {
+            columns = new Columns();
+            mColumns.put(procName, columns);
+        }
+        columns.add(record.getTimeMs(), fields, record.isInForeground());
+
+        boolean fg = record.isInForeground();
+        summary(fg ? mForegroundWindow : mBackgroundWindow, procName)
+                .add(record.getTimeMs(), fields);
+
+        if (columns.mSize == BUFFER_ROWS) {
+            flush();
+        }
+    }
+
+    /** Appends all buffered records to the CSV file. */
+    synchronized void flush() throws IOException {
+        boolean writeHeader = !mCsvFile.exists() || mCsvFile.length() == 0;
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(mCsvFile, true)));
+        try {
+            if (writeHeader) {
+                out.printf("name,time,native_heap,dalvik_heap,pss,context\n");
+            }
+            for (Map.Entry<String, Columns> entry : mColumns.entrySet()) {
+                Columns columns = entry.getValue();
+                for (int i = 0; i < columns.mSize; i++) {
+                    out.printf("%s,%d,%d,%d,%d,%s\n",
+                            entry.getKey(), columns.mTimeMs[i],
+                            columns.mValues[MemHealthRecord.NATIVE_HEAP][i],
+                            columns.mValues[MemHealthRecord.DALVIK_HEAP][i],
+                            columns.mValues[MemHealthRecord.PSS][i],
+                            columns.mForeground.get(i) ? "foreground" : "background");
+                }
+                columns.clear();
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("Failed to write " + mCsvFile);
+        }
+    }
+
+    /**
+     * Appends a summary of the records added since the last call to {@code fileName}, and flushes
+     * the buffered records to the CSV file.
+     */
+    synchronized void saveVerbose(String fileName) throws IOException {
+        flush();
+
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(fileName, true)));
+        try {
+            out.println("Foreground");
+            printSummaries(out, mForegroundWindow);
+            out.println("Background");
+            printSummaries(out, mBackgroundWindow);
+        } finally {
+            out.close();
+        }
+        mForegroundWindow.clear();
+        mBackgroundWindow.clear();
+    }
+
+    private static void printSummaries(PrintWriter out, Map<String, Summary> summaries) {
+        for (Map.Entry<String, Summary> entry : summaries.entrySet()) {
+            Summary summary = entry.getValue();
+
+            out.println(entry.getKey());
+            out.printf("Average Native Heap: %d\n",
+                    summary.getAverage(MemHealthRecord.NATIVE_HEAP));
+            out.printf("Average Dalvik Heap: %d\n",
+                    summary.getAverage(MemHealthRecord.DALVIK_HEAP));
+            out.printf("Average PSS: %d\n", summary.getAverage(MemHealthRecord.PSS));
+            out.printf("Peak Native Heap: %d\n", summary.getMax(MemHealthRecord.NATIVE_HEAP));
+            out.printf("Peak Dalvik Heap: %d\n", summary.getMax(MemHealthRecord.DALVIK_HEAP));
+            out.printf("Peak PSS: %d\n", summary.getMax(MemHealthRecord.PSS));
+            out.printf("Count %d\n", summary.getCount());
+
+            out.printf("Average Summary Java Heap: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_JAVA_HEAP));
+            out.printf("Average Summary Native Heap: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_NATIVE_HEAP));
+            out.printf("Average Summary Code: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_CODE));
+            out.printf("Average Summary Stack: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_STACK));
+            out.printf("Average Summary Graphics: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_GRAPHICS));
+            out.printf("Average Summary Other: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_OTHER));
+            out.printf("Average Summary System: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_SYSTEM));
+            out.printf("Average Summary Overall Pss: %d\n",
+                    summary.getAverage(MemHealthRecord.AS_OVERALL_PSS));
+            out.printf("PSS Slope (kB/h): %.1f\n",
+                    summary.getSlopePerHour(MemHealthRecord.PSS));
+        }
+    }
+
+    private static Summary summary(Map<String, Summary> summaries, String procName) {
+        Summary summary = summaries.get(procName);
+        if (summary == null) {
+            summary = new Summary();
+            summaries.put(procName, summary);
+        }
+        return summary;
+    }
+
+    /** Records of a single process that haven't been written to the CSV file yet. */
+    private static class Columns {
+        final long[] mTimeMs = new long[BUFFER_ROWS];
+        final long[][] mValues = new long[FIELD_COUNT][BUFFER_ROWS];
+        final BitSet mForeground = new BitSet(BUFFER_ROWS);
+        int mSize;
+
+        void add(long timeMs, long[] fields, boolean foreground) {
+            mTimeMs[mSize] = timeMs;
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                mValues[field][mSize] = fields[field];
+            }
+            mForeground.set(mSize, foreground);
+            mSize++;
+        }
+
+        void clear() {
+            mForeground.clear();
+            mSize = 0;
+        }
+    }
+
+    /** Running count, max, mean and least-squares slope over time of every field. */
+    private static class Summary {
+        private final long[] mMax = new long[FIELD_COUNT];
+        private final double[] mSum = new double[FIELD_COUNT];
+        // Sums of time (in hours since the first sample) times value, for the slope.
+        private final double[] mSumTimeValue = new double[FIELD_COUNT];
+        private double mSumTime;
+        private double mSumTimeSquared;
+        private long mFirstTimeMs;
+        private int mCount;
+
+        void add(long timeMs, long[] fields) {
+            if (mCount == 0) {
+                mFirstTimeMs = timeMs;
+            }
+            double hours = (timeMs - mFirstTimeMs) / MS_PER_HOUR;
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                long value = fields[field];
+                mMax[field] = mCount == 0 ? value : Math.max(mMax[field], value);
+                mSum[field] += value;
+                mSumTimeValue[field] += hours * value;
+            }
+            mSumTime += hours;
+            mSumTimeSquared += hours * hours;
+            mCount++;
+        }
+
+        int getCount() {
+            return mCount;
+        }
+
+        long getMax(int field) {
+            return mMax[field];
+        }
+
+        long getAverage(int field) {
+            return mCount == 0 ? 0 : (long) (mSum[field] / mCount);
+        }
+
+        /** Returns the slope of the field over time per hour, or 0 without enough samples. */
+        double getSlopePerHour(int field) {
+            double denominator = mCount * mSumTimeSquared - mSumTime * mSumTime;
+            if (mCount < 2 || denominator == 0) {
+                return 0;
+            }
+            return (mCount * mSumTimeValue[field] - mSumTime * mSum[field]) / denominator;
+        }
+    }
+}
@@ -16,9 +16,13 @@
 
 package android.support.test.aupt;
 
-import android.app.UiAutomation;
+import android.Manifest;
+import android.app.ActivityManager;
 import android.app.ActivityManager.RunningAppProcessInfo;
+import android.app.IProcessObserver;
+import android.app.UiAutomation;
 import android.os.ParcelFileDescriptor;
+import android.os.RemoteException;
 import android.util.Log;
 
 import java.io.BufferedReader;
@@ -29,25 +33,62 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 import java.util.Set;
 
+/**
+ * Tracks the pids of a set of processes to detect when they die or restart.
+ *
+ * <p>Process deaths are reported by an {@link IProcessObserver} as they happen, so the pid table
+ * is only refreshed from {@code ps} after a process event, or when a process is first allowed to
+ * be tracked. Between events, checking the processes costs nothing. If the observer can't be
+ * registered, the table is refreshed on every check instead.
+ */
 public class ProcessStatusTracker implements IProcessStatusTracker {
     private static final String TAG = "ProcessStatusTracker";
 
-    // Example return line from "adb shell ps" for the pattern below
-    // USER     PID     PPID    VSIZE   RSS     WCHAN       PC          NAME
-    // root     1       0       2216    804     sys_epoll_  00000000 S  com.android.chrome
-    private final String PS_PATTERN =
-            "\\w+\\s+(\\d+)\\s+\\w+\\s+\\d+\\s+\\d+\\s+\\w+\\s+[0-9a-f]+\\s+\\w+\\s+(.+)";
-    private final Pattern PS_PATTERN_MATCH = Pattern.compile(PS_PATTERN);
-    private final int PS_PATTERN_PID_GROUP = 1;
-    private final int PS_PATTERN_PKG_GROUP = 2;
+    // Example return line from "adb shell ps -A -o PID,NAME"
+    //   PID NAME
+    // 12345 com.android.chrome
+    private static final String PS_COMMAND = "ps -A -o PID,NAME";
 
     private Map<String, Integer> mPidTracker;
     private Set<String> mPidExclusions;
 
+    // Tracked processes whose pid died since the last check, with the pid that died.
+    private final Map<String, Integer> mDied = new HashMap<>();
+    // Whether a process event happened since the pid table was last refreshed.
+    private boolean mStale = true;
+    private boolean mObserving = false;
+    private boolean mObserverFailed = false;
+    private boolean mStopped = false;
+
+    private final IProcessObserver mObserver = new IProcessObserver.Stub() {
+        @Override
+        public void onForegroundActivitiesChanged(int pid, int uid, boolean foreground) {
+            onProcessEvent(pid);
+        }
+
+        @Override
+        public void onForegroundServicesChanged(int pid, int uid, int serviceTypes) {
+            onProcessEvent(pid);
+        }
+
+        @Override
+        public void onProcessDied(int pid, int uid) {
+            synchronized (ProcessStatusTracker.this) {
+                for (Map.Entry<String, Integer> entry : mPidTracker.entrySet()) {
+                    if (entry.getValue() == pid) {
+                        Log.d(TAG, String.format("pid died - %s : %d", entry.getKey(), pid));
+                        if (!mDied.containsKey(entry.getKey())) {
+                            mDied.put(entry.getKey(), pid);
+                        }
+                        mStale = true;
+                    }
+                }
+            }
+        }
+    };
+
     public ProcessStatusTracker(String[] processes) {
         mPidTracker = new HashMap<String, Integer>();
         mPidExclusions = new HashSet<String>();
@@ -58,70 +99,82 @@ public class ProcessStatusTracker implements IProcessStatusTracker {
     }
 
     @Override
-    public void addMonitoredProcess(String processName) {
+    public synchronized void addMonitoredProcess(String processName) {
         if (mPidTracker.containsKey(processName)) {
             throw new IllegalArgumentException("Process already being monitored: " + processName);
         }
         mPidTracker.put(processName, -1);
         // don't track right away, until told to
         mPidExclusions.add(processName);
+        mStale = true;
     }
 
     @Override
-    public List<ProcessDetails> getProcessDetails() {
+    public synchronized List<ProcessDetails> getProcessDetails() {
         if (mPidTracker == null || mPidTracker.isEmpty()) {
             // nothing to track
             Log.v(TAG, "getProcessDetails - No pids to track, not doing anything");
             return null;
         }
         List<ProcessDetails> ret = new ArrayList<ProcessDetails>();
-        List<RunningAppProcessInfo> runningApps = null;
-        // Refactored to use shell commands, not ActivityManager
-        runningApps = getRunningAppProcesses();
-        if (runningApps == null || runningApps.isEmpty()) {
-            Log.e(TAG, "Failed to retrieve list of running apps");
-            return ret;
-        }
-        // used for keeping track of which process has died
-        Set<String> deadProcesses = new HashSet<String>(mPidTracker.keySet());
-        Log.i(TAG, "Got running processes");
-        for (RunningAppProcessInfo info : runningApps) {
-            if (mPidTracker.containsKey(info.processName)
-                    && !mPidExclusions.contains(info.processName)) {
-                ProcessDetails detail = new ProcessDetails();
-                detail.processName = info.processName;
-                detail.pid0 = info.pid;
-                // this is a process that we are monitoring
-                int pid = mPidTracker.get(info.processName);
-                if (pid == -1) {
-                    mPidTracker.put(info.processName, info.pid);
-                    Log.d(TAG, String.format(
-                            "pid detected - %s : %d", info.processName, info.pid));
-                    // all good with this process
-                    deadProcesses.remove(info.processName);
-                    detail.processStatus = ProcessStatus.PROC_STARTED;
-                } else if (pid == info.pid) {
-                    // pid hasn't changed, all good
-                    deadProcesses.remove(info.processName);
-                    detail.processStatus = ProcessStatus.PROC_OK;
-                } else {
-                    //pid changed
-                    deadProcesses.remove(info.processName);
-                    detail.processStatus = ProcessStatus.PROC_RESTARTED;
-                    detail.pid1 = pid;
-                }
-                ret.add(detail);
+
+        // Only go to the shell if something may have changed since the last check.
+        Map<String, Integer> running = null;
+        if (mStale || !mObserving) {
+            List<RunningAppProcessInfo> runningApps = getRunningAppProcesses();
+            if (runningApps == null) {
+                Log.e(TAG, "Failed to retrieve list of running apps");
+                return ret;
+            }
+            running = new HashMap<>();
+            for (RunningAppProcessInfo info : runningApps) {
+                running.put(info.processName, info.pid);
             }
+            mStale = false;
         }
-        for (String proc : deadProcesses) {
+
+        for (Map.Entry<String, Integer> entry : mPidTracker.entrySet()) {
+            String proc = entry.getKey();
+            int pid = entry.getValue();
             ProcessDetails detail = new ProcessDetails();
             detail.processName = proc;
-            // check the remaining ones are dead, or not started
-            int pid = mPidTracker.get(proc);
-            if (pid != -1) {
-                detail.processStatus = ProcessStatus.PROC_DIED;
-            } else {
+
+            if (mPidExclusions.contains(proc)) {
                 detail.processStatus = ProcessStatus.PROC_NOT_STARTED;
+                ret.add(detail);
+                continue;
+            }
+
+            Integer diedPid = mDied.remove(proc);
+            Integer currentPid = running != null ? running.get(proc) : (pid != -1 ? pid : null);
+            if (currentPid != null && diedPid != null && currentPid == (int) diedPid) {
+                // The table was refreshed before the death was reported.
+                currentPid = null;
+            }
+
+            if (currentPid == null) {
+                if (pid != -1) {
+                    detail.processStatus = ProcessStatus.PROC_DIED;
+                    // Keep reporting the death until the process is back.
+                    mStale = true;
+                } else {
+                    detail.processStatus = ProcessStatus.PROC_NOT_STARTED;
+                }
+            } else if (pid == -1) {
+                mPidTracker.put(proc, currentPid);
+                Log.d(TAG, String.format("pid detected - %s : %d", proc, currentPid));
+                detail.processStatus = ProcessStatus.PROC_STARTED;
+                detail.pid0 = currentPid;
+            } else if (pid == currentPid && diedPid == null) {
+                // pid hasn't changed, all good
+                detail.processStatus = ProcessStatus.PROC_OK;
+                detail.pid0 = currentPid;
+            } else {
+                // pid changed, or the process died and came back between two checks
+                detail.processStatus = ProcessStatus.PROC_RESTARTED;
+                detail.pid0 = currentPid;
+                detail.pid1 = diedPid != null ? diedPid : pid;
+                mStale = true;
             }
             ret.add(detail);
         }
@@ -129,7 +182,7 @@ public class ProcessStatusTracker implements IProcessStatusTracker {
     }
 
     @Override
-    public void setAllowProcessTracking(String processName) {
+    public synchronized void setAllowProcessTracking(String processName) {
         if (mPidTracker == null || mPidTracker.isEmpty()) {
             // nothing to track
             return;
@@ -137,13 +190,15 @@ public class ProcessStatusTracker implements IProcessStatusTracker {
         // ignore those not under monitoring
         if (mPidExclusions.contains(processName)) {
             mPidExclusions.remove(processName);
+            // Look up the pid of the newly tracked process on the next check.
+            mStale = true;
             Log.v(TAG, "Started tracking pid changes: " + processName);
         }
         verifyRunningProcess();
     }
 
     @Override
-    public void verifyRunningProcess() {
+    public synchronized void verifyRunningProcess() {
         Log.i(TAG, "Getting process details");
         List<ProcessDetails> details = getProcessDetails();
         if (details == null) {
@@ -184,37 +239,81 @@ public class ProcessStatusTracker implements IProcessStatusTracker {
         List<RunningAppProcessInfo> results = new ArrayList<RunningAppProcessInfo>();
 
         Set<String> procSet = mPidTracker.keySet();
-        // Enumerate status for all currently tracked processes
-        for (String proc : procSet) {
-            // Execute shell command and parse results
-            BufferedReader stream = executeShellCommand("ps");
-            try {
-                String line;
-                while ((line = stream.readLine()) != null) {
-                    Matcher matcher = PS_PATTERN_MATCH.matcher(line);
-                    // Find a line that matches the process name exactly
-                    if (matcher.matches() && matcher.group(PS_PATTERN_PKG_GROUP).equals(proc)) {
-                        int pid = Integer.valueOf(matcher.group(PS_PATTERN_PID_GROUP));
-                        results.add(new RunningAppProcessInfo(proc, pid, null));
-                    }
+        // Enumerate the status of all tracked processes from a single ps
+        BufferedReader stream = executeShellCommand(PS_COMMAND);
+        try {
+            String line;
+            while ((line = stream.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+", 2);
+                if (fields.length != 2 || !procSet.contains(fields[1])) {
+                    continue;
                 }
-            } catch (IOException exception) {
-                Log.e(TAG, "Error with buffered reader", exception);
-                return null;
-            } finally {
                 try {
-                    if (stream != null) {
-                        stream.close();
-                    }
-                } catch (IOException exception) {
-                    Log.e(TAG, "Error with closing the stream", exception);
+                    results.add(new RunningAppProcessInfo(
+                            fields[1], Integer.parseInt(fields[0]), null));
+                } catch (NumberFormatException e) {
+                    // the header line
                 }
             }
+        } catch (IOException exception) {
+            Log.e(TAG, "Error with buffered reader", exception);
+            return null;
+        } finally {
+            try {
+                if (stream != null) {
+                    stream.close();
+                }
+            } catch (IOException exception) {
+                Log.e(TAG, "Error with closing the stream", exception);
+            }
         }
 
         return results;
     }
 
+    private synchronized void onProcessEvent(int pid) {
+        if (!mPidTracker.containsValue(pid)) {
+            // A process we don't know the pid of yet may have started.
+            mStale = true;
+        }
+    }
+
+    /**
+     * Registers the process observer, which needs the shell's permission to watch activities.
+     */
+    private void startObserving(UiAutomation uiAutomation) {
+        try {
+            uiAutomation.adoptShellPermissionIdentity(Manifest.permission.SET_ACTIVITY_WATCHER);
+            try {
+                ActivityManager.getService().registerProcessObserver(mObserver);
+                mObserving = true;
+            } finally {
+                uiAutomation.dropShellPermissionIdentity();
+            }
+        } catch (RemoteException | SecurityException e) {
+            Log.w(TAG, "Failed to observe processes, falling back to polling", e);
+            mObserverFailed = true;
+        }
+    }
+
+    /**
+     * Unregisters the process observer at the end of the run, after which processes are only
+     * checked by polling.
+     */
+    public synchronized void stop() {
+        mStopped = true;
+        if (!mObserving) {
+            return;
+        }
+        try {
+            ActivityManager.getService().unregisterProcessObserver(mObserver);
+        } catch (RemoteException e) {
+            Log.w(TAG, "Failed to stop observing processes", e);
+        }
+        mObserving = false;
+        mStale = true;
+    }
+
     // TODO: Create subclass for shell commands used by this and GraphicsStatsMonitor
 
     /**
@@ -237,10 +336,15 @@ public class ProcessStatusTracker implements IProcessStatusTracker {
     }
 
     /**
-     * Sets the UiAutomation member for shell execution
+     * Sets the UiAutomation member for shell execution, and starts observing processes the first
+     * time it is set
      */
-    public void setUiAutomation (UiAutomation uiAutomation) {
+    public synchronized void setUiAutomation (UiAutomation uiAutomation) {
         mUiAutomation = uiAutomation;
+        if (!mObserving && !mObserverFailed && !mStopped && uiAutomation != null
+                && !mPidTracker.isEmpty()) {
+            startObserving(uiAutomation);
+        }
     }
 
     /**
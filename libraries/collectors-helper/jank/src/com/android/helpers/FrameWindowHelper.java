@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.helpers;
+
+import static com.android.helpers.MetricUtility.constructKey;
+
+import android.os.SystemClock;
+import android.support.test.uiautomator.UiDevice;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Captures the frames rendered by a package within a window marked by the test, e.g. around a
+ * fling, leaving out the frames of the activity launch and setup before it.
+ *
+ * <p>{@link #begin()} and {@link #end()} each read the frame time histogram of the package from
+ * {@code gfxinfo}, and the window holds the frames added in between. The counters aren't reset, so
+ * a {@code GfxMonitor} or {@code JankCollectionHelper} measuring the same package is unaffected.
+ * If one of them resets the counters of a process within the window, the frames of that process
+ * since the reset are used. Each read runs {@code dumpsys}, so a jank test should mark its window
+ * from its before and after test hooks rather than from within the measured test method.
+ *
+ * <p>The histograms of successive windows are added up until {@link #clear()}, so a window can be
+ * marked in each iteration of a test.
+ */
+public class FrameWindowHelper {
+
+    private static final String LOG_TAG = FrameWindowHelper.class.getSimpleName();
+
+    // Prefix for all output metrics of the frame window.
+    static final String FRAME_WINDOW_METRICS_PREFIX = "frame_window";
+    // Shell dump command to get the gfxinfo of a package, as for JankCollectionHelper.
+    static final String GFXINFO_COMMAND_GET = "dumpsys gfxinfo %s";
+    // Example: "HISTOGRAM: 5ms=62 6ms=17 7ms=4 ... 4950ms=0"
+    // Note: newer platforms also print a "GPU HISTOGRAM:" line, which isn't the frame time.
+    private static final String HISTOGRAM_PREFIX = "HISTOGRAM:";
+    // Example: "** Graphics info for pid 1234 [com.android.test.uibench] **"
+    private static final String PROCESS_PREFIX = "** Graphics info for pid ";
+    // Example: "Stats since: 752958278148ns", which changes when the counters are reset.
+    private static final String STATS_SINCE_PREFIX = "Stats since:";
+    // Frames slower than this are counted as slow, as for a 60Hz display.
+    static final int SLOW_FRAME_MS = 16;
+    private static final int[] PERCENTILES = {50, 90, 95, 99};
+
+    private final UiDevice mDevice;
+    private final String mPackageName;
+    // Frame time of each histogram bucket, as labelled by gfxinfo, and its frame count.
+    private int[] mBucketMs = new int[0];
+    private long[] mFrameCounts = new long[0];
+    // Frame counts of each process of the package when the current window began, keyed by the
+    // process and the time its counters were last reset, or null if there is no window.
+    private Map<String, long[]> mStartCounts = null;
+    private long mWindowStartMs = 0;
+    private long mDurationMs = 0;
+
+    public FrameWindowHelper(UiDevice device, String packageName) {
+        mDevice = device;
+        mPackageName = packageName;
+    }
+
+    public String getPackageName() {
+        return mPackageName;
+    }
+
+    /** Start capturing the frames of the package, which doesn't need to be running yet. */
+    public void begin() {
+        mStartCounts = readHistograms();
+        mWindowStartMs = SystemClock.uptimeMillis();
+    }
+
+    /** Stop capturing, and add the frames rendered since {@link #begin()} to the histogram. */
+    public void end() {
+        if (mStartCounts == null) {
+            throw new IllegalStateException("No frame window was started.");
+        }
+        Map<String, long[]> endCounts = readHistograms();
+        if (endCounts.isEmpty()) {
+            throw new RuntimeException(
+                    String.format("No frame histogram in gfxinfo output for %s.", mPackageName));
+        }
+        mDurationMs += SystemClock.uptimeMillis() - mWindowStartMs;
+        for (Map.Entry<String, long[]> process : endCounts.entrySet()) {
+            long[] counts = process.getValue();
+            long[] startCounts = mStartCounts.get(process.getKey());
+            // If the process started or its counters were reset during the window, e.g. by
+            // GfxMonitor, only its frames since then are known.
+            boolean reset = startCounts == null;
+            for (int i = 0; !reset && i < counts.length; i++) {
+                reset = counts[i] < startCounts[i];
+            }
+            for (int i = 0; i < counts.length; i++) {
+                mFrameCounts[i] += reset ? counts[i] : counts[i] - startCounts[i];
+            }
+        }
+        mStartCounts = null;
+        Log.v(LOG_TAG, String.format("Captured %d frames of %s.", getTotalFrames(), mPackageName));
+    }
+
+    /** Discard the frames captured so far. */
+    public void clear() {
+        mFrameCounts = new long[mBucketMs.length];
+        mStartCounts = null;
+        mDurationMs = 0;
+    }
+
+    private Map<String, long[]> readHistograms() {
+        try {
+            return parseHistograms(mDevice.executeShellCommand(
+                    String.format(GFXINFO_COMMAND_GET, mPackageName)));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to get gfxinfo.", e);
+        }
+    }
+
+    /**
+     * Returns the frame time histogram of each process in the output, keyed by its pid and the
+     * time its counters were last reset. There are none if the package isn't running.
+     */
+    Map<String, long[]> parseHistograms(String output) {
+        Map<String, long[]> histograms = new HashMap<>();
+        String process = "";
+        String statsSince = "";
+        for (String line : output.split("\n")) {
+            line = line.trim();
+            if (line.startsWith(PROCESS_PREFIX)) {
+                process = line.substring(PROCESS_PREFIX.length()).split("\\s+")[0];
+                statsSince = "";
+                continue;
+            }
+            if (line.startsWith(STATS_SINCE_PREFIX)) {
+                statsSince = line.substring(STATS_SINCE_PREFIX.length()).trim();
+                continue;
+            }
+            if (!line.startsWith(HISTOGRAM_PREFIX)) {
+                continue;
+            }
+            // Each bucket is written as "<frame time>ms=<frame count>".
+            String[] buckets = line.substring(HISTOGRAM_PREFIX.length()).trim().split("\\s+");
+            if (mBucketMs.length == 0) {
+                mBucketMs = new int[buckets.length];
+                mFrameCounts = new long[buckets.length];
+                for (int i = 0; i < buckets.length; i++) {
+                    mBucketMs[i] =
+                            Integer.parseInt(buckets[i].substring(0, buckets[i].indexOf("ms=")));
+                }
+            } else if (mBucketMs.length != buckets.length) {
+                throw new RuntimeException(
+                        String.format("Expected %d histogram buckets, got %d.",
+                                mBucketMs.length, buckets.length));
+            }
+            long[] counts = new long[buckets.length];
+            for (int i = 0; i < buckets.length; i++) {
+                counts[i] = Long.parseLong(buckets[i].substring(buckets[i].indexOf('=') + 1));
+            }
+            histograms.put(String.format("%s@%s", process, statsSince), counts);
+        }
+        return histograms;
+    }
+
+    /** Returns the number of frames captured. */
+    public long getTotalFrames() {
+        long total = 0;
+        for (long count : mFrameCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /** Returns the number of frames captured slower than {@code frameTimeMs}. */
+    public long getFramesSlowerThan(int frameTimeMs) {
+        long slow = 0;
+        for (int i = 0; i < mBucketMs.length; i++) {
+            if (mBucketMs[i] > frameTimeMs) {
+                slow += mFrameCounts[i];
+            }
+        }
+        return slow;
+    }
+
+    /**
+     * Returns the frame time of the histogram bucket at the {@code percentile} of the frames
+     * captured, as gfxinfo reports it, or 0 if there are none.
+     */
+    public int getPercentile(int percentile) {
+        long total = getTotalFrames();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long frames = 0;
+        for (int i = 0; i < mBucketMs.length; i++) {
+            frames += mFrameCounts[i];
+            if (frames >= rank) {
+                return mBucketMs[i];
+            }
+        }
+        return mBucketMs[mBucketMs.length - 1];
+    }
+
+    /** Returns the total duration of the windows captured, in milliseconds. */
+    public long getDurationMs() {
+        return mDurationMs;
+    }
+
+    /** Returns the metrics of the frames captured, keyed like {@code JankCollectionHelper}. */
+    public Map<String, Double> getMetrics() {
+        Map<String, Double> metrics = new HashMap<>();
+        long total = getTotalFrames();
+        long slow = getFramesSlowerThan(SLOW_FRAME_MS);
+        metrics.put(buildKey("total_frames"), (double) total);
+        metrics.put(buildKey("slow_frames_count"), (double) slow);
+        metrics.put(buildKey("slow_frames_percent"), total == 0 ? 0 : 100.0 * slow / total);
+        for (int percentile : PERCENTILES) {
+            metrics.put(buildKey(String.format("frame_time_percentile_%d", percentile)),
+                    (double) getPercentile(percentile));
+        }
+        metrics.put(buildKey("duration_ms"), (double) mDurationMs);
+        return metrics;
+    }
+
+    private String buildKey(String metricId) {
+        return constructKey(FRAME_WINDOW_METRICS_PREFIX, mPackageName, metricId);
+    }
+}
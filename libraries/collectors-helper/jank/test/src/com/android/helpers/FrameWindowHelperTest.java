@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.helpers;
+
+import static com.android.helpers.FrameWindowHelper.FRAME_WINDOW_METRICS_PREFIX;
+import static com.android.helpers.FrameWindowHelper.GFXINFO_COMMAND_GET;
+import static com.android.helpers.MetricUtility.constructKey;
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.contains;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.support.test.uiautomator.UiDevice;
+import androidx.test.runner.AndroidJUnit4;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/** Android Unit tests for {@link FrameWindowHelper}. */
+@RunWith(AndroidJUnit4.class)
+public class FrameWindowHelperTest {
+    private static final String PKG = "pkg1";
+    private static final String GFXINFO_FORMAT =
+            "\n\n** Graphics info for pid 9999 [pkg1] **"
+                    + "\n"
+                    + "\nStats since: %dns"
+                    + "\nTotal frames rendered: %d"
+                    + "\nHISTOGRAM: 5ms=%d 10ms=%d 16ms=%d 20ms=%d 50ms=%d"
+                    + "\n50th gpu percentile: 4ms"
+                    + "\nGPU HISTOGRAM: 1ms=90 2ms=10";
+    private static final long STATS_SINCE = 1000;
+    // Frames rendered before the window, e.g. by the activity launch.
+    private static final String GFXINFO_BEFORE = buildGfxInfo(STATS_SINCE, 20, 0, 0, 5, 5);
+    // The same frames, followed by those of the window.
+    private static final String GFXINFO_AFTER = buildGfxInfo(STATS_SINCE, 70, 30, 10, 11, 9);
+
+    private @Mock UiDevice mUiDevice;
+    private FrameWindowHelper mHelper;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mHelper = new FrameWindowHelper(mUiDevice, PKG);
+    }
+
+    /** Test that a window holds the frames rendered between its two snapshots. */
+    @Test
+    public void testWindow_countsFramesInWindow() throws Exception {
+        mockGetCommand(GFXINFO_BEFORE, GFXINFO_AFTER);
+
+        mHelper.begin();
+        mHelper.end();
+
+        assertThat(mHelper.getTotalFrames()).isEqualTo(100);
+        // The counters of the package are left alone.
+        verify(mUiDevice, never()).executeShellCommand(contains("reset"));
+    }
+
+    /** Test the metrics computed from the frame time histogram. */
+    @Test
+    public void testMetrics_valuesMatch() throws Exception {
+        mockGetCommand(GFXINFO_BEFORE, GFXINFO_AFTER);
+
+        mHelper.begin();
+        mHelper.end();
+
+        Map<String, Double> metrics = mHelper.getMetrics();
+        assertThat(metrics.get(buildMetricKey("total_frames"))).isEqualTo(100.0);
+        assertThat(metrics.get(buildMetricKey("slow_frames_count"))).isEqualTo(10.0);
+        assertThat(metrics.get(buildMetricKey("slow_frames_percent"))).isEqualTo(10.0);
+        assertThat(metrics.get(buildMetricKey("frame_time_percentile_50"))).isEqualTo(5.0);
+        assertThat(metrics.get(buildMetricKey("frame_time_percentile_90"))).isEqualTo(16.0);
+        assertThat(metrics.get(buildMetricKey("frame_time_percentile_95"))).isEqualTo(20.0);
+        assertThat(metrics.get(buildMetricKey("frame_time_percentile_99"))).isEqualTo(50.0);
+        assertThat(metrics).containsKey(buildMetricKey("duration_ms"));
+    }
+
+    /** Test that the frames of successive windows are added up until cleared. */
+    @Test
+    public void testWindows_addUpUntilCleared() throws Exception {
+        mockGetCommand(GFXINFO_BEFORE, GFXINFO_AFTER, GFXINFO_BEFORE, GFXINFO_AFTER);
+
+        mHelper.begin();
+        mHelper.end();
+        mHelper.begin();
+        mHelper.end();
+        assertThat(mHelper.getTotalFrames()).isEqualTo(200);
+        assertThat(mHelper.getFramesSlowerThan(FrameWindowHelper.SLOW_FRAME_MS)).isEqualTo(20);
+
+        mHelper.clear();
+        assertThat(mHelper.getTotalFrames()).isEqualTo(0);
+        assertThat(mHelper.getPercentile(50)).isEqualTo(0);
+    }
+
+    /** Test that only the frames since a reset are counted if the counters reset mid-window. */
+    @Test
+    public void testWindow_countersReset() throws Exception {
+        mockGetCommand(GFXINFO_AFTER, GFXINFO_BEFORE);
+
+        mHelper.begin();
+        mHelper.end();
+
+        assertThat(mHelper.getTotalFrames()).isEqualTo(30);
+    }
+
+    /** Test that a reset is detected from the reset time, even if no counter went down. */
+    @Test
+    public void testWindow_countersResetAndRefilled() throws Exception {
+        // E.g. GfxMonitor resets the counters as the test method starts.
+        mockGetCommand(GFXINFO_BEFORE, buildGfxInfo(STATS_SINCE + 1, 70, 30, 10, 11, 9));
+
+        mHelper.begin();
+        mHelper.end();
+
+        assertThat(mHelper.getTotalFrames()).isEqualTo(130);
+    }
+
+    /** Test that the frames of each process of the package are added up. */
+    @Test
+    public void testWindow_multipleProcesses() throws Exception {
+        // The second process starts during the window.
+        String otherProcess = GFXINFO_AFTER.replace("9999", "8888");
+        mockGetCommand(GFXINFO_BEFORE, GFXINFO_AFTER + otherProcess);
+
+        mHelper.begin();
+        mHelper.end();
+
+        assertThat(mHelper.getTotalFrames()).isEqualTo(230);
+        assertThat(mHelper.getFramesSlowerThan(FrameWindowHelper.SLOW_FRAME_MS)).isEqualTo(30);
+    }
+
+    /** Test that a window must be started before it ends. */
+    @Test
+    public void testEnd_withoutBegin() throws Exception {
+        mockGetCommand(GFXINFO_AFTER);
+        try {
+            mHelper.end();
+            fail("Expected an exception ending a window that wasn't started.");
+        } catch (IllegalStateException e) {
+            // Expected.
+        }
+    }
+
+    /** Test that a window can begin before the package is running. */
+    @Test
+    public void testBegin_packageNotRunning() throws Exception {
+        mockGetCommand("No process found for: pkg1", GFXINFO_BEFORE);
+
+        mHelper.begin();
+        mHelper.end();
+
+        assertThat(mHelper.getTotalFrames()).isEqualTo(30);
+    }
+
+    /** Test that a missing histogram at the end of a window is reported. */
+    @Test
+    public void testEnd_missingHistogram() throws Exception {
+        mockGetCommand(GFXINFO_BEFORE, "\n\n** Graphics info for pid 9999 [pkg1] **");
+        mHelper.begin();
+        try {
+            mHelper.end();
+            fail("Expected an exception without a frame histogram.");
+        } catch (RuntimeException e) {
+            assertThat(e.getMessage()).contains("No frame histogram");
+        }
+    }
+
+    private void mockGetCommand(String output, String... outputs) throws Exception {
+        when(mUiDevice.executeShellCommand(String.format(GFXINFO_COMMAND_GET, PKG)))
+                .thenReturn(output, outputs);
+    }
+
+    private static String buildGfxInfo(long statsSince, long... counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return String.format(GFXINFO_FORMAT, statsSince, total,
+                counts[0], counts[1], counts[2], counts[3], counts[4]);
+    }
+
+    private String buildMetricKey(String metricId) {
+        return constructKey(FRAME_WINDOW_METRICS_PREFIX, PKG, metricId);
+    }
+}
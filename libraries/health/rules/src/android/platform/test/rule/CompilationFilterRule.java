@@ -21,6 +21,8 @@ import androidx.annotation.VisibleForTesting;
 
 import com.google.common.collect.ImmutableList;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import org.junit.runner.Description;
@@ -61,12 +63,18 @@ public class CompilationFilterRule extends TestWatcher {
                     String.format(
                             "Unknown compiler filter: %s, not part of %s", filter, filterOptions));
         }
-        // Compile each application in sequence.
-        for (String app : mApplications) {
-            String response = executeShellCommand(String.format(COMPILE_CMD_FORMAT, filter, app));
+        // Compile each application in sequence, in a single shell session.
+        List<String> responses =
+                executeShellCommands(
+                        Arrays.stream(mApplications)
+                                .map(app -> String.format(COMPILE_CMD_FORMAT, filter, app))
+                                .collect(Collectors.toList()));
+        for (int i = 0; i < mApplications.length; i++) {
+            String response = responses.get(i);
             if (!response.contains(COMPILE_SUCCESS)) {
                 Log.d(LOG_TAG, String.format("Received response: %s", response));
-                throw new RuntimeException(String.format("Failed to compile %s.", app));
+                throw new RuntimeException(
+                        String.format("Failed to compile %s.", mApplications[i]));
             }
         }
     }
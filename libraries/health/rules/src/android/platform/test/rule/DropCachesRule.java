@@ -21,8 +21,17 @@ import org.junit.runner.Description;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Collections;
+
 /**
  * This rule will drop caches before running each test method.
+ *
+ * <p>Writing to drop_caches only returns once the kernel has released the clean page cache, so the
+ * rule doesn't wait afterwards by default. If a threshold is set, it also waits until the "Cached"
+ * size in /proc/meminfo falls below it, e.g. for dirty pages still being written back.
  */
 public class DropCachesRule extends TestWatcher {
     private static final String LOG_TAG = DropCachesRule.class.getSimpleName();
@@ -30,6 +39,17 @@ public class DropCachesRule extends TestWatcher {
     @VisibleForTesting static final String KEY_DROP_CACHE = "drop-cache";
     private static boolean mDropCache = true;
 
+    // Maximum time to wait for the page cache to be released after dropping caches.
+    @VisibleForTesting static final String KEY_DROP_CACHE_TIMEOUT = "drop-cache-timeout_ms";
+    private static final long DROP_CACHE_TIMEOUT_DEFAULT = 3000L;
+    // Size in kB of the page cache to wait for. If unset, don't wait.
+    @VisibleForTesting static final String KEY_CACHED_THRESHOLD = "drop-cache-cached-threshold_kb";
+    @VisibleForTesting static final long POLL_INTERVAL_MS = 100L;
+
+    @VisibleForTesting static final String DROP_CACHE_CMD = "echo 3 > /proc/sys/vm/drop_caches";
+    private static final String MEMINFO_PATH = "/proc/meminfo";
+    private static final String MEMINFO_CACHED = "Cached:";
+
     @Override
     protected void starting(Description description) {
         // Identify the filter option to use.
@@ -37,9 +57,66 @@ public class DropCachesRule extends TestWatcher {
         if (mDropCache == false) {
             return;
         }
+        long startMs = SystemClock.uptimeMillis();
+        executeShellCommands(Collections.singletonList(DROP_CACHE_CMD));
+        String threshold = getArguments().getString(KEY_CACHED_THRESHOLD);
+        if (threshold != null) {
+            long timeoutMs =
+                    Long.parseLong(
+                            getArguments()
+                                    .getString(
+                                            KEY_DROP_CACHE_TIMEOUT,
+                                            String.valueOf(DROP_CACHE_TIMEOUT_DEFAULT)));
+            waitForCachedKb(Long.parseLong(threshold), startMs, timeoutMs);
+        }
+        Log.d(
+                LOG_TAG,
+                String.format(
+                        "Dropped caches in %d ms.", SystemClock.uptimeMillis() - startMs));
+    }
 
-        executeShellCommand("echo 3 > /proc/sys/vm/drop_caches");
-        // TODO: b/117868612 to identify the root cause for additional wait.
-        SystemClock.sleep(3000);
+    /** Polls the page cache size until it is at most {@code thresholdKb}, or the timeout. */
+    private void waitForCachedKb(long thresholdKb, long startMs, long timeoutMs) {
+        while (true) {
+            long cachedKb = getCachedKb();
+            if (cachedKb < 0) {
+                // Meminfo is not readable; fall back to waiting for the full timeout.
+                SystemClock.sleep(Math.max(timeoutMs - (SystemClock.uptimeMillis() - startMs), 0));
+                return;
+            }
+            if (cachedKb <= thresholdKb) {
+                return;
+            }
+            if (SystemClock.uptimeMillis() - startMs >= timeoutMs) {
+                Log.w(
+                        LOG_TAG,
+                        String.format(
+                                "Page cache still at %d kB after %d ms.", cachedKb, timeoutMs));
+                return;
+            }
+            SystemClock.sleep(POLL_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Returns the "Cached" size in kB from /proc/meminfo, or -1 if it cannot be read.
+     *
+     * <p>Override this for unit testing.
+     */
+    @VisibleForTesting
+    protected long getCachedKb() {
+        try (BufferedReader reader = new BufferedReader(new FileReader(MEMINFO_PATH))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(MEMINFO_CACHED)) {
+                    // The line is in the form "Cached:          123456 kB".
+                    String size = line.substring(MEMINFO_CACHED.length()).trim();
+                    return Long.parseLong(size.split("\\s+")[0]);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.w(LOG_TAG, "Failed to read the page cache size.", e);
+        }
+        return -1;
     }
 }
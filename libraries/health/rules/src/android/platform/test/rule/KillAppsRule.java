@@ -19,6 +19,9 @@ import androidx.annotation.VisibleForTesting;
 import org.junit.runner.Description;
 import org.junit.runners.model.InitializationError;
 
+import java.util.Arrays;
+import java.util.stream.Collectors;
+
 /**
  * This rule will kill the provided apps before running each test method.
  */
@@ -45,10 +48,11 @@ public class KillAppsRule extends TestWatcher {
             return;
         }
 
-        // Force stop each application in sequence if the kill app option is selected.
-        for (String app : mApplications) {
-            executeShellCommand(String.format("am force-stop %s", app));
-        }
-
+        // Force stop each application in sequence, in a single shell session, if the kill app
+        // option is selected.
+        executeShellCommands(
+                Arrays.stream(mApplications)
+                        .map(app -> String.format("am force-stop %s", app))
+                        .collect(Collectors.toList()));
     }
 }
@@ -15,13 +15,23 @@
  */
 package android.platform.test.rule;
 
+import android.app.UiAutomation;
 import android.content.Context;
 import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
 import android.support.test.uiautomator.UiDevice;
 import android.util.Log;
 import androidx.test.InstrumentationRegistry;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
 
 /**
  * A base {@link org.junit.rules.TestWatcher} with common support for platform testing.
@@ -57,6 +67,64 @@ public class TestWatcher extends org.junit.rules.TestWatcher {
         }
     }
 
+    /**
+     * Runs the shell commands, {@code cmds}, in order in a single shell session and returns the
+     * output of each command.
+     *
+     * <p>Unlike {@link #executeShellCommand}, the commands are interpreted by {@code sh}, so they
+     * can use redirections and other shell syntax. Their stdin is /dev/null.
+     *
+     * <p>Override this for unit testing shell commands.
+     */
+    protected List<String> executeShellCommands(List<String> cmds) {
+        if (cmds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // Printed after each command to find where the output of one command ends.
+        String marker = String.format("--- end of command %s ---", UUID.randomUUID());
+        StringBuilder script = new StringBuilder();
+        for (String cmd : cmds) {
+            Log.v(LOG_TAG, String.format("Batching command from %s: %s", this.getClass(), cmd));
+            // The script itself is the shell's stdin, so keep commands from reading the rest of it.
+            script.append("{\n").append(cmd).append("\n} < /dev/null\n");
+            script.append("echo '").append(marker).append("'\n");
+        }
+        script.append("exit\n");
+
+        UiAutomation automation = InstrumentationRegistry.getInstrumentation().getUiAutomation();
+        ParcelFileDescriptor[] fds = automation.executeShellCommandRw("sh");
+        List<String> outputs = new ArrayList<>();
+        try (OutputStream stdin = new ParcelFileDescriptor.AutoCloseOutputStream(fds[1]);
+                BufferedReader stdout =
+                        new BufferedReader(
+                                new InputStreamReader(
+                                        new ParcelFileDescriptor.AutoCloseInputStream(fds[0]),
+                                        StandardCharsets.UTF_8))) {
+            // The script is small enough to fit in the pipe, so write it all before reading.
+            stdin.write(script.toString().getBytes(StandardCharsets.UTF_8));
+            stdin.close();
+            StringBuilder output = new StringBuilder();
+            String line;
+            while ((line = stdout.readLine()) != null) {
+                if (line.equals(marker)) {
+                    outputs.add(output.toString());
+                    output.setLength(0);
+                } else {
+                    output.append(line).append('\n');
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (outputs.size() != cmds.size()) {
+            throw new RuntimeException(
+                    String.format(
+                            "Shell session ended after %d of %d commands.",
+                            outputs.size(), cmds.size()));
+        }
+        return outputs;
+    }
+
     /**
      * Returns the {@link Bundle} containing registered arguments.
      *
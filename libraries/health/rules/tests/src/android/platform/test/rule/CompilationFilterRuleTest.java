@@ -29,6 +29,7 @@ import org.junit.runners.model.Statement;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /** Unit test the logic for {@link CompilationFilterRule} */
 @RunWith(JUnit4.class)
@@ -138,6 +139,11 @@ public class CompilationFilterRuleTest {
             return "";
         }
 
+        @Override
+        protected List<String> executeShellCommands(List<String> cmds) {
+            return cmds.stream().map(this::executeShellCommand).collect(Collectors.toList());
+        }
+
         @Override
         protected Bundle getArguments() {
             return mBundle;
@@ -25,8 +25,11 @@ import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import org.junit.runners.model.Statement;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Unit test the logic for {@link DropCachesRule}
@@ -61,12 +64,41 @@ public class DropCachesRuleTest {
             .inOrder();
     }
 
+    /** Tests that the rule waits until the page cache falls below the threshold. */
+    @Test
+    public void testWaitsForCachedThreshold() throws Throwable {
+        Bundle thresholdBundle = new Bundle();
+        thresholdBundle.putString(DropCachesRule.KEY_CACHED_THRESHOLD, "1000");
+        TestableDropCachesRule rule = new TestableDropCachesRule(thresholdBundle, 5000, 2000, 900);
+
+        rule.apply(rule.getTestStatement(), Description.createTestDescription("clzz", "mthd"))
+            .evaluate();
+        assertThat(rule.getOperations()).containsExactly(
+                DropCachesRule.DROP_CACHE_CMD, "cached 5000", "cached 2000", "cached 900", "test")
+            .inOrder();
+    }
+
+    /** Tests that the rule doesn't poll the page cache without a threshold. */
+    @Test
+    public void testNoWaitWithoutThreshold() throws Throwable {
+        TestableDropCachesRule rule = new TestableDropCachesRule(new Bundle(), 5000, 2000);
+
+        rule.apply(rule.getTestStatement(), Description.createTestDescription("clzz", "mthd"))
+            .evaluate();
+        assertThat(rule.getOperations()).containsExactly(DropCachesRule.DROP_CACHE_CMD, "test")
+            .inOrder();
+    }
+
     private static class TestableDropCachesRule extends DropCachesRule {
         private List<String> mOperations = new ArrayList<>();
         private Bundle mBundle;
+        private Deque<Long> mCachedKb = new ArrayDeque<>();
 
-        public TestableDropCachesRule(Bundle bundle) {
+        public TestableDropCachesRule(Bundle bundle, long... cachedKb) {
             mBundle = bundle;
+            for (long kb : cachedKb) {
+                mCachedKb.add(kb);
+            }
         }
 
         @Override
@@ -75,6 +107,22 @@ public class DropCachesRuleTest {
             return "";
         }
 
+        @Override
+        protected List<String> executeShellCommands(List<String> cmds) {
+            return cmds.stream().map(this::executeShellCommand).collect(Collectors.toList());
+        }
+
+        @Override
+        protected long getCachedKb() {
+            if (mCachedKb.isEmpty()) {
+                // Report a stable cache size once the supplied sizes run out.
+                return 0;
+            }
+            long cachedKb = mCachedKb.poll();
+            mOperations.add("cached " + cachedKb);
+            return cachedKb;
+        }
+
         @Override
         protected Bundle getArguments() {
             return mBundle;
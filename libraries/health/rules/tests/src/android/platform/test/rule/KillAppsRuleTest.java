@@ -29,6 +29,7 @@ import org.junit.runners.model.Statement;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * Unit test the logic for {@link KillAppsRule}
@@ -116,6 +117,11 @@ public class KillAppsRuleTest {
             return "";
         }
 
+        @Override
+        protected List<String> executeShellCommands(List<String> cmds) {
+            return cmds.stream().map(this::executeShellCommand).collect(Collectors.toList());
+        }
+
         @Override
         protected Bundle getArguments() {
             return mBundle;
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.longevity;
+
+import android.platform.test.longevity.proto.Configuration.Scenario;
+import android.platform.test.longevity.proto.Configuration.Scenario.Repeat;
+import android.platform.test.longevity.proto.Configuration.Scenario.WeightedJourney;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * A read-only list of scenarios that expands repeated and mixed scenarios in a profile.
+ *
+ * <p>Only the start time, the originating scenario and the picked journey of each occurrence are
+ * kept in memory. The {@link Scenario} for an occurrence is built when it is requested, so that a
+ * compact profile can describe a dense schedule without holding thousands of protos.
+ */
+class ExpandedScenarioList extends AbstractList<Scenario> {
+    private static final long SECONDS_PER_HOUR = 3600L;
+
+    private final List<Scenario> mTemplates;
+    // Start time of each occurrence in seconds since "00:00:00", in ascending order.
+    private final int[] mStartTimesS;
+    // Index into mTemplates of the scenario each occurrence was expanded from.
+    private final int[] mTemplateIndices;
+    // Index into the mix of the originating scenario, or -1 if it has no mix.
+    private final int[] mJourneyChoices;
+
+    /**
+     * Expands {@code templates}, which must already be sorted according to the profile schedule.
+     *
+     * @param templates the scenarios as listed in the profile
+     * @param timestamped whether the profile is a TIMESTAMPED one; repeats are rejected otherwise
+     */
+    ExpandedScenarioList(List<Scenario> templates, boolean timestamped) {
+        mTemplates = templates;
+
+        // Expand every scenario into its own sorted list of start times.
+        int[][] startTimes = new int[templates.size()][];
+        int total = 0;
+        for (int i = 0; i < templates.size(); i++) {
+            Scenario scenario = templates.get(i);
+            if (scenario.hasRepeat() && !timestamped) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Scenario %s repeats, which is only supported in timestamped "
+                                        + "profiles.",
+                                scenario.getJourney()));
+            }
+            startTimes[i] =
+                    scenario.hasRepeat()
+                            ? expandRepeat(scenario)
+                            : new int[] {timestamped ? parseTimestampS(scenario.getAt()) : 0};
+            total += startTimes[i].length;
+        }
+
+        // Merge the per-scenario start times. Ties keep the order of the scenarios in the profile.
+        mStartTimesS = new int[total];
+        mTemplateIndices = new int[total];
+        PriorityQueue<int[]> cursors =
+                new PriorityQueue<>(
+                        Math.max(1, templates.size()),
+                        (c1, c2) -> {
+                            int byTime =
+                                    Integer.compare(
+                                            startTimes[c1[0]][c1[1]], startTimes[c2[0]][c2[1]]);
+                            return byTime != 0 ? byTime : Integer.compare(c1[0], c2[0]);
+                        });
+        for (int i = 0; i < templates.size(); i++) {
+            if (startTimes[i].length > 0) {
+                cursors.add(new int[] {i, 0});
+            }
+        }
+        int position = 0;
+        while (!cursors.isEmpty()) {
+            int[] cursor = cursors.poll();
+            mStartTimesS[position] = startTimes[cursor[0]][cursor[1]];
+            mTemplateIndices[position] = cursor[0];
+            position++;
+            if (++cursor[1] < startTimes[cursor[0]].length) {
+                cursors.add(cursor);
+            }
+        }
+
+        // Pick a journey for every occurrence of scenarios with a weighted mix.
+        mJourneyChoices = new int[total];
+        Random[] pickers = new Random[templates.size()];
+        for (int i = 0; i < total; i++) {
+            Scenario scenario = templates.get(mTemplateIndices[i]);
+            if (scenario.getMixCount() == 0) {
+                mJourneyChoices[i] = -1;
+                continue;
+            }
+            if (pickers[mTemplateIndices[i]] == null) {
+                // Use a different stream than the arrival times so the two are not correlated.
+                pickers[mTemplateIndices[i]] = new Random(~scenario.getRepeat().getSeed());
+            }
+            mJourneyChoices[i] = pickJourney(scenario, pickers[mTemplateIndices[i]]);
+        }
+    }
+
+    @Override
+    public Scenario get(int index) {
+        Scenario template = mTemplates.get(mTemplateIndices[index]);
+        if (!template.hasRepeat() && template.getMixCount() == 0) {
+            return template;
+        }
+        Scenario.Builder builder = template.toBuilder().clearRepeat().clearMix();
+        if (template.hasRepeat()) {
+            builder.setAt(formatTimestamp(mStartTimesS[index]));
+        }
+        if (mJourneyChoices[index] >= 0) {
+            builder.setJourney(template.getMix(mJourneyChoices[index]).getJourney());
+        }
+        return builder.build();
+    }
+
+    @Override
+    public int size() {
+        return mStartTimesS.length;
+    }
+
+    /** Returns whether any scenario in {@code scenarios} needs to be expanded. */
+    static boolean needsExpansion(List<Scenario> scenarios) {
+        return scenarios.stream().anyMatch(s -> s.hasRepeat() || s.getMixCount() > 0);
+    }
+
+    /** Returns the start times in seconds of every occurrence of a repeated scenario. */
+    private static int[] expandRepeat(Scenario scenario) {
+        Repeat repeat = scenario.getRepeat();
+        if (!repeat.hasUntil()) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Repeated scenario %s must have an \"until\" timestamp.",
+                            scenario.getJourney()));
+        }
+        int startS = parseTimestampS(scenario.getAt());
+        int untilS = parseTimestampS(repeat.getUntil());
+        if (untilS < startS) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Repeated scenario %s ends at %s, before it starts at %s.",
+                            scenario.getJourney(), repeat.getUntil(), scenario.getAt()));
+        }
+        switch (repeat.getRateCase()) {
+            case EVERY_S:
+                {
+                    if (repeat.getEveryS() <= 0) {
+                        throw new IllegalArgumentException(
+                                String.format(
+                                        "Scenario %s must repeat every positive number of seconds.",
+                                        scenario.getJourney()));
+                    }
+                    int[] result = new int[(untilS - startS) / repeat.getEveryS() + 1];
+                    for (int i = 0; i < result.length; i++) {
+                        result[i] = startS + i * repeat.getEveryS();
+                    }
+                    return result;
+                }
+            case PER_HOUR:
+                {
+                    if (repeat.getPerHour() <= 0) {
+                        throw new IllegalArgumentException(
+                                String.format(
+                                        "Scenario %s must repeat a positive number of times per "
+                                                + "hour.",
+                                        scenario.getJourney()));
+                    }
+                    // Exponentially distributed inter-arrival times make a Poisson process.
+                    double meanIntervalS = SECONDS_PER_HOUR / repeat.getPerHour();
+                    Random random = new Random(repeat.getSeed());
+                    int[] result = new int[16];
+                    int count = 0;
+                    double timeS = startS;
+                    while (true) {
+                        timeS += -Math.log(1 - random.nextDouble()) * meanIntervalS;
+                        if (timeS > untilS) {
+                            break;
+                        }
+                        if (count == result.length) {
+                            result = Arrays.copyOf(result, count * 2);
+                        }
+                        result[count++] = (int) timeS;
+                    }
+                    return Arrays.copyOf(result, count);
+                }
+            default:
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Repeated scenario %s must set either every_s or per_hour.",
+                                scenario.getJourney()));
+        }
+    }
+
+    /** Returns the index of a journey in the scenario's mix picked according to the weights. */
+    private static int pickJourney(Scenario scenario, Random random) {
+        long totalWeight = 0;
+        for (WeightedJourney journey : scenario.getMixList()) {
+            if (journey.getWeight() < 0) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Journey %s in a mix has a negative weight.",
+                                journey.getJourney()));
+            }
+            totalWeight += journey.getWeight();
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("A journey mix must have a positive total weight.");
+        }
+        long target = (long) (random.nextDouble() * totalWeight);
+        for (int i = 0; i < scenario.getMixCount(); i++) {
+            target -= scenario.getMix(i).getWeight();
+            if (target < 0) {
+                return i;
+            }
+        }
+        return scenario.getMixCount() - 1;
+    }
+
+    /** Parses a "HH:MM:SS" timestamp into seconds since "00:00:00". */
+    private static int parseTimestampS(String timestamp) {
+        SimpleDateFormat formatter = new SimpleDateFormat("HH:mm:ss");
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return (int) (formatter.parse(timestamp).getTime() / 1000);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(
+                    String.format("Timestamp %s could not be parsed.", timestamp), e);
+        }
+    }
+
+    /** Formats seconds since "00:00:00" into a "HH:MM:SS" timestamp. */
+    private static String formatTimestamp(int seconds) {
+        return String.format(
+                "%02d:%02d:%02d", seconds / 3600, (seconds / 60) % 60, seconds % 60);
+    }
+}
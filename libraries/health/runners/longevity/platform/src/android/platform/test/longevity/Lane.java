@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.longevity;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.runner.Description;
+
+/**
+ * A lane of scenarios in a {@link LongevitySuite} that runs concurrently with other lanes.
+ *
+ * <p>Each lane is bound to a user or a display and runs its share of the scenarios in order on its
+ * own thread. Scenarios and helpers can call {@link #current()} to find out which user or display
+ * they should act on.
+ *
+ * <p>The binding is advisory: the instrumentation keeps running as its own user, and input and
+ * activity starts go to their usual targets unless scenarios direct them, e.g. by passing {@link
+ * #getAmStartArgs()} to {@code am start}.
+ */
+public final class Lane {
+    /** What a lane is bound to. */
+    public enum Type {
+        USER,
+        DISPLAY
+    }
+
+    private static final ThreadLocal<Lane> sCurrentLane = new ThreadLocal<>();
+
+    private final int mIndex;
+    private final Type mType;
+    private final int mId;
+    // Iterations of each scenario run in this lane. Only accessed from the lane's own thread.
+    private final Map<Description, Integer> mIterations = new HashMap<>();
+
+    @VisibleForTesting
+    Lane(int index, Type type, int id) {
+        mIndex = index;
+        mType = type;
+        mId = id;
+    }
+
+    /** Returns the lane the calling thread is running scenarios for, or null outside of lanes. */
+    @Nullable
+    public static Lane current() {
+        return sCurrentLane.get();
+    }
+
+    /** Returns the position of this lane in the suite's lane option. */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    /** Returns whether this lane is bound to a user or a display. */
+    public Type getType() {
+        return mType;
+    }
+
+    /** Returns the id of the user or display this lane is bound to. */
+    public int getId() {
+        return mId;
+    }
+
+    /** Returns a short name for the lane, e.g. "user10" or "display1". */
+    public String getName() {
+        return mType.name().toLowerCase() + mId;
+    }
+
+    /**
+     * Returns the arguments for {@code am start} that launch the activity as this lane's user or on
+     * its display, e.g. "--user 10" or "--display 1".
+     */
+    public String getAmStartArgs() {
+        return String.format("--%s %d", mType.name().toLowerCase(), mId);
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /** Increments and returns the iteration of the scenario within this lane. */
+    int nextIteration(Description description) {
+        return mIterations.merge(description, 1, Integer::sum);
+    }
+
+    /** Binds the calling thread to {@code lane}, or unbinds it if {@code lane} is null. */
+    static void setCurrent(@Nullable Lane lane) {
+        if (lane == null) {
+            sCurrentLane.remove();
+        } else {
+            sCurrentLane.set(lane);
+        }
+    }
+
+    /**
+     * Parses a comma-separated list of lanes, each in the form {@code user:<id>} or {@code
+     * display:<id>}.
+     */
+    static List<Lane> parse(String option) {
+        List<Lane> lanes = new ArrayList<>();
+        for (String spec : option.split(",")) {
+            String[] parts = spec.trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Lane %s must be in the form user:<id> or display:<id>.", spec));
+            }
+            Type type;
+            try {
+                type = Type.valueOf(parts[0].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(
+                        String.format("Lane %s must be bound to a user or a display.", spec), e);
+            }
+            try {
+                lanes.add(new Lane(lanes.size(), type, Integer.parseInt(parts[1].trim())));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(
+                        String.format("Lane %s has an invalid id.", spec), e);
+            }
+        }
+        return lanes;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.longevity;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runner.notification.StoppedByUserException;
+import org.junit.runners.model.RunnerScheduler;
+
+/**
+ * A {@link RunnerScheduler} that partitions the scenarios of a suite into {@link Lane}s and runs
+ * the lanes concurrently.
+ *
+ * <p>Scenarios are assigned to lanes round-robin in suite order, and each lane runs its scenarios
+ * in order on a dedicated thread.
+ */
+class LaneScheduler implements RunnerScheduler {
+    private static final String LOG_TAG = LaneScheduler.class.getSimpleName();
+
+    private final List<Lane> mLanes;
+    private final ExecutorService[] mExecutors;
+    private final List<Future<?>> mScheduled = new ArrayList<>();
+    private int mNextLane = 0;
+
+    LaneScheduler(List<Lane> lanes) {
+        if (lanes.isEmpty()) {
+            throw new IllegalArgumentException("At least one lane is required.");
+        }
+        mLanes = lanes;
+        mExecutors = new ExecutorService[lanes.size()];
+    }
+
+    @Override
+    public void schedule(Runnable childStatement) {
+        int index = mNextLane++ % mLanes.size();
+        if (mExecutors[index] == null) {
+            mExecutors[index] = Executors.newSingleThreadExecutor();
+        }
+        final Lane lane = mLanes.get(index);
+        mScheduled.add(
+                mExecutors[index].submit(
+                        () -> {
+                            Lane.setCurrent(lane);
+                            try {
+                                childStatement.run();
+                            } finally {
+                                Lane.setCurrent(null);
+                            }
+                        }));
+    }
+
+    /**
+     * Waits for all lanes to finish and rethrows the first exception thrown by a scenario, e.g. a
+     * {@link StoppedByUserException} when a terminator stopped the run.
+     */
+    @Override
+    public void finished() {
+        RuntimeException firstException = null;
+        for (Future<?> scheduled : mScheduled) {
+            try {
+                scheduled.get();
+            } catch (ExecutionException e) {
+                if (firstException == null) {
+                    firstException =
+                            e.getCause() instanceof RuntimeException
+                                    ? (RuntimeException) e.getCause()
+                                    : new RuntimeException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Log.e(LOG_TAG, "Interrupted while waiting for lanes to finish.", e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        mScheduled.clear();
+        for (int i = 0; i < mExecutors.length; i++) {
+            if (mExecutors[i] != null) {
+                mExecutors[i].shutdownNow();
+                mExecutors[i] = null;
+            }
+        }
+        if (firstException != null) {
+            throw firstException;
+        }
+    }
+
+    /**
+     * A {@link RunNotifier} that forwards the events of a lane to the suite's notifier one at a
+     * time, so that listeners such as the run terminators see a merged, serialized event stream.
+     */
+    static class LaneNotifier extends RunNotifier {
+        private final RunNotifier mDelegate;
+
+        LaneNotifier(RunNotifier delegate) {
+            mDelegate = delegate;
+        }
+
+        @Override
+        public void fireTestRunStarted(Description description) {
+            synchronized (mDelegate) {
+                mDelegate.fireTestRunStarted(description);
+            }
+        }
+
+        @Override
+        public void fireTestRunFinished(Result result) {
+            synchronized (mDelegate) {
+                mDelegate.fireTestRunFinished(result);
+            }
+        }
+
+        @Override
+        public void fireTestStarted(Description description) throws StoppedByUserException {
+            synchronized (mDelegate) {
+                mDelegate.fireTestStarted(description);
+            }
+        }
+
+        @Override
+        public void fireTestFailure(Failure failure) {
+            synchronized (mDelegate) {
+                mDelegate.fireTestFailure(failure);
+            }
+        }
+
+        @Override
+        public void fireTestAssumptionFailed(Failure failure) {
+            synchronized (mDelegate) {
+                mDelegate.fireTestAssumptionFailed(failure);
+            }
+        }
+
+        @Override
+        public void fireTestIgnored(Description description) {
+            synchronized (mDelegate) {
+                mDelegate.fireTestIgnored(description);
+            }
+        }
+
+        @Override
+        public void fireTestFinished(Description description) {
+            synchronized (mDelegate) {
+                mDelegate.fireTestFinished(description);
+            }
+        }
+
+        @Override
+        public void pleaseStop() {
+            mDelegate.pleaseStop();
+        }
+    }
+}
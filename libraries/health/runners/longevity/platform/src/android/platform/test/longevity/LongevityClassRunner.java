@@ -58,6 +58,8 @@ public class LongevityClassRunner extends BlockJUnit4ClassRunner {
     private boolean mTestAttempted = false;
     // Iteration number.
     private int mIteration = ITERATION_NOT_SET;
+    // Name of the lane the test runs in, if the suite runs scenarios in concurrent lanes.
+    private String mLane;
 
     public LongevityClassRunner(Class<?> klass) throws InitializationError {
         this(klass, InstrumentationRegistry.getArguments());
@@ -81,6 +83,11 @@ public class LongevityClassRunner extends BlockJUnit4ClassRunner {
         mIteration = iteration;
     }
 
+    /** Set the name of the lane that this runner is running in, for iteration renaming. */
+    public void setLane(String lane) {
+        mLane = lane;
+    }
+
     /**
      * Utilized by tests to check that the iteration is set, independent of the description logic.
      */
@@ -273,8 +280,17 @@ public class LongevityClassRunner extends BlockJUnit4ClassRunner {
         if (mIteration == ITERATION_NOT_SET) {
             return original;
         }
-        return Description.createTestDescription(
-                String.join(mIterationSep, original.getClassName(), String.valueOf(mIteration)),
-                original.getMethodName());
+        String className =
+                mLane == null
+                        ? String.join(
+                                mIterationSep,
+                                original.getClassName(),
+                                String.valueOf(mIteration))
+                        : String.join(
+                                mIterationSep,
+                                original.getClassName(),
+                                mLane,
+                                String.valueOf(mIteration));
+        return Description.createTestDescription(className, original.getMethodName());
     }
 }
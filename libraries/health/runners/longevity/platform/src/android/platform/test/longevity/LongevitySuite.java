@@ -25,6 +25,7 @@ import android.platform.test.composer.Iterate;
 import android.platform.test.composer.Shuffle;
 import android.platform.test.longevity.listener.BatteryTerminator;
 import android.platform.test.longevity.listener.ErrorTerminator;
+import android.platform.test.longevity.listener.PredictiveBatteryTerminator;
 import android.platform.test.longevity.listener.TimeoutTerminator;
 import android.util.Log;
 import androidx.annotation.VisibleForTesting;
@@ -53,6 +54,11 @@ public class LongevitySuite extends android.host.test.longevity.LongevitySuite {
     public static final String RENAME_ITERATION_OPTION = "rename-iterations";
     private boolean mRenameIterations;
 
+    // Comma-separated lanes, e.g. "user:10,user:11" or "display:0,display:1", to partition the
+    // scenarios into and run concurrently. Scenarios run one after another when this is not set.
+    public static final String LANES_OPTION = "lanes";
+    private List<Lane> mLanes;
+
     private Instrumentation mInstrumentation;
     private Context mContext;
 
@@ -61,6 +67,9 @@ public class LongevitySuite extends android.host.test.longevity.LongevitySuite {
 
     private Map<Description, Integer> mIterations = new HashMap<>();
 
+    // The option the Iterate composer reads the number of iterations from.
+    private static final String ITERATIONS_OPTION = "iterations";
+
     /**
      * Takes a {@link Bundle} and maps all String K/V pairs into a {@link Map<String, String>}.
      *
@@ -101,6 +110,10 @@ public class LongevitySuite extends android.host.test.longevity.LongevitySuite {
 
         // Parse out additional options.
         mRenameIterations = Boolean.valueOf(args.getString(RENAME_ITERATION_OPTION));
+        if (args.containsKey(LANES_OPTION)) {
+            mLanes = Lane.parse(args.getString(LANES_OPTION));
+            setScheduler(new LaneScheduler(mLanes));
+        }
     }
 
     /**
@@ -156,7 +169,17 @@ public class LongevitySuite extends android.host.test.longevity.LongevitySuite {
     public void run(final RunNotifier notifier) {
         // Register the battery terminator available only on the platform library, if present.
         if (hasBattery()) {
-            notifier.addListener(new BatteryTerminator(notifier, mArguments, mContext));
+            if (Boolean.parseBoolean(mArguments.get(PredictiveBatteryTerminator.OPTION))) {
+                notifier.addListener(
+                        new PredictiveBatteryTerminator(
+                                notifier,
+                                mArguments,
+                                mContext,
+                                mInstrumentation,
+                                getIterationSize()));
+            } else {
+                notifier.addListener(new BatteryTerminator(notifier, mArguments, mContext));
+            }
         }
         // Register other listeners and continue with standard longevity run.
         super.run(notifier);
@@ -164,6 +187,19 @@ public class LongevitySuite extends android.host.test.longevity.LongevitySuite {
 
     @Override
     protected void runChild(Runner runner, final RunNotifier notifier) {
+        Lane lane = Lane.current();
+        if (lane != null) {
+            // Iterations are tracked per lane, and the lane's events are merged into the suite's.
+            int iteration = lane.nextIteration(runner.getDescription());
+            LongevityClassRunner suiteRunner = getSuiteRunner(runner);
+            if (mRenameIterations) {
+                suiteRunner.setLane(lane.getName());
+                suiteRunner.setIteration(iteration);
+            }
+            super.runChild(suiteRunner, new LaneScheduler.LaneNotifier(notifier));
+            return;
+        }
+
         // Update iterations.
         mIterations.computeIfPresent(runner.getDescription(), (k, v) -> v + 1);
         mIterations.computeIfAbsent(runner.getDescription(), k -> 1);
@@ -175,6 +211,11 @@ public class LongevitySuite extends android.host.test.longevity.LongevitySuite {
         super.runChild(suiteRunner, notifier);
     }
 
+    /** Returns the lanes scenarios run in concurrently, or null if they run sequentially. */
+    protected List<Lane> getLanes() {
+        return mLanes;
+    }
+
     /**
      * Returns the platform-specific {@link TimeoutTerminator} for Android devices.
      */
@@ -206,6 +247,18 @@ public class LongevitySuite extends android.host.test.longevity.LongevitySuite {
         return mTimeoutTerminator.getTotalSuiteTimeoutMs();
     }
 
+    /**
+     * Returns the number of scenarios in one iteration of the suite, i.e. the number of scenarios
+     * run between two iteration boundaries.
+     */
+    protected int getIterationSize() {
+        int iterations =
+                mArguments.containsKey(ITERATIONS_OPTION)
+                        ? Integer.parseInt(mArguments.get(ITERATIONS_OPTION))
+                        : 1;
+        return Math.max(getRunners().size() / Math.max(iterations, 1), 1);
+    }
+
     /**
      * Returns a {@link Runner} specific for the suite, if any. Can be overriden by subclasses to
      * supply different runner implementations.
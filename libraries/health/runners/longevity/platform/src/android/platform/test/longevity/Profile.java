@@ -20,11 +20,14 @@ import android.os.Bundle;
 import android.os.SystemClock;
 import android.platform.test.longevity.proto.Configuration;
 import android.platform.test.longevity.proto.Configuration.Scenario;
+import android.platform.test.longevity.proto.Configuration.Scenario.WeightedJourney;
 import android.platform.test.longevity.proto.Configuration.Schedule;
 import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 import androidx.test.InstrumentationRegistry;
 
+import com.google.common.collect.Lists;
+
 import org.junit.runner.Description;
 import org.junit.runner.Runner;
 import org.junit.runner.notification.RunListener;
@@ -122,6 +125,18 @@ public class Profile extends RunListener {
             throw new UnsupportedOperationException(
                     "Only scheduled profiles are currently supported.");
         }
+        // Expand repeated and mixed scenarios into their individual occurrences.
+        if (ExpandedScenarioList.needsExpansion(mOrderedScenariosList)) {
+            mOrderedScenariosList =
+                    new ExpandedScenarioList(
+                            mOrderedScenariosList,
+                            mConfiguration.getSchedule().equals(Schedule.TIMESTAMPED));
+            Log.i(
+                    LOG_TAG,
+                    String.format(
+                            "Expanded %d scenarios in profile into %d scenarios.",
+                            mConfiguration.getScenariosCount(), mOrderedScenariosList.size()));
+        }
     }
 
     public List<Runner> getRunnerSequence(List<Runner> input) {
@@ -140,28 +155,30 @@ public class Profile extends RunListener {
         Log.i(LOG_TAG, String.format(
                 "Available journeys: %s",
                 nameToRunner.keySet().stream().collect(Collectors.joining(", "))));
-        List<Runner> result = mOrderedScenariosList
-                .stream()
-                .map(Configuration.Scenario::getJourney)
-                .map(
-                        journeyName -> {
-                            if (nameToRunner.containsKey(journeyName)) {
-                                return nameToRunner.get(journeyName);
-                            } else {
-                                throw new IllegalArgumentException(
-                                        String.format(
-                                                "Journey %s in profile not found. "
-                                                + "Check logcat to see available journeys.",
-                                                journeyName));
-                            }
-                        })
-                .collect(Collectors.toList());
-        Log.i(LOG_TAG, String.format(
-                "Returned runners: %s",
-                result.stream()
-                            .map(Runner::getDescription)
-                            .map(Description::getDisplayName)
-                            .collect(Collectors.toList())));
+        // Validate every journey referenced by the profile up front, as the runner sequence is
+        // resolved lazily for profiles with repeated scenarios.
+        for (Scenario scenario : config.getScenariosList()) {
+            List<String> journeyNames =
+                    scenario.getMixCount() > 0
+                            ? scenario.getMixList()
+                                    .stream()
+                                    .map(WeightedJourney::getJourney)
+                                    .collect(Collectors.toList())
+                            : Collections.singletonList(scenario.getJourney());
+            for (String journeyName : journeyNames) {
+                if (!nameToRunner.containsKey(journeyName)) {
+                    throw new IllegalArgumentException(
+                            String.format(
+                                    "Journey %s in profile not found. "
+                                    + "Check logcat to see available journeys.",
+                                    journeyName));
+                }
+            }
+        }
+        List<Runner> result =
+                Lists.transform(
+                        mOrderedScenariosList, scenario -> nameToRunner.get(scenario.getJourney()));
+        Log.i(LOG_TAG, String.format("Returned %d runners.", result.size()));
         return result;
     }
 
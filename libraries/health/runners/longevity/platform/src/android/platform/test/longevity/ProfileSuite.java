@@ -64,6 +64,12 @@ public class ProfileSuite extends LongevitySuite {
             Instrumentation instrumentation, Context context, Bundle arguments)
             throws InitializationError {
         super(klass, constructClassRunners(klass, builder, arguments), arguments);
+        // Profiles schedule scenarios one after another, which does not work with lanes.
+        if (getLanes() != null) {
+            throw new InitializationError(
+                    String.format(
+                            "The %s option is not supported for profile suites.", LANES_OPTION));
+        }
         mProfile = new Profile(arguments);
     }
 
@@ -124,6 +130,16 @@ public class ProfileSuite extends LongevitySuite {
         super.runChild(runner, notifier);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Scenarios in a profile are scheduled individually, so every scenario is its own iteration.
+     */
+    @Override
+    protected int getIterationSize() {
+        return 1;
+    }
+
     /**
      * {@inheritDoc}
      *
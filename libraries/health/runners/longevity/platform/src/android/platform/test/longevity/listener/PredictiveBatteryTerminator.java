@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.longevity.listener;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.host.test.longevity.listener.RunTerminator;
+import android.os.BatteryManager;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.RunNotifier;
+
+/**
+ * A {@link RunTerminator} that stops the run at an iteration boundary before the battery is
+ * predicted to fall below the minimum level.
+ *
+ * <p>Battery level, charge and current are sampled at a fixed, low cadence on a background thread
+ * and fitted to a linear discharge model. At the end of each iteration, the run is stopped if the
+ * level is predicted to fall below the threshold before the next iteration would finish. The
+ * measured charge used per iteration is reported as a run metric.
+ */
+public final class PredictiveBatteryTerminator extends RunTerminator {
+    /** Option to use this terminator instead of {@link BatteryTerminator}. */
+    public static final String OPTION = "predictive-battery";
+
+    @VisibleForTesting static final String MIN_BATTERY_OPTION = "min-battery";
+    private static final double MIN_BATTERY_DEFAULT = 0.05; // 5% battery
+    @VisibleForTesting static final String SAMPLE_INTERVAL_OPTION = "battery-sample-interval_msec";
+    private static final long SAMPLE_INTERVAL_DEFAULT = TimeUnit.MINUTES.toMillis(1);
+
+    @VisibleForTesting static final String MAH_PER_ITERATION_METRIC = "battery_mah_per_iteration";
+    @VisibleForTesting static final String DISCHARGE_PER_HOUR_METRIC = "battery_discharge_per_hour";
+    @VisibleForTesting static final String AVERAGE_CURRENT_METRIC = "battery_average_current_ua";
+    @VisibleForTesting static final String ITERATIONS_METRIC = "battery_measured_iterations";
+
+    // Status code for reporting metrics while the instrumentation is in progress.
+    private static final int INST_STATUS_IN_PROGRESS = 2;
+    private static final double MS_PER_HOUR = TimeUnit.HOURS.toMillis(1);
+    // Value returned by BatteryManager for unsupported properties.
+    private static final long UNSUPPORTED_PROPERTY = Long.MIN_VALUE;
+
+    private final Context mContext;
+    private final Instrumentation mInstrumentation;
+    private final double mMinBattery;
+    private final long mSampleIntervalMs;
+    private final int mIterationSize;
+    private final LongSupplier mClock;
+
+    private ScheduledExecutorService mSampler;
+
+    // Running sums for the least-squares fit of battery level against time in hours. Written by
+    // the sampler thread and read on test events, so guarded by this object.
+    private int mSampleCount;
+    private double mSumT;
+    private double mSumLevel;
+    private double mSumTT;
+    private double mSumTLevel;
+    private double mLastLevel = Double.NaN;
+    private long mFirstSampleMs = -1;
+    private long mCurrentSampleCount;
+    private long mSumCurrentUa;
+
+    // Iteration bookkeeping, only accessed on test events.
+    private int mFinishedTests;
+    private int mFinishedIterations;
+    private long mIterationsStartMs = -1;
+    private long mRunStartChargeUah = UNSUPPORTED_PROPERTY;
+    private long mLastBoundaryChargeUah = UNSUPPORTED_PROPERTY;
+
+    /**
+     * @param iterationSize the number of tests in an iteration, i.e. between two boundaries
+     */
+    public PredictiveBatteryTerminator(
+            RunNotifier notifier,
+            Map<String, String> args,
+            Context context,
+            Instrumentation instrumentation,
+            int iterationSize) {
+        this(notifier, args, context, instrumentation, iterationSize, SystemClock::elapsedRealtime);
+    }
+
+    @VisibleForTesting
+    PredictiveBatteryTerminator(
+            RunNotifier notifier,
+            Map<String, String> args,
+            Context context,
+            Instrumentation instrumentation,
+            int iterationSize,
+            LongSupplier clock) {
+        super(notifier);
+        mMinBattery =
+                args.containsKey(MIN_BATTERY_OPTION)
+                        ? Double.parseDouble(args.get(MIN_BATTERY_OPTION))
+                        : MIN_BATTERY_DEFAULT;
+        mSampleIntervalMs =
+                args.containsKey(SAMPLE_INTERVAL_OPTION)
+                        ? Long.parseLong(args.get(SAMPLE_INTERVAL_OPTION))
+                        : SAMPLE_INTERVAL_DEFAULT;
+        mContext = context;
+        mInstrumentation = instrumentation;
+        mIterationSize = Math.max(iterationSize, 1);
+        mClock = clock;
+    }
+
+    @Override
+    public void testRunStarted(Description description) {
+        startSampling();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Note: this starts sampling if the terminator was registered after the run started.
+     */
+    @Override
+    public void testStarted(Description description) {
+        if (mSampler == null) {
+            startSampling();
+        }
+    }
+
+    private void startSampling() {
+        mIterationsStartMs = mClock.getAsLong();
+        mRunStartChargeUah = getChargeCounterUah();
+        mLastBoundaryChargeUah = mRunStartChargeUah;
+        mSampler =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread thread = new Thread(r, getClass().getSimpleName());
+                            thread.setDaemon(true);
+                            thread.setPriority(Thread.MIN_PRIORITY);
+                            return thread;
+                        });
+        // Take the first sample right away so that the model starts at the beginning of the run.
+        sample();
+        mSampler.scheduleAtFixedRate(
+                this::sample, mSampleIntervalMs, mSampleIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void testFinished(Description description) {
+        mFinishedTests++;
+        if (mFinishedTests % mIterationSize != 0) {
+            // Only stop at iteration boundaries unless the battery already is below the minimum.
+            if (getLastLevel() < mMinBattery) {
+                kill(String.format("battery fell below %.2f%%", mMinBattery * 100.0f));
+            }
+            return;
+        }
+        mFinishedIterations++;
+        long chargeUah = getChargeCounterUah();
+        if (chargeUah != UNSUPPORTED_PROPERTY) {
+            mLastBoundaryChargeUah = chargeUah;
+        }
+        long nowMs = mClock.getAsLong();
+        long iterationMs = (nowMs - mIterationsStartMs) / mFinishedIterations;
+        double predicted = predictLevel(nowMs + iterationMs);
+        if (predicted < mMinBattery) {
+            kill(
+                    String.format(
+                            "battery is predicted to fall below %.2f%% (to %.2f%%) during the "
+                                    + "next iteration",
+                            mMinBattery * 100.0f, predicted * 100.0f));
+        }
+    }
+
+    @Override
+    public void testRunFinished(Result result) {
+        stopSampling();
+        Bundle metrics = getMetrics();
+        if (!metrics.isEmpty() && mInstrumentation != null) {
+            mInstrumentation.sendStatus(INST_STATUS_IN_PROGRESS, metrics);
+        }
+    }
+
+    /** Returns the discharge metrics measured so far. */
+    @VisibleForTesting
+    Bundle getMetrics() {
+        Bundle metrics = new Bundle();
+        if (mFinishedIterations > 0
+                && mRunStartChargeUah != UNSUPPORTED_PROPERTY
+                && mLastBoundaryChargeUah != UNSUPPORTED_PROPERTY) {
+            double mahPerIteration =
+                    (mRunStartChargeUah - mLastBoundaryChargeUah) / 1000.0 / mFinishedIterations;
+            metrics.putString(MAH_PER_ITERATION_METRIC, String.valueOf(mahPerIteration));
+            metrics.putString(ITERATIONS_METRIC, String.valueOf(mFinishedIterations));
+        }
+        synchronized (this) {
+            double slope = getSlopePerHour();
+            if (!Double.isNaN(slope)) {
+                metrics.putString(DISCHARGE_PER_HOUR_METRIC, String.valueOf(-slope));
+            }
+            if (mCurrentSampleCount > 0) {
+                metrics.putString(
+                        AVERAGE_CURRENT_METRIC,
+                        String.valueOf(mSumCurrentUa / mCurrentSampleCount));
+            }
+        }
+        return metrics;
+    }
+
+    /** Samples the battery and adds it to the discharge model. Runs on the sampler thread. */
+    private void sample() {
+        try {
+            double level = getBatteryLevel();
+            long currentUa = getCurrentNowUa();
+            recordSample(mClock.getAsLong(), level, currentUa);
+        } catch (RuntimeException e) {
+            // Keep sampling; a single failed read should not cancel the periodic task.
+            Log.w(getClass().getSimpleName(), "Failed to sample the battery.", e);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void recordSample(long timestampMs, double level, long currentUa) {
+        if (mFirstSampleMs < 0) {
+            mFirstSampleMs = timestampMs;
+        }
+        double t = (timestampMs - mFirstSampleMs) / MS_PER_HOUR;
+        mSampleCount++;
+        mSumT += t;
+        mSumLevel += level;
+        mSumTT += t * t;
+        mSumTLevel += t * level;
+        mLastLevel = level;
+        if (currentUa != UNSUPPORTED_PROPERTY) {
+            mCurrentSampleCount++;
+            mSumCurrentUa += currentUa;
+        }
+    }
+
+    /**
+     * Returns the level predicted at {@code timestampMs}, or the last sampled level if there are
+     * not enough samples for a fit yet.
+     */
+    private synchronized double predictLevel(long timestampMs) {
+        double slope = getSlopePerHour();
+        if (Double.isNaN(slope)) {
+            return getLastLevel();
+        }
+        double intercept = (mSumLevel - slope * mSumT) / mSampleCount;
+        double t = (timestampMs - mFirstSampleMs) / MS_PER_HOUR;
+        return intercept + slope * t;
+    }
+
+    /** Returns the fitted change in level per hour, or NaN if it cannot be fitted yet. */
+    private synchronized double getSlopePerHour() {
+        double denominator = mSampleCount * mSumTT - mSumT * mSumT;
+        if (mSampleCount < 2 || denominator == 0) {
+            return Double.NaN;
+        }
+        return (mSampleCount * mSumTLevel - mSumT * mSumLevel) / denominator;
+    }
+
+    /** Returns the last sampled level, or 1 (full) if no sample has been taken yet. */
+    private synchronized double getLastLevel() {
+        return Double.isNaN(mLastLevel) ? 1.0 : mLastLevel;
+    }
+
+    private void stopSampling() {
+        if (mSampler != null) {
+            mSampler.shutdownNow();
+            mSampler = null;
+        }
+    }
+
+    /** Returns the battery level of the current device, in percent format (0.05 = 5%). */
+    private double getBatteryLevel() {
+        Intent batteryIntent =
+                mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+        int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+        if (level < 0 || scale <= 0) {
+            throw new RuntimeException("Failed to get proper battery levels.");
+        }
+        return (double) level / (double) scale;
+    }
+
+    /** Returns the remaining battery charge in microampere-hours, if supported. */
+    private long getChargeCounterUah() {
+        BatteryManager batteryManager = mContext.getSystemService(BatteryManager.class);
+        return batteryManager == null
+                ? UNSUPPORTED_PROPERTY
+                : batteryManager.getLongProperty(BatteryManager.BATTERY_PROPERTY_CHARGE_COUNTER);
+    }
+
+    /** Returns the instantaneous battery current in microamperes, if supported. */
+    private long getCurrentNowUa() {
+        BatteryManager batteryManager = mContext.getSystemService(BatteryManager.class);
+        return batteryManager == null
+                ? UNSUPPORTED_PROPERTY
+                : batteryManager.getLongProperty(BatteryManager.BATTERY_PROPERTY_CURRENT_NOW);
+    }
+
+    /** Prints messages to logcat. */
+    @Override
+    protected void print(String reason) {
+        Log.e(getClass().getSimpleName(), reason);
+    }
+}
@@ -40,7 +40,11 @@ import org.junit.runners.Suite.SuiteClasses;
 import org.mockito.Mockito;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Unit tests for the {@link LongevitySuite} runner.
@@ -168,6 +172,100 @@ public class LongevitySuiteTest {
         Assert.assertEquals(runners.get(2).getIteration(), 2);
     }
 
+    /** Test that scenarios are partitioned into lanes with iterations tracked per lane. */
+    @Test
+    public void testLanes_runScenariosPerLane() throws InitializationError {
+        Bundle args = new Bundle();
+        args.putString(LongevitySuite.RENAME_ITERATION_OPTION, String.valueOf(true));
+        args.putString(LongevitySuite.LANES_OPTION, "display:0,display:1");
+        // Create and spy the core suite to test.
+        mSuite =
+                Mockito.spy(
+                        new LongevitySuite(
+                                IterationSuite.class,
+                                new AllDefaultPossibilitiesBuilder(true),
+                                mInstrumentation,
+                                mContext,
+                                args));
+        // Store the runners and the lanes they were created in; lanes run on separate threads.
+        Map<LongevityClassRunner, Lane> runners = new ConcurrentHashMap<>();
+        doAnswer(
+                        invocation -> {
+                            LongevityClassRunner runner =
+                                    (LongevityClassRunner) invocation.callRealMethod();
+                            runners.put(runner, Lane.current());
+                            return runner;
+                        })
+                .when(mSuite)
+                .getSuiteRunner(any(Runner.class));
+        mSuite.run(mRunNotifier);
+        Assert.assertEquals(runners.size(), 3);
+        // Scenarios are assigned round-robin, so the first lane runs TestOne twice.
+        for (Map.Entry<LongevityClassRunner, Lane> entry : runners.entrySet()) {
+            String name = entry.getKey().getDescription().getChildren().get(0).getDisplayName();
+            if (entry.getValue().getIndex() == 0) {
+                Assert.assertTrue(name.contains("TestOne"));
+                Assert.assertTrue(name.contains("display0"));
+            } else {
+                Assert.assertTrue(name.contains("TestTwo"));
+                Assert.assertTrue(name.contains("display1"));
+                Assert.assertEquals(entry.getKey().getIteration(), 1);
+            }
+        }
+        verify(mRunNotifier, Mockito.times(3)).fireTestFinished(any());
+    }
+
+    /** Test that each lane numbers the iterations of a scenario on its own. */
+    @Test
+    public void testLanes_iterationsPerLane() throws InitializationError {
+        Bundle args = new Bundle();
+        args.putString(LongevitySuite.RENAME_ITERATION_OPTION, String.valueOf(true));
+        args.putString(LongevitySuite.LANES_OPTION, "user:10,user:11");
+        // Create and spy the core suite to test.
+        mSuite =
+                Mockito.spy(
+                        new LongevitySuite(
+                                LaneIterationSuite.class,
+                                new AllDefaultPossibilitiesBuilder(true),
+                                mInstrumentation,
+                                mContext,
+                                args));
+        // Store the runners; lanes run on separate threads.
+        List<LongevityClassRunner> runners = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(
+                        invocation -> {
+                            LongevityClassRunner runner =
+                                    (LongevityClassRunner) invocation.callRealMethod();
+                            runners.add(runner);
+                            return runner;
+                        })
+                .when(mSuite)
+                .getSuiteRunner(any(Runner.class));
+        mSuite.run(mRunNotifier);
+        // Each lane runs the scenario twice and counts from 1, rather than sharing one count.
+        List<String> names = new ArrayList<>();
+        for (LongevityClassRunner runner : runners) {
+            names.add(runner.getDescription().getChildren().get(0).getDisplayName());
+        }
+        Collections.sort(names);
+        String className = LaneIterationSuite.TestOne.class.getName();
+        Assert.assertEquals(
+                names,
+                Arrays.asList(
+                        "testNothing(" + className + "@user10@1)",
+                        "testNothing(" + className + "@user10@2)",
+                        "testNothing(" + className + "@user11@1)",
+                        "testNothing(" + className + "@user11@2)"));
+    }
+
+    /** Test the arguments that bind activity starts to a lane. */
+    @Test
+    public void testLanes_amStartArgs() {
+        List<Lane> lanes = Lane.parse("user:10, display:1");
+        Assert.assertEquals(lanes.get(0).getAmStartArgs(), "--user 10");
+        Assert.assertEquals(lanes.get(1).getAmStartArgs(), "--display 1");
+    }
+
     /** Sample device-side test cases. */
     @RunWith(LongevitySuite.class)
     @SuiteClasses({
@@ -182,6 +280,23 @@ public class LongevitySuiteTest {
         }
     }
 
+    /** Sample test class that runs the same test twice in each of two lanes. */
+    @RunWith(LongevitySuite.class)
+    @SuiteClasses({
+        LaneIterationSuite.TestOne.class,
+        LaneIterationSuite.TestOne.class,
+        LaneIterationSuite.TestOne.class,
+        LaneIterationSuite.TestOne.class,
+    })
+    public static class LaneIterationSuite {
+        // no local test cases.
+
+        public static class TestOne {
+            @Test
+            public void testNothing() {}
+        }
+    }
+
     /** Sample test class with multiple iterations of the same test. */
     @RunWith(LongevitySuite.class)
     @SuiteClasses({
@@ -20,6 +20,8 @@ import static com.google.common.truth.Truth.assertThat;
 import android.os.Bundle;
 import android.platform.test.longevity.proto.Configuration;
 import android.platform.test.longevity.proto.Configuration.Scenario;
+import android.platform.test.longevity.proto.Configuration.Scenario.Repeat;
+import android.platform.test.longevity.proto.Configuration.Scenario.WeightedJourney;
 import android.platform.test.longevity.proto.Configuration.Schedule;
 
 import com.google.common.collect.ImmutableList;
@@ -82,9 +84,70 @@ public class ProfileTest {
                     .build();
     private static final String CONFIG_WITH_MISSING_TIMESTAMPS_KEY =
             "config_with_missing_timestamps";
+    private static final String PERIODIC_CONFIG_KEY = "periodic_config";
+    protected static final Configuration PERIODIC_CONFIG =
+            Configuration.newBuilder()
+                    .setSchedule(Schedule.TIMESTAMPED)
+                    .addScenarios(
+                            Scenario.newBuilder()
+                                    .setAt("00:01:00")
+                                    .setJourney(
+                                            "android.platform.test.scenario.calendar.FlingWeekPage")
+                                    .setRepeat(
+                                            Repeat.newBuilder()
+                                                    .setUntil("00:04:00")
+                                                    .setEveryS(60)))
+                    .addScenarios(
+                            Scenario.newBuilder()
+                                    .setAt("00:01:30")
+                                    .setJourney(
+                                            "android.platform.test.scenario.calendar.FlingDayPage"))
+                    .build();
+    private static final String POISSON_CONFIG_KEY = "poisson_config";
+    protected static final Configuration POISSON_CONFIG =
+            Configuration.newBuilder()
+                    .setSchedule(Schedule.TIMESTAMPED)
+                    .addScenarios(
+                            Scenario.newBuilder()
+                                    .setAt("00:00:00")
+                                    .addMix(
+                                            WeightedJourney.newBuilder()
+                                                    .setJourney(
+                                                            "android.platform.test.scenario"
+                                                                    + ".calendar.FlingWeekPage")
+                                                    .setWeight(3))
+                                    .addMix(
+                                            WeightedJourney.newBuilder()
+                                                    .setJourney(
+                                                            "android.platform.test.scenario"
+                                                                    + ".calendar.FlingDayPage")
+                                                    .setWeight(1))
+                                    .setRepeat(
+                                            Repeat.newBuilder()
+                                                    .setUntil("23:59:59")
+                                                    .setPerHour(600)
+                                                    .setSeed(42)))
+                    .build();
+    private static final String INDEXED_REPEAT_CONFIG_KEY = "indexed_repeat_config";
+    protected static final Configuration INDEXED_REPEAT_CONFIG =
+            Configuration.newBuilder()
+                    .setSchedule(Schedule.INDEXED)
+                    .addScenarios(
+                            Scenario.newBuilder()
+                                    .setIndex(1)
+                                    .setJourney(
+                                            "android.platform.test.scenario.calendar.FlingWeekPage")
+                                    .setRepeat(
+                                            Repeat.newBuilder()
+                                                    .setUntil("00:04:00")
+                                                    .setEveryS(60)))
+                    .build();
     protected static final ImmutableMap<String, Configuration> TEST_CONFIGS= ImmutableMap.of(
             VALID_CONFIG_KEY, VALID_CONFIG,
-            CONFIG_WITH_INVALID_JOURNEY_KEY, CONFIG_WITH_INVALID_JOURNEY);
+            CONFIG_WITH_INVALID_JOURNEY_KEY, CONFIG_WITH_INVALID_JOURNEY,
+            PERIODIC_CONFIG_KEY, PERIODIC_CONFIG,
+            POISSON_CONFIG_KEY, POISSON_CONFIG,
+            INDEXED_REPEAT_CONFIG_KEY, INDEXED_REPEAT_CONFIG);
     private static final ImmutableList<String> AVAILABLE_JOURNEYS = ImmutableList.of(
             "android.platform.test.scenario.calendar.FlingWeekPage",
             "android.platform.test.scenario.calendar.FlingDayPage",
@@ -144,6 +207,61 @@ public class ProfileTest {
                         .getRunnerSequence(mMockInput);
     }
 
+    /** Tests that periodic scenarios are expanded and interleaved with the other scenarios. */
+    @Test
+    public void testPeriodicScenariosExpanded() {
+        Profile profile = getProfile(getArguments(PERIODIC_CONFIG_KEY));
+        List<String> outputDescriptions =
+                profile.getRunnerSequence(mMockInput)
+                        .stream()
+                        .map(r -> r.getDescription().getDisplayName())
+                        .collect(Collectors.toList());
+        assertThat(outputDescriptions)
+                .containsExactly(
+                        "android.platform.test.scenario.calendar.FlingWeekPage",
+                        "android.platform.test.scenario.calendar.FlingDayPage",
+                        "android.platform.test.scenario.calendar.FlingWeekPage",
+                        "android.platform.test.scenario.calendar.FlingWeekPage",
+                        "android.platform.test.scenario.calendar.FlingWeekPage")
+                .inOrder();
+        assertThat(profile.getCurrentScenario().getAt()).isEqualTo("00:01:00");
+        assertThat(profile.getCurrentScenario().hasRepeat()).isFalse();
+    }
+
+    /** Tests that rate-based scenarios with a seed expand the same way every time. */
+    @Test
+    public void testPoissonScenariosAreDeterministic() {
+        List<Runner> first = getProfile(getArguments(POISSON_CONFIG_KEY)).getRunnerSequence(
+                mMockInput);
+        List<Runner> second = getProfile(getArguments(POISSON_CONFIG_KEY)).getRunnerSequence(
+                mMockInput);
+        // 600 runs per hour over a day should give roughly 14400 runs.
+        assertThat(first.size()).isGreaterThan(13000);
+        assertThat(first.size()).isLessThan(16000);
+        assertThat(first).isEqualTo(second);
+        // Both journeys in the mix should be picked, the first one more often.
+        long weekPageCount =
+                first.stream()
+                        .filter(
+                                r ->
+                                        r.getDescription()
+                                                .getDisplayName()
+                                                .equals(
+                                                        "android.platform.test.scenario.calendar"
+                                                                + ".FlingWeekPage"))
+                        .count();
+        assertThat(weekPageCount).isGreaterThan(first.size() / 2);
+        assertThat(weekPageCount).isLessThan(first.size());
+    }
+
+    /** Tests that an exception is thrown for repeated scenarios in indexed profiles. */
+    @Test
+    public void testRepeatInIndexedProfileThrows() {
+        exceptionThrown.expect(IllegalArgumentException.class);
+        exceptionThrown.expectMessage("only supported in timestamped profiles");
+        getProfile(getArguments(INDEXED_REPEAT_CONFIG_KEY));
+    }
+
     protected class TestableProfile extends Profile {
         public TestableProfile(Bundle args) {
             super(args);
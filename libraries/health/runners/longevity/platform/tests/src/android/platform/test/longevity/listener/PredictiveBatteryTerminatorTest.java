@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.longevity.listener;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.BatteryManager;
+import androidx.test.filters.SmallTest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.JUnit4;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+/** Unit test the logic for {@link PredictiveBatteryTerminator} */
+@RunWith(JUnit4.class)
+public class PredictiveBatteryTerminatorTest {
+    private static final long HOUR_MS = TimeUnit.HOURS.toMillis(1);
+
+    private PredictiveBatteryTerminator mListener;
+    @Mock private RunNotifier mNotifier;
+    @Mock private Context mContext;
+    @Mock private Instrumentation mInstrumentation;
+    @Mock private Intent mIntent;
+
+    private long mNowMs = 0;
+
+    @Before
+    public void setupListener() {
+        MockitoAnnotations.initMocks(this);
+        when(mContext.registerReceiver(any(), any())).thenReturn(mIntent);
+        when(mIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1)).thenReturn(100);
+        when(mIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1)).thenReturn(60);
+        Map<String, String> args = new HashMap<>();
+        args.put(PredictiveBatteryTerminator.MIN_BATTERY_OPTION, String.valueOf(0.52));
+        // Make sure the background sampler does not interfere with the samples below.
+        args.put(PredictiveBatteryTerminator.SAMPLE_INTERVAL_OPTION, String.valueOf(10 * HOUR_MS));
+        mListener =
+                new PredictiveBatteryTerminator(
+                        mNotifier, args, mContext, mInstrumentation, 2, () -> mNowMs);
+        mListener.testRunStarted(Description.EMPTY);
+    }
+
+    @After
+    public void tearDown() {
+        mListener.testRunFinished(new Result());
+    }
+
+    /** Tests that the run stops at an iteration boundary before the predicted crossing. */
+    @Test
+    @SmallTest
+    public void testStopsBeforePredictedCrossing() throws Exception {
+        // Discharges 5% per hour and an iteration takes an hour, so the next one ends at 50%.
+        mListener.recordSample(HOUR_MS, 0.55, 0);
+        mNowMs = HOUR_MS;
+        mListener.testFinished(Description.EMPTY);
+        verify(mNotifier, never()).pleaseStop();
+        mListener.testFinished(Description.EMPTY);
+        verify(mNotifier).pleaseStop();
+        assertThat(
+                        Double.parseDouble(
+                                mListener
+                                        .getMetrics()
+                                        .getString(
+                                                PredictiveBatteryTerminator
+                                                        .DISCHARGE_PER_HOUR_METRIC)))
+                .isWithin(1e-6)
+                .of(0.05);
+    }
+
+    /** Tests that the run continues when the battery lasts for another iteration. */
+    @Test
+    @SmallTest
+    public void testContinuesWithEnoughBattery() throws Exception {
+        mListener.recordSample(HOUR_MS, 0.59, 0);
+        mNowMs = HOUR_MS;
+        mListener.testFinished(Description.EMPTY);
+        mListener.testFinished(Description.EMPTY);
+        verify(mNotifier, never()).pleaseStop();
+    }
+
+    /** Tests that the run stops mid-iteration if the battery already is below the minimum. */
+    @Test
+    @SmallTest
+    public void testStopsMidIterationBelowMinimum() throws Exception {
+        mListener.recordSample(HOUR_MS, 0.51, 0);
+        mNowMs = HOUR_MS;
+        mListener.testFinished(Description.EMPTY);
+        verify(mNotifier).pleaseStop();
+    }
+}
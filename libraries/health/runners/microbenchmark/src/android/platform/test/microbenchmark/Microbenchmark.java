@@ -25,10 +25,12 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.junit.rules.MethodRule;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runner.notification.RunNotifier;
@@ -50,11 +52,19 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
     // A constant to indicate that the iteration number is not set.
     @VisibleForTesting static final int ITERATION_NOT_SET = -1;
     public static final String RENAME_ITERATION_OPTION = "rename-iterations";
+    // Options for timing each phase of a test, i.e. rules, @Before/@After methods, the test method
+    // and listeners, and for adding trace sections for each of them.
+    @VisibleForTesting static final String PHASE_TIMING_OPTION = "phase-timing";
+    @VisibleForTesting static final String PHASE_TRACE_OPTION = "phase-trace";
+    // Status code for reporting metrics while the instrumentation is in progress.
+    private static final int INST_STATUS_IN_PROGRESS = 2;
 
     private String mIterationSep = ITERATION_SEP_DEFAULT;
 
     private boolean mRenameIterations;
     private Map<Description, Integer> mIterations = new HashMap<>();
+    // Times the phases of each test if the phase timing option is enabled, or null otherwise.
+    private PhaseTimer mPhaseTimer;
 
     /**
      * Called reflectively on classes annotated with {@code @RunWith(Microbenchmark.class)}.
@@ -76,6 +86,10 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
                 arguments.containsKey(ITERATION_SEP_OPTION)
                         ? arguments.getString(ITERATION_SEP_OPTION)
                         : mIterationSep;
+        if (Boolean.valueOf(arguments.getString(PHASE_TIMING_OPTION))) {
+            mPhaseTimer =
+                    new PhaseTimer(Boolean.valueOf(arguments.getString(PHASE_TRACE_OPTION)));
+        }
     }
 
     /**
@@ -86,17 +100,127 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
     @Override
     protected Statement methodInvoker(FrameworkMethod method, Object test) {
         Statement start = super.methodInvoker(method, test);
+        if (mPhaseTimer != null) {
+            start = mPhaseTimer.time(PhaseTimer.TEST_PHASE, start, describeChild(method));
+        }
         // Wrap the inner-most test method with trace points.
         start = getTracePointRule().apply(start, describeChild(method));
         // Invoke special @TightMethodRules that wrap @Test methods.
         List<TestRule> tightMethodRules =
                 getTestClass().getAnnotatedFieldValues(test, TightMethodRule.class, TestRule.class);
+        if (mPhaseTimer != null) {
+            tightMethodRules = timeRules("tight_rule", tightMethodRules);
+        }
         for (TestRule tightMethodRule : tightMethodRules) {
             start = tightMethodRule.apply(start, describeChild(method));
         }
         return start;
     }
 
+    /** Times the {@link Before} methods as a phase if phase timing is enabled. */
+    // Deprecated in favour of rules, but the only hook that wraps the Before methods on their own.
+    @SuppressWarnings("deprecation")
+    @Override
+    protected Statement withBefores(FrameworkMethod method, Object target, Statement statement) {
+        if (mPhaseTimer == null) {
+            return super.withBefores(method, target, statement);
+        }
+        return mPhaseTimer.split(
+                PhaseTimer.BEFORE_PHASE,
+                null,
+                inner -> super.withBefores(method, target, inner),
+                statement,
+                describeChild(method));
+    }
+
+    /** Times the {@link After} methods as a phase if phase timing is enabled. */
+    // Deprecated in favour of rules, but the only hook that wraps the After methods on their own.
+    @SuppressWarnings("deprecation")
+    @Override
+    protected Statement withAfters(FrameworkMethod method, Object target, Statement statement) {
+        if (mPhaseTimer == null) {
+            return super.withAfters(method, target, statement);
+        }
+        return mPhaseTimer.split(
+                null,
+                PhaseTimer.AFTER_PHASE,
+                inner -> super.withAfters(method, target, inner),
+                statement,
+                describeChild(method));
+    }
+
+    /** Times each {@link TestRule} in the chain as a phase if phase timing is enabled. */
+    @Override
+    protected List<TestRule> getTestRules(Object target) {
+        List<TestRule> rules = super.getTestRules(target);
+        return mPhaseTimer == null ? rules : timeRules("rule", rules);
+    }
+
+    /**
+     * Times each {@link MethodRule} as a phase if phase timing is enabled. Rules that are also
+     * {@link TestRule}s are left out, since JUnit applies those through {@link #getTestRules}.
+     */
+    @Override
+    protected List<MethodRule> rules(Object target) {
+        List<MethodRule> rules = super.rules(target);
+        if (mPhaseTimer == null) {
+            return rules;
+        }
+        List<MethodRule> timedRules = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            MethodRule rule = rules.get(i);
+            if (rule instanceof TestRule) {
+                continue;
+            }
+            String name = String.format("method_rule%d_%s", i, rule.getClass().getSimpleName());
+            timedRules.add(
+                    (base, method, test) ->
+                            mPhaseTimer
+                                    .wrap(name, (inner, unused) -> rule.apply(inner, method, test))
+                                    .apply(base, describeChild(method)));
+        }
+        return timedRules;
+    }
+
+    /**
+     * Times each {@link ClassRule} as a phase if phase timing is enabled. Since they run once
+     * around all tests, they only count towards the aggregate for the run.
+     */
+    @Override
+    protected List<TestRule> classRules() {
+        List<TestRule> rules = super.classRules();
+        return mPhaseTimer == null ? rules : timeRules("class_rule", rules);
+    }
+
+    /** Wraps the {@code rules} so that each one is timed as a phase named after its position. */
+    private List<TestRule> timeRules(String prefix, List<TestRule> rules) {
+        List<TestRule> timedRules = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            TestRule rule = rules.get(i);
+            timedRules.add(
+                    mPhaseTimer.wrap(
+                            String.format(
+                                    "%s%d_%s", prefix, i, rule.getClass().getSimpleName()),
+                            rule));
+        }
+        return timedRules;
+    }
+
+    /** Reports the aggregate phase timings for the run if phase timing is enabled. */
+    @Override
+    public void run(RunNotifier notifier) {
+        super.run(notifier);
+        if (mPhaseTimer != null) {
+            reportPhaseMetrics(mPhaseTimer.getRunMetrics());
+        }
+    }
+
+    /** Reports phase timing metrics to the instrumentation. */
+    @VisibleForTesting
+    protected void reportPhaseMetrics(Bundle metrics) {
+        InstrumentationRegistry.getInstrumentation().sendStatus(INST_STATUS_IN_PROGRESS, metrics);
+    }
+
     @VisibleForTesting
     protected TracePointRule getTracePointRule() {
         return new TracePointRule();
@@ -170,6 +294,12 @@ public class Microbenchmark extends BlockJUnit4ClassRunner {
             mIterations.computeIfPresent(original, (k, v) -> v + 1);
             mIterations.computeIfAbsent(original, k -> 1);
         }
-        super.runChild(method, notifier);
+        if (mPhaseTimer == null) {
+            super.runChild(method, notifier);
+            return;
+        }
+        mPhaseTimer.startTest();
+        super.runChild(method, mPhaseTimer.timeListeners(notifier));
+        reportPhaseMetrics(mPhaseTimer.finishTest(describeChild(method)));
     }
 }
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.microbenchmark;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.platform.test.rule.TracePointRule;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.model.Statement;
+
+/**
+ * Times the phases of each test run by {@link Microbenchmark}: every {@link TestRule} and {@code
+ * MethodRule} in the chain (split into the part before and after the statement it wraps), the
+ * {@code Before} and {@code After} methods, the test method itself and the time spent in run
+ * listeners.
+ *
+ * <p>Keeps a breakdown for the current test and an aggregate over the run, both keyed by phase.
+ * Phases recorded outside of a test, i.e. class rules, are only part of the aggregate.
+ */
+class PhaseTimer {
+    @VisibleForTesting static final String TEST_METRIC_FORMAT = "phase_us_%s#%s_%s";
+    @VisibleForTesting static final String TOTAL_METRIC_FORMAT = "phase_total_us_%s";
+    @VisibleForTesting static final String MEAN_METRIC_FORMAT = "phase_mean_us_%s";
+
+    @VisibleForTesting static final String TEST_PHASE = "test";
+    @VisibleForTesting static final String BEFORE_PHASE = "before";
+    @VisibleForTesting static final String AFTER_PHASE = "after";
+    @VisibleForTesting static final String LISTENER_STARTED_PHASE = "listener_started";
+    @VisibleForTesting static final String LISTENER_FINISHED_PHASE = "listener_finished";
+
+    private final boolean mTrace;
+
+    // Phase durations of the current test, in the order the phases were entered.
+    private final Map<String, Long> mTestNanos = new LinkedHashMap<>();
+    // Total duration and number of occurrences of each phase over the run.
+    private final Map<String, long[]> mRunNanos = new LinkedHashMap<>();
+
+    /** @param trace whether to also wrap each phase in a trace section. */
+    PhaseTimer(boolean trace) {
+        mTrace = trace;
+    }
+
+    /** Returns a {@link Statement} that records the time spent evaluating {@code statement}. */
+    Statement time(String phase, Statement statement, Description description) {
+        Statement timed =
+                new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        long startNanos = now();
+                        try {
+                            statement.evaluate();
+                        } finally {
+                            record(phase, now() - startNanos);
+                        }
+                    }
+                };
+        return trace(phase, timed, description);
+    }
+
+    /**
+     * Returns a {@link Statement} built by {@code wrapper} around {@code inner}, recording the time
+     * spent in the wrapper before {@code inner} is evaluated as {@code beforePhase}, and after it as
+     * {@code afterPhase}. Either phase may be null to not record it.
+     */
+    Statement split(
+            String beforePhase,
+            String afterPhase,
+            UnaryOperator<Statement> wrapper,
+            Statement inner,
+            Description description) {
+        // Timestamps of entering and leaving the inner statement, or -1 if it was not evaluated.
+        long[] innerNanos = {-1, -1};
+        Statement markedInner =
+                new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        innerNanos[0] = now();
+                        try {
+                            inner.evaluate();
+                        } finally {
+                            innerNanos[1] = now();
+                        }
+                    }
+                };
+        Statement outer = wrapper.apply(markedInner);
+        Statement timed =
+                new Statement() {
+                    @Override
+                    public void evaluate() throws Throwable {
+                        innerNanos[0] = -1;
+                        innerNanos[1] = -1;
+                        long startNanos = now();
+                        try {
+                            outer.evaluate();
+                        } finally {
+                            long endNanos = now();
+                            if (innerNanos[0] < 0) {
+                                // The wrapper never got to the inner statement.
+                                innerNanos[0] = endNanos;
+                                innerNanos[1] = endNanos;
+                            }
+                            if (beforePhase != null) {
+                                record(beforePhase, innerNanos[0] - startNanos);
+                            }
+                            if (afterPhase != null) {
+                                record(afterPhase, endNanos - innerNanos[1]);
+                            }
+                        }
+                    }
+                };
+        return trace(beforePhase != null ? beforePhase : afterPhase, timed, description);
+    }
+
+    /** Returns {@code rule} with the time spent before and after its base statement recorded. */
+    TestRule wrap(String name, TestRule rule) {
+        return (base, description) ->
+                split(
+                        name + "_setup",
+                        name + "_teardown",
+                        inner -> rule.apply(inner, description),
+                        base,
+                        description);
+    }
+
+    /** Returns a {@link RunNotifier} that records the time spent in listeners for each test. */
+    RunNotifier timeListeners(RunNotifier notifier) {
+        return new RunNotifier() {
+            @Override
+            public void fireTestStarted(Description description) {
+                long startNanos = now();
+                try {
+                    notifier.fireTestStarted(description);
+                } finally {
+                    record(LISTENER_STARTED_PHASE, now() - startNanos);
+                }
+            }
+
+            @Override
+            public void fireTestFinished(Description description) {
+                long startNanos = now();
+                try {
+                    notifier.fireTestFinished(description);
+                } finally {
+                    record(LISTENER_FINISHED_PHASE, now() - startNanos);
+                }
+            }
+
+            @Override
+            public void fireTestFailure(Failure failure) {
+                notifier.fireTestFailure(failure);
+            }
+
+            @Override
+            public void fireTestAssumptionFailed(Failure failure) {
+                notifier.fireTestAssumptionFailed(failure);
+            }
+
+            @Override
+            public void fireTestIgnored(Description description) {
+                notifier.fireTestIgnored(description);
+            }
+
+            @Override
+            public void pleaseStop() {
+                notifier.pleaseStop();
+            }
+        };
+    }
+
+    /** Discards the phases recorded since the last test, which are not part of the next one. */
+    void startTest() {
+        mTestNanos.clear();
+    }
+
+    /** Returns the breakdown of the current test as metrics and starts a new breakdown. */
+    Bundle finishTest(Description description) {
+        Bundle metrics = new Bundle();
+        for (Map.Entry<String, Long> phase : mTestNanos.entrySet()) {
+            metrics.putLong(
+                    String.format(
+                            TEST_METRIC_FORMAT,
+                            description.getClassName(),
+                            description.getMethodName(),
+                            phase.getKey()),
+                    TimeUnit.NANOSECONDS.toMicros(phase.getValue()));
+        }
+        mTestNanos.clear();
+        return metrics;
+    }
+
+    /** Returns the total and mean duration of each phase over the run as metrics. */
+    Bundle getRunMetrics() {
+        Bundle metrics = new Bundle();
+        for (Map.Entry<String, long[]> phase : mRunNanos.entrySet()) {
+            long totalNanos = phase.getValue()[0];
+            long count = phase.getValue()[1];
+            metrics.putLong(
+                    String.format(TOTAL_METRIC_FORMAT, phase.getKey()),
+                    TimeUnit.NANOSECONDS.toMicros(totalNanos));
+            metrics.putLong(
+                    String.format(MEAN_METRIC_FORMAT, phase.getKey()),
+                    TimeUnit.NANOSECONDS.toMicros(totalNanos / count));
+        }
+        return metrics;
+    }
+
+    private void record(String phase, long nanos) {
+        mTestNanos.merge(phase, nanos, Long::sum);
+        long[] total = mRunNanos.computeIfAbsent(phase, k -> new long[2]);
+        total[0] += nanos;
+        total[1]++;
+    }
+
+    private Statement trace(String phase, Statement statement, Description description) {
+        return mTrace ? new TracePointRule(phase).apply(statement, description) : statement;
+    }
+
+    @VisibleForTesting
+    long now() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+}
@@ -22,13 +22,17 @@ import android.platform.test.rule.TracePointRule;
 
 import org.junit.After;
 import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.MethodRule;
 import org.junit.rules.TestRule;
 import org.junit.runner.Description;
 import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.junit.runners.model.FrameworkMethod;
 import org.junit.runners.model.InitializationError;
 import org.junit.runners.model.Statement;
 
@@ -179,6 +183,101 @@ public final class MicrobenchmarkTest {
             .inOrder();
     }
 
+    /**
+     * Test that phase timing reports a breakdown per test and an aggregate for the run.
+     */
+    @Test
+    public void testPhaseTiming() throws InitializationError {
+        Bundle args = new Bundle();
+        args.putString("iterations", "2");
+        args.putString(Microbenchmark.PHASE_TIMING_OPTION, "true");
+        LoggingMicrobenchmark loggingRunner = new LoggingMicrobenchmark(LoggingTest.class, args);
+        loggingRunner.setOperationLog(new ArrayList<String>());
+        Result result = new JUnitCore().run(loggingRunner);
+        assertThat(result.wasSuccessful()).isTrue();
+        // One report per iteration and one for the run.
+        List<Bundle> reports = loggingRunner.getPhaseMetrics();
+        assertThat(reports).hasSize(3);
+        String testPrefix =
+                "phase_us_android.platform.test.microbenchmark.MicrobenchmarkTest$LoggingTest"
+                        + "#testMethod_";
+        assertThat(reports.get(0).keySet())
+                .containsExactly(
+                        testPrefix + "listener_started",
+                        testPrefix + "before",
+                        testPrefix + "tight_rule0_TightRule_setup",
+                        testPrefix + "test",
+                        testPrefix + "tight_rule0_TightRule_teardown",
+                        testPrefix + "after",
+                        testPrefix + "listener_finished");
+        assertThat(reports.get(2).keySet()).contains("phase_total_us_test");
+        assertThat(reports.get(2).keySet()).contains("phase_mean_us_before");
+        // Timing must not change the order of execution.
+        assertThat(loggingRunner.getOperationLog()).containsExactly(
+                "before",
+                "tight before",
+                "begin: testMethod("
+                    + "android.platform.test.microbenchmark.MicrobenchmarkTest$LoggingTest)",
+                "test",
+                "end",
+                "tight after",
+                "after",
+                "before",
+                "tight before",
+                "begin: testMethod("
+                    + "android.platform.test.microbenchmark.MicrobenchmarkTest$LoggingTest)",
+                "test",
+                "end",
+                "tight after",
+                "after")
+            .inOrder();
+    }
+
+    /**
+     * Test that phase timing covers method rules, and class rules in the aggregate for the run
+     * only, without applying rules that are both a {@link TestRule} and a {@link MethodRule} twice.
+     */
+    @Test
+    public void testPhaseTiming_methodAndClassRules() throws InitializationError {
+        Bundle args = new Bundle();
+        args.putString(Microbenchmark.PHASE_TIMING_OPTION, "true");
+        LoggingMicrobenchmark loggingRunner = new LoggingMicrobenchmark(RulesTest.class, args);
+        RulesTest.sOperationLog = new ArrayList<>();
+        loggingRunner.setOperationLog(RulesTest.sOperationLog);
+        Result result = new JUnitCore().run(loggingRunner);
+        assertThat(result.wasSuccessful()).isTrue();
+        List<Bundle> reports = loggingRunner.getPhaseMetrics();
+        assertThat(reports).hasSize(2);
+        String testPrefix =
+                "phase_us_android.platform.test.microbenchmark.MicrobenchmarkTest$RulesTest"
+                        + "#testMethod_";
+        assertThat(reports.get(0).keySet())
+                .containsExactly(
+                        testPrefix + "listener_started",
+                        testPrefix + "rule0_DualRule_setup",
+                        testPrefix + "method_rule1_LoggingMethodRule_setup",
+                        testPrefix + "before",
+                        testPrefix + "test",
+                        testPrefix + "after",
+                        testPrefix + "method_rule1_LoggingMethodRule_teardown",
+                        testPrefix + "rule0_DualRule_teardown",
+                        testPrefix + "listener_finished");
+        assertThat(reports.get(1).keySet())
+                .contains("phase_total_us_class_rule0_ClassLogRule_setup");
+        assertThat(reports.get(1).keySet())
+                .contains("phase_total_us_class_rule0_ClassLogRule_teardown");
+        assertThat(RulesTest.sOperationLog)
+                .containsExactly(
+                        "class rule",
+                        "method rule",
+                        "dual rule",
+                        "begin: testMethod(android.platform.test.microbenchmark."
+                                + "MicrobenchmarkTest$RulesTest)",
+                        "test",
+                        "end")
+                .inOrder();
+    }
+
     /**
      * An extensions of the {@link Microbenchmark} runner that logs the start and end of collecting
      * traces. It also passes the operation log to the provided test {@code Class}, if it is a
@@ -187,6 +286,7 @@ public final class MicrobenchmarkTest {
      */
     public static class LoggingMicrobenchmark extends Microbenchmark {
         private List<String> mOperationLog;
+        private List<Bundle> mPhaseMetrics = new ArrayList<>();
 
         public LoggingMicrobenchmark(Class<?> klass) throws InitializationError {
             super(klass);
@@ -212,6 +312,15 @@ public final class MicrobenchmarkTest {
             return mOperationLog;
         }
 
+        List<Bundle> getPhaseMetrics() {
+            return mPhaseMetrics;
+        }
+
+        @Override
+        protected void reportPhaseMetrics(Bundle metrics) {
+            mPhaseMetrics.add(metrics);
+        }
+
         @Override
         protected TracePointRule getTracePointRule() {
             return new LoggingTracePointRule();
@@ -274,4 +383,50 @@ public final class MicrobenchmarkTest {
             }
         }
     }
+
+    /** A test with a class rule, a method rule and a rule that is both a test and method rule. */
+    public static class RulesTest {
+        static List<String> sOperationLog;
+
+        @ClassRule public static ClassLogRule classRule = new ClassLogRule();
+
+        @Rule public DualRule dualRule = new DualRule();
+
+        @Rule public LoggingMethodRule methodRule = new LoggingMethodRule();
+
+        @Test
+        public void testMethod() {
+            sOperationLog.add("test");
+        }
+
+        static class ClassLogRule implements TestRule {
+            @Override
+            public Statement apply(Statement base, Description description) {
+                sOperationLog.add("class rule");
+                return base;
+            }
+        }
+
+        static class DualRule implements TestRule, MethodRule {
+            @Override
+            public Statement apply(Statement base, Description description) {
+                sOperationLog.add("dual rule");
+                return base;
+            }
+
+            @Override
+            public Statement apply(Statement base, FrameworkMethod method, Object target) {
+                sOperationLog.add("dual rule");
+                return base;
+            }
+        }
+
+        static class LoggingMethodRule implements MethodRule {
+            @Override
+            public Statement apply(Statement base, FrameworkMethod method, Object target) {
+                sOperationLog.add("method rule");
+                return base;
+            }
+        }
+    }
 }
@@ -32,7 +32,12 @@ import java.util.stream.Stream;
  * A JUnit runner that is intended to use as replacement of JUnitCore
  * which in addition to printing the test failures to stdout, will
  * write the results in XML format to the path specified in the env
- * variable XML_OUTPUT_FILE.
+ * variable XML_OUTPUT_FILE. Set XML_OUTPUT_STREAMING=true to write each
+ * test case as soon as it finishes, instead of all at the end.
+ *
+ * <p>Test events are also journaled to XML_JOURNAL_FILE, or to
+ * XML_OUTPUT_FILE.journal until the run completes. If the run is killed,
+ * {@link JournalRecovery} rebuilds the XML from the journal.
  *
  * <p>To use this runner:
  *     {@code TEST_WORKSPACE=[...]
@@ -49,7 +54,8 @@ public class JUnitXmlRunner {
             try {
                 return new XmlRunListener(
                         new FileOutputStream(outputFile),
-                        suiteName != null ? suiteName : "Unknown test suite");
+                        suiteName != null ? suiteName : "Unknown test suite",
+                        Boolean.parseBoolean(System.getenv("XML_OUTPUT_STREAMING")));
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
             }
@@ -57,6 +63,25 @@ public class JUnitXmlRunner {
         return null;
     }
 
+    private static ResultJournal getResultJournal() {
+        String journalFile = System.getenv("XML_JOURNAL_FILE");
+        if (journalFile == null || journalFile.length() == 0) {
+            String outputFile = System.getenv("XML_OUTPUT_FILE");
+            if (outputFile == null || outputFile.length() == 0) {
+                return null;
+            }
+            journalFile = outputFile + ".journal";
+        }
+        String suiteName = System.getenv("TEST_WORKSPACE");
+        try {
+            return new ResultJournal(
+                    new File(journalFile), suiteName != null ? suiteName : "Unknown test suite");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     private static AtestRunListener getAtestRunListener(int count) {
         String outputFileStr = System.getenv("EVENT_FILE_ROBOLECTRIC");
         String suiteName = System.getenv("TEST_WORKSPACE");
@@ -90,6 +115,12 @@ public class JUnitXmlRunner {
                 core.addListener(xmlListener);
             }
 
+            // Journal the results so they can be recovered if the run is killed.
+            ResultJournal journal = getResultJournal();
+            if (journal != null) {
+                core.addListener(journal);
+            }
+
             // Add AtestRunListener to communicate with ATest.
             AtestRunListener atestRunListener = getAtestRunListener(calcTestCount(as));
             if (atestRunListener != null) {
@@ -99,6 +130,13 @@ public class JUnitXmlRunner {
             if (xmlListener != null) {
                 xmlListener.endTestSuite();
             }
+            if (journal != null) {
+                journal.close();
+                // The XML is complete, so the journal is only needed when XML_JOURNAL_FILE asks.
+                if (System.getenv("XML_JOURNAL_FILE") == null && xmlListener != null) {
+                    journal.getFile().delete();
+                }
+            }
             System.exit(result.wasSuccessful() ? 0 : 1);
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.junitxml;
+
+import com.android.junitxml.ResultJournal.Events;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rebuilds JUnit XML from a {@link ResultJournal}, including one left behind by a run that was
+ * killed partway through.
+ *
+ * <p>Incomplete trailing records are dropped, and tests that started but never finished are
+ * reported as errors. If the journal holds more than one run, only the last one is recovered.
+ *
+ * <p>To use this tool:
+ *     {@code java -cp junitxml.jar com.android.junitxml.JournalRecovery [journal] [output xml]}
+ */
+public class JournalRecovery {
+
+    private static final String UNKNOWN_SUITE = "Unknown test suite";
+
+    private static final String UNKNOWN_HOST = "localhost";
+
+    /** A failure recorded in the journal, with its original message and trace. */
+    private static class RecordedFailure extends Failure {
+        private static final long serialVersionUID = 1L;
+
+        private final String mMessage;
+        private final String mTrace;
+
+        RecordedFailure(Description description, boolean assertion, String message, String trace) {
+            super(description, assertion ? new AssertionError(message) : new Exception(message));
+            mMessage = message;
+            mTrace = trace;
+        }
+
+        @Override
+        public String getMessage() {
+            return mMessage;
+        }
+
+        @Override
+        public String getTrace() {
+            return mTrace != null ? mTrace : "";
+        }
+    }
+
+    public static void main(String... args) {
+        if (args.length != 2) {
+            System.err.println("Usage: JournalRecovery <journal> <output xml>");
+            System.exit(2);
+        }
+        try (OutputStream out = new FileOutputStream(args[1])) {
+            int tests = recover(new File(args[0]), out);
+            System.out.println(String.format("Recovered %d test events into %s", tests, args[1]));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes JUnit XML for the events in {@code journal} to {@code out}.
+     *
+     * @return the number of complete records that were replayed
+     */
+    public static int recover(File journal, OutputStream out) throws IOException {
+        StreamingXmlWriter writer = null;
+        Set<Description> running = new LinkedHashSet<>();
+        long lastTime = journal.lastModified();
+        int records = 0;
+        // Records before the start of the last run belong to earlier runs.
+        int skipped = findLastRunStart(journal);
+
+        try (BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (skipped > 0) {
+                    skipped--;
+                    continue;
+                }
+                List<String> fields = ResultJournal.parse(line);
+                if (fields == null) {
+                    System.err.println("Skipping incomplete journal record: " + line);
+                    continue;
+                }
+                String event = fields.get(0);
+                long time = Long.parseLong(fields.get(1));
+                String className = fields.get(2);
+                String methodName = fields.get(3);
+                String message = fields.get(4);
+                String trace = fields.get(5);
+                lastTime = time;
+                records++;
+
+                if (writer == null) {
+                    boolean runStarted = Events.RUN_STARTED.equals(event);
+                    writer =
+                            new StreamingXmlWriter(
+                                    out,
+                                    runStarted && className != null ? className : UNKNOWN_SUITE,
+                                    runStarted && message != null ? message : UNKNOWN_HOST,
+                                    time);
+                    if (runStarted) {
+                        continue;
+                    }
+                }
+
+                Description description = null;
+                if (className != null) {
+                    description =
+                            methodName != null
+                                    ? Description.createTestDescription(className, methodName)
+                                    : Description.createSuiteDescription(className);
+                }
+                switch (event) {
+                    case Events.TEST_STARTED:
+                        running.add(description);
+                        writer.testStarted(description, time);
+                        break;
+                    case Events.TEST_FAILED:
+                    case Events.TEST_ERROR:
+                        writer.testFailure(
+                                new RecordedFailure(
+                                        description,
+                                        Events.TEST_FAILED.equals(event),
+                                        message,
+                                        trace),
+                                time);
+                        break;
+                    case Events.TEST_ASSUMPTION_FAILED:
+                        writer.testAssumptionFailure(
+                                new RecordedFailure(description, false, message, null), time);
+                        break;
+                    case Events.TEST_IGNORED:
+                        writer.testIgnored(description, message, time);
+                        break;
+                    case Events.TEST_FINISHED:
+                        running.remove(description);
+                        writer.testFinished(description, time);
+                        break;
+                    default:
+                        // RUN_FINISHED
+                        break;
+                }
+            }
+        }
+
+        if (writer == null) {
+            writer = new StreamingXmlWriter(out, UNKNOWN_SUITE, UNKNOWN_HOST, lastTime);
+        }
+        for (Description description : running) {
+            writer.testFailure(
+                    new RecordedFailure(
+                            description,
+                            false,
+                            "The run ended before this test finished.",
+                            null),
+                    lastTime);
+        }
+        writer.endTestSuite(lastTime);
+        return records;
+    }
+
+    /** Returns the number of lines in {@code journal} before the last run started. */
+    private static int findLastRunStart(File journal) throws IOException {
+        int lastRunStart = 0;
+        try (BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String line;
+            for (int i = 0; (line = reader.readLine()) != null; i++) {
+                List<String> fields = ResultJournal.parse(line);
+                if (fields != null && Events.RUN_STARTED.equals(fields.get(0))) {
+                    lastRunStart = i;
+                }
+            }
+        }
+        return lastRunStart;
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.junitxml;
+
+import org.junit.Ignore;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+import org.junit.runner.notification.RunListener;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link RunListener} that appends one record per test event to a journal file, so that the
+ * results of a run that is killed partway through can be recovered with {@link JournalRecovery}.
+ *
+ * <p>Each record is a single line of tab-separated fields: the event, the time in milliseconds
+ * since the epoch, the class name, the method name, a message and a trace, followed by a
+ * terminating {@code .} field. Tabs, line breaks and backslashes within fields are escaped, and a
+ * null field is written as {@code \0}. Records are flushed to the OS as they are written, so they
+ * survive the process dying; they are synced to disk in batches.
+ *
+ * <p>The journal is cleared when a run starts, so a journal left behind by an earlier run that was
+ * killed isn't merged into the results of the next one.
+ */
+public class ResultJournal extends RunListener {
+
+    /** Journal events. */
+    public static class Events {
+        public static final String RUN_STARTED = "RUN_STARTED";
+        public static final String RUN_FINISHED = "RUN_FINISHED";
+        public static final String TEST_STARTED = "TEST_STARTED";
+        public static final String TEST_FAILED = "TEST_FAILED";
+        public static final String TEST_ERROR = "TEST_ERROR";
+        public static final String TEST_ASSUMPTION_FAILED = "TEST_ASSUMPTION_FAILED";
+        public static final String TEST_IGNORED = "TEST_IGNORED";
+        public static final String TEST_FINISHED = "TEST_FINISHED";
+    }
+
+    static final int FIELD_COUNT = 7;
+
+    static final String TERMINATOR = ".";
+
+    static final String NULL_FIELD = "\\0";
+
+    private static final int SYNC_EVERY_RECORDS = 64;
+
+    private static final long SYNC_INTERVAL_MS = 1000;
+
+    private final File mFile;
+
+    private final String mSuiteName;
+
+    private final FileOutputStream mOutputStream;
+
+    private final Writer mWriter;
+
+    private int mUnsyncedRecords;
+
+    private long mLastSyncTime;
+
+    public ResultJournal(File file, String suiteName) throws IOException {
+        mFile = file;
+        mSuiteName = suiteName;
+        mOutputStream = new FileOutputStream(file, true);
+        mWriter =
+                new BufferedWriter(new OutputStreamWriter(mOutputStream, StandardCharsets.UTF_8));
+        mLastSyncTime = System.currentTimeMillis();
+    }
+
+    /** Returns the journal file. */
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public void testRunStarted(Description description) throws IOException {
+        truncate();
+        // The class name field holds the suite name and the message the host name.
+        record(Events.RUN_STARTED, mSuiteName, null, getHostname(), null);
+    }
+
+    @Override
+    public void testRunFinished(Result result) throws IOException {
+        record(Events.RUN_FINISHED, null, null, null, null);
+        sync();
+    }
+
+    @Override
+    public void testStarted(Description description) throws IOException {
+        record(Events.TEST_STARTED, description, null, null);
+    }
+
+    @Override
+    public void testFailure(Failure failure) throws IOException {
+        record(
+                failure.getException() instanceof AssertionError
+                        ? Events.TEST_FAILED
+                        : Events.TEST_ERROR,
+                failure.getDescription(),
+                failure.getMessage(),
+                failure.getTrace());
+    }
+
+    @Override
+    public void testAssumptionFailure(Failure failure) {
+        try {
+            record(
+                    Events.TEST_ASSUMPTION_FAILED,
+                    failure.getDescription(),
+                    failure.getMessage(),
+                    null);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void testIgnored(Description description) throws IOException {
+        Ignore ignoreAnnotation = description.getAnnotation(Ignore.class);
+        record(
+                Events.TEST_IGNORED,
+                description,
+                ignoreAnnotation != null ? ignoreAnnotation.value() : null,
+                null);
+    }
+
+    @Override
+    public void testFinished(Description description) throws IOException {
+        record(Events.TEST_FINISHED, description, null, null);
+    }
+
+    /** Syncs and closes the journal. */
+    public synchronized void close() throws IOException {
+        sync();
+        mWriter.close();
+    }
+
+    private void record(String event, Description description, String message, String trace)
+            throws IOException {
+        record(event, description.getClassName(), description.getMethodName(), message, trace);
+    }
+
+    private synchronized void record(
+            String event, String className, String methodName, String message, String trace)
+            throws IOException {
+        long now = System.currentTimeMillis();
+        StringBuilder line = new StringBuilder(event).append('\t').append(now);
+        for (String field : new String[] {className, methodName, message, trace}) {
+            line.append('\t').append(escape(field));
+        }
+        line.append('\t').append(TERMINATOR).append('\n');
+        mWriter.write(line.toString());
+        mWriter.flush();
+
+        if (++mUnsyncedRecords >= SYNC_EVERY_RECORDS || now - mLastSyncTime >= SYNC_INTERVAL_MS) {
+            sync();
+        }
+    }
+
+    private synchronized void truncate() throws IOException {
+        mWriter.flush();
+        mOutputStream.getChannel().truncate(0);
+    }
+
+    private synchronized void sync() throws IOException {
+        mWriter.flush();
+        mOutputStream.getFD().sync();
+        mUnsyncedRecords = 0;
+        mLastSyncTime = System.currentTimeMillis();
+    }
+
+    private static String getHostname() {
+        try {
+            InetAddress localHost = InetAddress.getLocalHost();
+            if (localHost != null) {
+                return localHost.getHostName();
+            }
+        } catch (UnknownHostException e) {
+            // fall back to default 'localhost'
+        }
+        return "localhost";
+    }
+
+    static String escape(String field) {
+        if (field == null) {
+            return NULL_FIELD;
+        }
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Splits a journal line into its unescaped fields, or returns null if it isn't a complete
+     * record, e.g. because the process died while writing it.
+     */
+    static List<String> parse(String line) {
+        String[] raw = line.split("\t", -1);
+        if (raw.length != FIELD_COUNT || !TERMINATOR.equals(raw[FIELD_COUNT - 1])) {
+            return null;
+        }
+        List<String> fields = new ArrayList<>(FIELD_COUNT - 1);
+        for (int i = 0; i < FIELD_COUNT - 1; i++) {
+            fields.add(unescape(raw[i]));
+        }
+        return fields;
+    }
+
+    private static String unescape(String field) {
+        if (NULL_FIELD.equals(field)) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c != '\\' || i + 1 == field.length()) {
+                sb.append(c);
+                continue;
+            }
+            char next = field.charAt(++i);
+            switch (next) {
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                default:
+                    sb.append(next);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.junitxml;
+
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes JUnit XML incrementally: each {@code <testcase>} is written and flushed as soon as the
+ * test finishes, and only the tests that are still running are kept in memory.
+ *
+ * <p>The suite counters are only known at the end. When writing to a file, the {@code
+ * <testsuite>} start tag reserves blank space that is overwritten with the counters once the
+ * suite ends. Otherwise, the counters are written in a comment before the closing tag.
+ */
+class StreamingXmlWriter implements XmlConstants {
+
+    private static final double ONE_SECOND = 1000.0;
+
+    private static final String TESTCASE_NAME_UNKNOWN = "unknown";
+
+    // Enough room for the five counters with realistic values.
+    private static final int SUMMARY_PLACEHOLDER_LENGTH = 160;
+
+    /** A test that started but hasn't finished yet. */
+    private static class RunningTest {
+        final long mStartTime;
+        // Failure, error and skipped elements to write into the test case.
+        final List<String> mResults = new ArrayList<>();
+
+        RunningTest(long startTime) {
+            mStartTime = startTime;
+        }
+    }
+
+    private final OutputStream mOutputStream;
+
+    private final Writer mWriter;
+
+    private final Map<Description, RunningTest> mRunningTests = new HashMap<>();
+
+    private final long mStartTime;
+
+    // Position of the counters placeholder in the file, or -1 if it can't be patched.
+    private long mSummaryPosition = -1;
+
+    private int mTests;
+
+    private int mFailures;
+
+    private int mErrors;
+
+    private int mSkipped;
+
+    /**
+     * Writes the start of a suite. All times are in milliseconds since the epoch, so that a suite
+     * can also be written from recorded events.
+     */
+    StreamingXmlWriter(OutputStream out, String suiteName, String hostname, long startTime)
+            throws IOException {
+        mOutputStream = out;
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        mStartTime = startTime;
+        String timestamp =
+                new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss").format(new Date(startTime));
+
+        mWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        mWriter.write("<" + ELEMENT_TESTSUITE);
+        writeAttribute(ATTR_TESTSUITE_NAME, suiteName);
+        writeAttribute(ATTR_TESTSUITE_HOSTNAME, hostname);
+        writeAttribute("timestamp", timestamp);
+        mWriter.flush();
+        if (out instanceof FileOutputStream) {
+            mSummaryPosition = ((FileOutputStream) out).getChannel().position();
+            for (int i = 0; i < SUMMARY_PLACEHOLDER_LENGTH; i++) {
+                mWriter.write(' ');
+            }
+        }
+        mWriter.write(">\n");
+
+        mWriter.write("  <" + ELEMENT_PROPERTIES + ">\n");
+        for (String name : System.getProperties().stringPropertyNames()) {
+            mWriter.write("    <" + ELEMENT_PROPERTY);
+            writeAttribute(ATTR_PROPERTY_NAME, name);
+            writeAttribute(ATTR_PROPERTY_VALUE, System.getProperty(name));
+            mWriter.write(" />\n");
+        }
+        mWriter.write("  </" + ELEMENT_PROPERTIES + ">\n");
+        mWriter.flush();
+    }
+
+    void testStarted(Description description, long time) {
+        mRunningTests.put(description, new RunningTest(time));
+    }
+
+    void testFailure(Failure failure, long time) throws IOException {
+        boolean assertion = failure.getException() instanceof AssertionError;
+        if (assertion) {
+            mFailures++;
+        } else {
+            mErrors++;
+        }
+
+        StringBuilder element = new StringBuilder();
+        element.append("    <").append(assertion ? ELEMENT_FAILURE : ELEMENT_ERROR);
+        String message = failure.getMessage();
+        if (message != null && message.length() > 0) {
+            appendAttribute(element, ATTR_FAILURE_MESSAGE, message);
+        }
+        appendAttribute(element, ATTR_FAILURE_TYPE, failure.getDescription().getClassName());
+        element.append(">");
+        appendEscaped(element, failure.getTrace(), false);
+        element.append("</").append(assertion ? ELEMENT_FAILURE : ELEMENT_ERROR).append(">\n");
+        addResult(failure.getDescription(), element.toString(), time);
+    }
+
+    void testAssumptionFailure(Failure failure, long time) throws IOException {
+        mSkipped++;
+        addResult(failure.getDescription(), skippedElement(failure.getMessage()), time);
+    }
+
+    void testIgnored(Description description, String message, long time) throws IOException {
+        testStarted(description, time);
+        addResult(description, skippedElement(message), time);
+        testFinished(description, time);
+    }
+
+    void testFinished(Description description, long time) throws IOException {
+        RunningTest test = mRunningTests.remove(description);
+        if (test == null) {
+            test = new RunningTest(time);
+        }
+        writeTestCase(description, test, time);
+    }
+
+    void endTestSuite(long time) throws IOException {
+        // Tests that never finished, e.g. because the run was stopped.
+        for (Map.Entry<Description, RunningTest> test : mRunningTests.entrySet()) {
+            writeTestCase(test.getKey(), test.getValue(), time);
+        }
+        mRunningTests.clear();
+
+        StringBuilder summary = new StringBuilder();
+        appendAttribute(summary, ATTR_TESTSUITE_TESTS, "" + mTests);
+        appendAttribute(summary, ATTR_TESTSUITE_FAILURES, "" + mFailures);
+        appendAttribute(summary, ATTR_TESTSUITE_ERRORS, "" + mErrors);
+        appendAttribute(summary, ATTR_TESTSUITE_SKIPPED, "" + mSkipped);
+        appendAttribute(summary, ATTR_TESTSUITE_TIME,
+                "" + ((time - mStartTime) / ONE_SECOND));
+
+        boolean patched = false;
+        if (mSummaryPosition >= 0 && summary.length() <= SUMMARY_PLACEHOLDER_LENGTH) {
+            mWriter.flush();
+            FileChannel channel = ((FileOutputStream) mOutputStream).getChannel();
+            ByteBuffer buffer =
+                    ByteBuffer.wrap(summary.toString().getBytes(StandardCharsets.UTF_8));
+            long position = mSummaryPosition;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            patched = true;
+        }
+        if (!patched) {
+            mWriter.write("  <!-- summary:" + summary + " -->\n");
+        }
+        mWriter.write("</" + ELEMENT_TESTSUITE + ">\n");
+        mWriter.flush();
+        if (mOutputStream != System.out && mOutputStream != System.err) {
+            mWriter.close();
+        }
+    }
+
+    /** Adds a result element to a running test, or writes a test case for it right away. */
+    private void addResult(Description description, String element, long time)
+            throws IOException {
+        RunningTest test = mRunningTests.get(description);
+        if (test != null) {
+            test.mResults.add(element);
+        } else {
+            // e.g. a failure of a whole class, which is never started.
+            test = new RunningTest(time);
+            test.mResults.add(element);
+            writeTestCase(description, test, time);
+        }
+    }
+
+    private void writeTestCase(Description description, RunningTest test, long time)
+            throws IOException {
+        mTests++;
+        mWriter.write("  <" + ELEMENT_TESTCASE);
+        String methodName = description.getMethodName();
+        writeAttribute(ATTR_TESTCASE_NAME, methodName == null ? TESTCASE_NAME_UNKNOWN : methodName);
+        writeAttribute(ATTR_TESTCASE_CLASSNAME, description.getClassName());
+        writeAttribute(ATTR_TESTCASE_TIME,
+                "" + ((time - test.mStartTime) / ONE_SECOND));
+        if (test.mResults.isEmpty()) {
+            mWriter.write(" />\n");
+        } else {
+            mWriter.write(">\n");
+            for (String result : test.mResults) {
+                mWriter.write(result);
+            }
+            mWriter.write("  </" + ELEMENT_TESTCASE + ">\n");
+        }
+        // Make every finished test visible on disk, in case the process dies.
+        mWriter.flush();
+    }
+
+    private String skippedElement(String message) {
+        StringBuilder element = new StringBuilder("    <" + ELEMENT_SKIPPED);
+        if (message != null) {
+            appendAttribute(element, ATTR_SKIPPED_MESSAGE, message);
+        }
+        return element.append(" />\n").toString();
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        StringBuilder attribute = new StringBuilder();
+        appendAttribute(attribute, name, value);
+        mWriter.write(attribute.toString());
+    }
+
+    private static void appendAttribute(StringBuilder sb, String name, String value) {
+        sb.append(' ').append(name).append("=\"");
+        appendEscaped(sb, value, true);
+        sb.append('"');
+    }
+
+    /** Appends {@code text} escaped for XML, dropping characters that XML doesn't allow. */
+    static void appendEscaped(StringBuilder sb, String text, boolean attribute) {
+        if (text == null) {
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append(attribute ? "&quot;" : "\"");
+                    break;
+                case '\n':
+                case '\r':
+                case '\t':
+                    if (attribute) {
+                        sb.append("&#").append((int) c).append(';');
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+                default:
+                    if (c >= 0x20 && c != 0xFFFE && c != 0xFFFF) {
+                        sb.append(c);
+                    }
+            }
+        }
+    }
+}
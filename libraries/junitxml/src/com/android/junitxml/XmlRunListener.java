@@ -78,6 +78,9 @@ public class XmlRunListener extends RunListener implements XmlConstants {
 
     private long mStartTime;
 
+    // Set in streaming mode, in which case no document is built.
+    private StreamingXmlWriter mStreamingWriter;
+
     private static DocumentBuilder getDocumentBuilder() {
         try {
             return DocumentBuilderFactory.newInstance().newDocumentBuilder();
@@ -87,6 +90,23 @@ public class XmlRunListener extends RunListener implements XmlConstants {
     }
 
     public XmlRunListener(OutputStream out, String suiteName) {
+        this(out, suiteName, false);
+    }
+
+    /**
+     * @param streaming whether to write each test case as soon as it finishes instead of building
+     *     the whole document in memory
+     */
+    public XmlRunListener(OutputStream out, String suiteName, boolean streaming) {
+        if (streaming) {
+            try {
+                mStreamingWriter = new StreamingXmlWriter(
+                        out, suiteName, getHostname(), System.currentTimeMillis());
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to write log file", e);
+            }
+            return;
+        }
         mDocument = getDocumentBuilder().newDocument();
         mRootElement = mDocument.createElement(ELEMENT_TESTSUITE);
         mOutputStream = out;
@@ -130,6 +150,10 @@ public class XmlRunListener extends RunListener implements XmlConstants {
     }
 
     public void endTestSuite() throws IOException {
+        if (mStreamingWriter != null) {
+            mStreamingWriter.endTestSuite(System.currentTimeMillis());
+            return;
+        }
         mRootElement.setAttribute(ATTR_TESTSUITE_TESTS, "" + mTestStarts.size());
         mRootElement.setAttribute(ATTR_TESTSUITE_FAILURES, "" + mFailedTests.size());
         mRootElement.setAttribute(ATTR_TESTSUITE_ERRORS, "" + mErrorTests.size());
@@ -171,6 +195,10 @@ public class XmlRunListener extends RunListener implements XmlConstants {
     @SuppressWarnings("ThrowableResultOfMethodCallIgnored")
     @Override
     public void testFailure(Failure failure) throws Exception {
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testFailure(failure, System.currentTimeMillis());
+            return;
+        }
         Description description = failure.getDescription();
         testFinished(description);
 
@@ -209,6 +237,10 @@ public class XmlRunListener extends RunListener implements XmlConstants {
 
     @Override
     public void testFinished(Description description) throws Exception {
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testFinished(description, System.currentTimeMillis());
+            return;
+        }
         if (!mTestStarts.containsKey(description)) {
             testStarted(description);
         }
@@ -239,18 +271,37 @@ public class XmlRunListener extends RunListener implements XmlConstants {
 
     @Override
     public void testStarted(Description description) throws Exception {
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testStarted(description, System.currentTimeMillis());
+            return;
+        }
         mTestStarts.put(description, System.currentTimeMillis());
     }
 
     @Override
     public void testIgnored(Description description) throws Exception {
         Ignore ignoreAnnotation = description.getAnnotation(Ignore.class);
+        if (mStreamingWriter != null) {
+            mStreamingWriter.testIgnored(
+                    description,
+                    ignoreAnnotation != null ? ignoreAnnotation.value() : null,
+                    System.currentTimeMillis());
+            return;
+        }
         formatSkip(description, ignoreAnnotation != null ? ignoreAnnotation.value() : null);
         mIgnoredTests.add(description);
     }
 
     @Override
     public void testAssumptionFailure(Failure failure) {
+        if (mStreamingWriter != null) {
+            try {
+                mStreamingWriter.testAssumptionFailure(failure, System.currentTimeMillis());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
         try {
             formatSkip(failure.getDescription(), failure.getMessage());
         } catch (Exception e) {
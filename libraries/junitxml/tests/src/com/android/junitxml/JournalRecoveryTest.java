@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.junitxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.android.junitxml.ResultJournal.Events;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/** Unit tests for {@link JournalRecovery} and {@link ResultJournal}. */
+@RunWith(JUnit4.class)
+public class JournalRecoveryTest {
+
+    private File mJournal;
+
+    @Before
+    public void setUp() throws IOException {
+        mJournal = File.createTempFile("results", ".journal");
+    }
+
+    @After
+    public void tearDown() {
+        mJournal.delete();
+    }
+
+    /** Test that only the last run of a journal holding two runs is recovered. */
+    @Test
+    public void testRecover_twoRuns() throws IOException {
+        try (Writer writer = openJournal()) {
+            // A run that was killed while testOld was running.
+            writeRecord(writer, Events.RUN_STARTED, 1000, "OldSuite", null, "host");
+            writeRecord(writer, Events.TEST_STARTED, 1001, "com.foo.OldTest", "testOld", null);
+            // The next run.
+            writeRecord(writer, Events.RUN_STARTED, 2000, "NewSuite", null, "host");
+            writeRecord(writer, Events.TEST_STARTED, 2001, "com.foo.NewTest", "testNew", null);
+            writeRecord(writer, Events.TEST_FINISHED, 2002, "com.foo.NewTest", "testNew", null);
+            writeRecord(writer, Events.RUN_FINISHED, 2003, null, null, null);
+        }
+
+        String xml = recover();
+        assertTrue(xml, xml.contains("name=\"NewSuite\""));
+        assertTrue(xml, xml.contains("name=\"testNew\""));
+        assertFalse(xml, xml.contains("OldSuite"));
+        assertFalse(xml, xml.contains("testOld"));
+        assertTrue(xml, xml.contains("tests=\"1\""));
+        assertTrue(xml, xml.contains("errors=\"0\""));
+    }
+
+    /** Test that a journal left behind by an earlier run is cleared when a new run starts. */
+    @Test
+    public void testJournal_clearedOnRunStart() throws Exception {
+        try (Writer writer = openJournal()) {
+            writeRecord(writer, Events.RUN_STARTED, 1000, "OldSuite", null, "host");
+            writeRecord(writer, Events.TEST_STARTED, 1001, "com.foo.OldTest", "testOld", null);
+        }
+
+        ResultJournal journal = new ResultJournal(mJournal, "NewSuite");
+        Description test = Description.createTestDescription("com.foo.NewTest", "testNew");
+        journal.testRunStarted(Description.createSuiteDescription("NewSuite"));
+        journal.testStarted(test);
+        journal.testFinished(test);
+        journal.testRunFinished(new Result());
+        journal.close();
+
+        assertEquals(4, JournalRecovery.recover(mJournal, new ByteArrayOutputStream()));
+        String xml = recover();
+        assertFalse(xml, xml.contains("testOld"));
+        assertTrue(xml, xml.contains("name=\"testNew\""));
+        assertTrue(xml, xml.contains("errors=\"0\""));
+    }
+
+    private Writer openJournal() throws IOException {
+        return new OutputStreamWriter(
+                new FileOutputStream(mJournal), StandardCharsets.UTF_8);
+    }
+
+    private static void writeRecord(
+            Writer writer,
+            String event,
+            long time,
+            String className,
+            String methodName,
+            String message)
+            throws IOException {
+        StringBuilder line = new StringBuilder(event).append('\t').append(time);
+        for (String field : new String[] {className, methodName, message, null}) {
+            line.append('\t').append(ResultJournal.escape(field));
+        }
+        line.append('\t').append(ResultJournal.TERMINATOR).append('\n');
+        writer.write(line.toString());
+    }
+
+    private String recover() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        JournalRecovery.recover(mJournal, out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
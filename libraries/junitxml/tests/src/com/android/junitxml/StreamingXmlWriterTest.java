@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.junitxml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.junit.runner.notification.Failure;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+/** Unit tests for {@link StreamingXmlWriter}. */
+@RunWith(JUnit4.class)
+public class StreamingXmlWriterTest {
+
+    private static final Description TEST_PASS =
+            Description.createTestDescription("com.foo.FooTest", "testPass");
+    private static final Description TEST_FAIL =
+            Description.createTestDescription("com.foo.FooTest", "testFail");
+    private static final Description TEST_ERROR =
+            Description.createTestDescription("com.foo.FooTest", "testError");
+    private static final Description TEST_SKIP =
+            Description.createTestDescription("com.foo.FooTest", "testSkip");
+    private static final Description TEST_IGNORED =
+            Description.createTestDescription("com.foo.FooTest", "testIgnored");
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("results", ".xml");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    /** Test that the counters are patched into the start tag of a file once the suite ends. */
+    @Test
+    public void testEndTestSuite_patchesStartTag() throws Exception {
+        StreamingXmlWriter writer =
+                new StreamingXmlWriter(new FileOutputStream(mFile), "FooSuite", "host", 1000);
+        runTests(writer);
+        // Each test case is on disk as soon as it finishes, before the suite ends.
+        String partial = readFile();
+        assertTrue(partial, partial.contains("name=\"testIgnored\""));
+        assertFalse(partial, partial.contains("</testsuite>"));
+
+        writer.endTestSuite(3500);
+
+        String xml = readFile();
+        Element suite = parse(xml);
+        assertEquals("FooSuite", suite.getAttribute("name"));
+        assertEquals("5", suite.getAttribute("tests"));
+        assertEquals("1", suite.getAttribute("failures"));
+        assertEquals("1", suite.getAttribute("errors"));
+        // Like XmlRunListener, only assumption failures count as skipped, not ignored tests.
+        assertEquals("1", suite.getAttribute("skipped"));
+        assertEquals("2.5", suite.getAttribute("time"));
+        assertEquals(5, suite.getElementsByTagName("testcase").getLength());
+        assertFalse(xml, xml.contains("<!-- summary:"));
+    }
+
+    /** Test that the counters go into a comment when the output can't be patched. */
+    @Test
+    public void testEndTestSuite_streamWritesSummaryComment() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingXmlWriter writer = new StreamingXmlWriter(out, "FooSuite", "host", 1000);
+        runTests(writer);
+        writer.endTestSuite(3500);
+
+        String xml = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        Element suite = parse(xml);
+        assertEquals("", suite.getAttribute("tests"));
+        assertEquals(5, suite.getElementsByTagName("testcase").getLength());
+        assertTrue(
+                xml,
+                xml.contains(
+                        "<!-- summary: tests=\"5\" failures=\"1\" errors=\"1\" skipped=\"1\""));
+        assertTrue(xml, xml.endsWith("</testsuite>\n"));
+    }
+
+    /** Test that tests still running when the run is aborted are written with the trailer. */
+    @Test
+    public void testEndTestSuite_abortedRun() throws Exception {
+        StreamingXmlWriter writer =
+                new StreamingXmlWriter(new FileOutputStream(mFile), "FooSuite", "host", 1000);
+        writer.testStarted(TEST_PASS, 1000);
+        writer.testFinished(TEST_PASS, 1100);
+        // The run is stopped while testFail is running and has already failed.
+        writer.testStarted(TEST_FAIL, 1200);
+        writer.testFailure(new Failure(TEST_FAIL, new AssertionError("boom")), 1300);
+        writer.endTestSuite(2000);
+
+        Element suite = parse(readFile());
+        assertEquals("2", suite.getAttribute("tests"));
+        assertEquals("1", suite.getAttribute("failures"));
+        NodeList testCases = suite.getElementsByTagName("testcase");
+        assertEquals(2, testCases.getLength());
+        Element aborted = (Element) testCases.item(1);
+        assertEquals("testFail", aborted.getAttribute("name"));
+        assertEquals("0.8", aborted.getAttribute("time"));
+        assertEquals(1, aborted.getElementsByTagName("failure").getLength());
+    }
+
+    private static void runTests(StreamingXmlWriter writer) throws IOException {
+        writer.testStarted(TEST_PASS, 1000);
+        writer.testFinished(TEST_PASS, 1100);
+        writer.testStarted(TEST_FAIL, 1100);
+        writer.testFailure(new Failure(TEST_FAIL, new AssertionError("expected <1>")), 1200);
+        writer.testFinished(TEST_FAIL, 1200);
+        writer.testStarted(TEST_ERROR, 1200);
+        writer.testFailure(new Failure(TEST_ERROR, new IllegalStateException("oops")), 1300);
+        writer.testFinished(TEST_ERROR, 1300);
+        writer.testStarted(TEST_SKIP, 1300);
+        writer.testAssumptionFailure(
+                new Failure(TEST_SKIP, new IllegalArgumentException("no device")), 1300);
+        writer.testFinished(TEST_SKIP, 1300);
+        writer.testIgnored(TEST_IGNORED, "not today", 1300);
+    }
+
+    private String readFile() throws IOException {
+        return new String(Files.readAllBytes(mFile.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /** Parses {@code xml}, failing if it isn't well-formed, and returns the root element. */
+    private static Element parse(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)))
+                .getDocumentElement();
+    }
+}
@@ -54,21 +54,33 @@ public class AllAppsScreenHelper {
     }
 
     public void launchAllAppsScreen() {
-        mDevice.pressHome();
-        mLauncherStrategy.openAllApps(false);
-        mDevice.wait(Until.hasObject(By.res(getLauncherPackage(), allApps)), TIMEOUT);
+        HierarchySnapshot snapshot = HierarchySnapshot.begin(mDevice);
+        try {
+            mDevice.pressHome();
+            snapshot.invalidate();
+            mLauncherStrategy.openAllApps(false);
+            snapshot.wait(By.res(getLauncherPackage(), allApps), TIMEOUT);
+        } finally {
+            snapshot.end();
+        }
     }
 
     public void searchAllAppsScreen(String searchString,
         String[] appNamesExpected) throws Exception {
-        launchAllAppsScreen();
-        UiObject2 searchBoxObject = mDevice.wait(Until.findObject
-                (By.res(getLauncherPackage(), searchBox)), TIMEOUT);
-        searchBoxObject.setText(searchString);
-        for (String appName : appNamesExpected) {
-            Assert.assertNotNull("The following app couldn't be found in the search results: "
-                    + appName, mDevice.wait(Until.findObject
-                    (By.text(appName)), TIMEOUT));
+        HierarchySnapshot snapshot = HierarchySnapshot.begin(mDevice);
+        try {
+            launchAllAppsScreen();
+            UiObject2 searchBoxObject =
+                    snapshot.wait(By.res(getLauncherPackage(), searchBox), TIMEOUT);
+            searchBoxObject.setText(searchString);
+            snapshot.invalidate();
+            for (String appName : appNamesExpected) {
+                Assert.assertNotNull("The following app couldn't be found in the search results: "
+                        + appName, mDevice.wait(Until.findObject
+                        (By.text(appName)), TIMEOUT));
+            }
+        } finally {
+            snapshot.end();
         }
     }
 }
@@ -46,29 +46,35 @@ public abstract class BaseLauncher3Strategy implements ILauncherStrategy {
      */
     @Override
     public void open() {
-        // if we see hotseat, assume at home screen already
-        if (!mDevice.hasObject(getHotSeatSelector())) {
-            mDevice.pressHome();
-            // ensure launcher is shown
-            if (!mDevice.wait(Until.hasObject(getHotSeatSelector()), 5000)) {
-                // HACK: dump hierarchy to logcat
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                try {
-                    mDevice.dumpWindowHierarchy(baos);
-                    baos.flush();
-                    baos.close();
-                    String[] lines = baos.toString().split("\\r?\\n");
-                    for (String line : lines) {
-                        Log.d(LOG_TAG, line.trim());
+        HierarchySnapshot snapshot = HierarchySnapshot.begin(mDevice);
+        try {
+            // if we see hotseat, assume at home screen already
+            if (!snapshot.hasObject(getHotSeatSelector())) {
+                mDevice.pressHome();
+                snapshot.invalidate();
+                // ensure launcher is shown
+                if (snapshot.wait(getHotSeatSelector(), 5000) == null) {
+                    // HACK: dump hierarchy to logcat
+                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    try {
+                        mDevice.dumpWindowHierarchy(baos);
+                        baos.flush();
+                        baos.close();
+                        String[] lines = baos.toString().split("\\r?\\n");
+                        for (String line : lines) {
+                            Log.d(LOG_TAG, line.trim());
+                        }
+                    } catch (IOException ioe) {
+                        Log.e(LOG_TAG, "error dumping XML to logcat", ioe);
                     }
-                } catch (IOException ioe) {
-                    Log.e(LOG_TAG, "error dumping XML to logcat", ioe);
+                    Assert.fail("Failed to open launcher");
                 }
-                Assert.fail("Failed to open launcher");
+                mDevice.waitForIdle();
             }
-            mDevice.waitForIdle();
+            dismissHomeScreenCling();
+        } finally {
+            snapshot.end();
         }
-        dismissHomeScreenCling();
     }
 
     /**
@@ -83,25 +89,35 @@ public abstract class BaseLauncher3Strategy implements ILauncherStrategy {
      */
     @Override
     public UiObject2 openAllApps(boolean reset) {
-        // if we see all apps container, skip the opening step
-        if (!mDevice.hasObject(getAllAppsSelector())) {
-            open();
-            // taps on the "apps" button at the bottom of the screen
-            UiObject2 allAppsButton =
-                    mDevice.wait(Until.findObject(getAllAppsButtonSelector()), 2000);
-            Assert.assertNotNull("openAllApps: did not find open all apps button.", allAppsButton);
-            allAppsButton.click();
-            // wait until hotseat disappears, so that we know that we are no longer on home screen
-            mDevice.wait(Until.gone(getHotSeatSelector()), 2000);
-            mDevice.waitForIdle();
-        }
-        UiObject2 allAppsContainer = mDevice.wait(Until.findObject(getAllAppsSelector()), 2000);
-        Assert.assertNotNull("openAllApps: did not find all apps container", allAppsContainer);
-        if (reset) {
-            CommonLauncherHelper.getInstance(mDevice).scrollBackToBeginning(
-                    allAppsContainer, Direction.reverse(getAllAppsScrollDirection()));
+        HierarchySnapshot snapshot = HierarchySnapshot.begin(mDevice);
+        try {
+            // if we see all apps container, skip the opening step
+            if (!snapshot.hasObject(getAllAppsSelector())) {
+                open();
+                // open() may have dismissed a cling without invalidating
+                snapshot.invalidate();
+                // taps on the "apps" button at the bottom of the screen
+                UiObject2 allAppsButton = snapshot.wait(getAllAppsButtonSelector(), 2000);
+                Assert.assertNotNull("openAllApps: did not find open all apps button.",
+                        allAppsButton);
+                allAppsButton.click();
+                snapshot.invalidate();
+                // wait until hotseat disappears, so that we know that we are no longer on home
+                // screen
+                mDevice.wait(Until.gone(getHotSeatSelector()), 2000);
+                mDevice.waitForIdle();
+            }
+            UiObject2 allAppsContainer = snapshot.wait(getAllAppsSelector(), 2000);
+            Assert.assertNotNull("openAllApps: did not find all apps container", allAppsContainer);
+            if (reset) {
+                CommonLauncherHelper.getInstance(mDevice).scrollBackToBeginning(
+                        allAppsContainer, Direction.reverse(getAllAppsScrollDirection()));
+                snapshot.invalidate();
+            }
+            return allAppsContainer;
+        } finally {
+            snapshot.end();
         }
-        return allAppsContainer;
     }
 
     /**
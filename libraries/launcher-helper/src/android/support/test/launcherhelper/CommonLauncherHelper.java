@@ -92,9 +92,10 @@ public class CommonLauncherHelper {
      * @param app
      * @param container
      * @param dir
+     * @return whether the container was scrolled
      */
-    private void ensureIconVisible(BySelector app, UiObject2 container, Direction dir) {
-        UiObject2 appIcon = mDevice.findObject(app);
+    private boolean ensureIconVisible(BySelector app, UiObject2 container, Direction dir) {
+        UiObject2 appIcon = HierarchySnapshot.getInstance(mDevice).findObject(app);
         if (appIcon == null) {
             throw new RuntimeException("App icon was not visible.");
         }
@@ -118,7 +119,9 @@ public class CommonLauncherHelper {
                 pct = 0.2f;
             }
             container.scroll(dir, pct);
+            return true;
         }
+        return false;
     }
 
     /**
@@ -152,35 +155,49 @@ public class CommonLauncherHelper {
             return 0;
         }
 
-        // Go to the home page
-        launcherStrategy.open();
-        // attempt to find the app icon if it's not already on the screen
-        if (!mDevice.hasObject(app)) {
-            UiObject2 container = launcherStrategy.openAllApps(false);
-            Direction dir = launcherStrategy.getAllAppsScrollDirection();
-
-            if (!mDevice.hasObject(app)) {
-                scrollBackToBeginning(container, Direction.reverse(dir));
-                int attempts = 0;
-                while (!mDevice.hasObject(app) && container.scroll(dir, 0.8f)) {
-                    attempts++;
-                    if (attempts > maxScrollAttempts) {
-                        throw new RuntimeException(
-                                "launchApp: exceeded max attempts to locate app icon: "
-                                        + maxScrollAttempts);
+        HierarchySnapshot snapshot = HierarchySnapshot.begin(mDevice);
+        try {
+            // Go to the home page
+            launcherStrategy.open();
+            // strategies may have injected input without invalidating the snapshot
+            snapshot.invalidate();
+            // attempt to find the app icon if it's not already on the screen
+            if (!snapshot.hasObject(app)) {
+                UiObject2 container = launcherStrategy.openAllApps(false);
+                snapshot.invalidate();
+                Direction dir = launcherStrategy.getAllAppsScrollDirection();
+
+                if (!snapshot.hasObject(app)) {
+                    scrollBackToBeginning(container, Direction.reverse(dir));
+                    snapshot.invalidate();
+                    int attempts = 0;
+                    while (!snapshot.hasObject(app) && container.scroll(dir, 0.8f)) {
+                        snapshot.invalidate();
+                        attempts++;
+                        if (attempts > maxScrollAttempts) {
+                            throw new RuntimeException(
+                                    "launchApp: exceeded max attempts to locate app icon: "
+                                            + maxScrollAttempts);
+                        }
                     }
                 }
+                // HACK-ish: ensure icon has enough parts revealed for it to be clicked on
+                if (ensureIconVisible(app, container, dir)) {
+                    snapshot.invalidate();
+                }
             }
-            // HACK-ish: ensure icon has enough parts revealed for it to be clicked on
-            ensureIconVisible(app, container, dir);
-        }
 
-        long ready = SystemClock.uptimeMillis();
-        if (!mDevice.findObject(app).clickAndWait(Until.newWindow(), APP_LAUNCH_TIMEOUT)) {
-            Log.w(LOG_TAG, "no new window detected after app launch attempt.");
-            return ILauncherStrategy.LAUNCH_FAILED_TIMESTAMP;
+            long ready = SystemClock.uptimeMillis();
+            UiObject2 appIcon = snapshot.findObject(app);
+            snapshot.invalidate();
+            if (!appIcon.clickAndWait(Until.newWindow(), APP_LAUNCH_TIMEOUT)) {
+                Log.w(LOG_TAG, "no new window detected after app launch attempt.");
+                return ILauncherStrategy.LAUNCH_FAILED_TIMESTAMP;
+            }
+            return verifyAppStart(packageName, ready);
+        } finally {
+            snapshot.end();
         }
-        return verifyAppStart(packageName, ready);
     }
 
     /**
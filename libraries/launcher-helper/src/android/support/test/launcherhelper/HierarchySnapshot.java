@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.launcherhelper;
+
+import android.os.SystemClock;
+import android.support.test.uiautomator.BySelector;
+import android.support.test.uiautomator.UiDevice;
+import android.support.test.uiautomator.UiObject2;
+import android.support.test.uiautomator.Until;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A short-lived cache of selector lookups in the UI hierarchy, shared by the launcher strategies
+ * within one public helper call.
+ *
+ * <p>Each lookup otherwise queries the whole accessibility hierarchy through UiAutomation. Results,
+ * including misses, are reused until {@link #invalidate()} is called, which callers must do after
+ * every input event (press, click, scroll, text entry) or call into code that may inject one, or
+ * until they are older than half a second. Waiting for an object that wasn't found always queries
+ * the device.
+ *
+ * <p>Public helper methods call {@link #begin} on entry and {@link #end()} on exit. Calls may nest,
+ * e.g. openAllApps() calling open(), and share the snapshot: only the outermost call starts
+ * without results, since the test may have injected input since the previous one, and discards
+ * them when it returns. The outermost call also logs how many lookups it saved.
+ */
+public class HierarchySnapshot {
+
+    private static final String LOG_TAG = HierarchySnapshot.class.getSimpleName();
+    private static final long MAX_AGE_MS = 500;
+    private static HierarchySnapshot sInstance;
+
+    private final UiDevice mDevice;
+    // Lookup results by selector description, with null values for objects that weren't found
+    private final Map<String, UiObject2> mResults = new HashMap<>();
+    private long mTakenAtMs;
+    private int mHits;
+    private int mMisses;
+    // Number of nested helper calls in progress, and the counts when the outermost one began
+    private int mDepth;
+    private int mCallStartHits;
+    private int mCallStartMisses;
+
+    private HierarchySnapshot(UiDevice uiDevice) {
+        mDevice = uiDevice;
+    }
+
+    /**
+     * Retrieves the singleton instance of {@link HierarchySnapshot}
+     * @param uiDevice
+     * @return
+     */
+    public static HierarchySnapshot getInstance(UiDevice uiDevice) {
+        if (sInstance == null) {
+            sInstance = new HierarchySnapshot(uiDevice);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Retrieves the singleton instance of {@link HierarchySnapshot} at the start of a public
+     * helper method, which must call {@link #end()} when it returns. The results of earlier calls
+     * are discarded, unless this call is nested in another one.
+     * @param uiDevice
+     * @return
+     */
+    public static HierarchySnapshot begin(UiDevice uiDevice) {
+        HierarchySnapshot snapshot = getInstance(uiDevice);
+        synchronized (snapshot) {
+            if (snapshot.mDepth++ == 0) {
+                snapshot.invalidate();
+                snapshot.mCallStartHits = snapshot.mHits;
+                snapshot.mCallStartMisses = snapshot.mMisses;
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Ends a public helper method started with {@link #begin}. If it is the outermost call, the
+     * results are discarded and the lookups of the call are logged.
+     */
+    public synchronized void end() {
+        if (mDepth == 0) {
+            throw new IllegalStateException("end() called without begin()");
+        }
+        if (--mDepth == 0) {
+            invalidate();
+            Log.d(LOG_TAG, String.format("Lookups: %d from snapshot, %d from device (total %d/%d)",
+                    mHits - mCallStartHits, mMisses - mCallStartMisses, mHits, mMisses));
+        }
+    }
+
+    /**
+     * Finds an object, reusing the result of an earlier lookup of the same selector
+     * @param selector
+     * @return the object, or null if it isn't on the screen
+     */
+    public synchronized UiObject2 findObject(BySelector selector) {
+        String key = getKey(selector);
+        if (mResults.containsKey(key)) {
+            mHits++;
+            return mResults.get(key);
+        }
+        mMisses++;
+        UiObject2 object = mDevice.findObject(selector);
+        mResults.put(key, object);
+        return object;
+    }
+
+    /**
+     * Checks whether an object is on the screen, reusing the result of an earlier lookup of the
+     * same selector
+     * @param selector
+     * @return
+     */
+    public boolean hasObject(BySelector selector) {
+        return findObject(selector) != null;
+    }
+
+    /**
+     * Waits for an object, returning the result of an earlier lookup right away if it was found
+     * @param selector
+     * @param timeout in milliseconds
+     * @return the object, or null if it didn't appear in time
+     */
+    public UiObject2 wait(BySelector selector, long timeout) {
+        String key;
+        synchronized (this) {
+            key = getKey(selector);
+            UiObject2 object = mResults.get(key);
+            if (object != null) {
+                mHits++;
+                return object;
+            }
+            mMisses++;
+        }
+        UiObject2 object = mDevice.wait(Until.findObject(selector), timeout);
+        synchronized (this) {
+            // The hierarchy may have changed while waiting, so older results are discarded.
+            mResults.clear();
+            mTakenAtMs = SystemClock.uptimeMillis();
+            mResults.put(key, object);
+        }
+        return object;
+    }
+
+    /** Discards all results, e.g. after an input event. */
+    public synchronized void invalidate() {
+        mResults.clear();
+    }
+
+    /** @return number of lookups served from the snapshot */
+    public synchronized int getHitCount() {
+        return mHits;
+    }
+
+    /** @return number of lookups that queried the device */
+    public synchronized int getMissCount() {
+        return mMisses;
+    }
+
+    // Expire the results if they are too old, and return the key of the selector.
+    private String getKey(BySelector selector) {
+        long now = SystemClock.uptimeMillis();
+        if (mResults.isEmpty() || now - mTakenAtMs > MAX_AGE_MS) {
+            mResults.clear();
+            mTakenAtMs = now;
+        }
+        return selector.toString();
+    }
+}
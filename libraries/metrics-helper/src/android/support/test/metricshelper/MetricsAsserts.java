@@ -29,6 +29,9 @@ import java.util.Queue;
 
 /**
  * Useful test utilities for metrics tests.
+ *
+ * <p>Each assertion on a {@link MetricsReader} scans the whole log. Tests making many assertions
+ * can use a {@link MetricsIndex} instead.
  */
 public class MetricsAsserts {
 
@@ -39,6 +42,15 @@ public class MetricsAsserts {
         reader.read(0);
         assertHasActionLog(message, new ReaderQueue(reader), view);
     }
+    /**
+     * Assert unless there is a log with the matching category and with ACTION type.
+     */
+    public static void assertHasActionLog(String message, MetricsIndex index, int view) {
+        assertHasLog(message, index,
+                new LogMaker(view)
+                        .setType(MetricsEvent.TYPE_ACTION));
+    }
+
     /**
      * Assert unless there is a log with the matching category and with ACTION type.
      */
@@ -58,6 +70,16 @@ public class MetricsAsserts {
         assertHasVisibilityLog(message, new ReaderQueue(reader), view, visible);
     }
 
+    /**
+     * Assert unless there is a log with the matching category and with visibility type.
+     */
+    public static void assertHasVisibilityLog(String message, MetricsIndex index,
+            int view, boolean visible) {
+        assertHasLog(message, index,
+                new LogMaker(view)
+                        .setType(visible ? MetricsEvent.TYPE_OPEN : MetricsEvent.TYPE_CLOSE));
+    }
+
     /**
      * Assert unless there is a log with the matching category and with visibility type.
      */
@@ -77,6 +99,13 @@ public class MetricsAsserts {
         return findMatchingLogs(new ReaderQueue(reader), template);
     }
 
+    /**
+     * @returns logs that have at least all the matching fields in the template.
+     */
+    public static Queue<LogMaker> findMatchingLogs(MetricsIndex index, LogMaker template) {
+        return index.findMatchingLogs(template);
+    }
+
     /**
      * @returns logs that have at least all the matching fields in the template.
      */
@@ -102,6 +131,13 @@ public class MetricsAsserts {
         assertHasLog(message, new ReaderQueue(reader), expected);
     }
 
+    /**
+     * Assert unless there is at least one  log that matches the template.
+     */
+    public static void assertHasLog(String message, MetricsIndex index, LogMaker expected) {
+        assertTrue(message, index.hasMatchingLog(expected));
+    }
+
     /**
      * Assert unless there is at least one  log that matches the template.
      */
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.test.metricshelper;
+
+import android.metrics.LogMaker;
+import android.metrics.MetricsReader;
+
+import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Index of the logs of a {@link MetricsReader} by category, type and subtype, so that many
+ * assertions against a long log don't each scan the whole log.
+ *
+ * <p>Each query first indexes the logs written since the previous one, reading from the timestamp
+ * of the last log indexed rather than from the start of the event log. Use {@link #checkpoint()}
+ * instead of checkpointing the reader directly.
+ */
+public class MetricsIndex {
+
+    private final MetricsReader mReader;
+    // All indexed logs, in the order they were written
+    private final List<LogMaker> mLogs = new ArrayList<>();
+    // Logs by [category], [category, type] and [category, type, subtype]
+    private final Map<List<Integer>, List<LogMaker>> mIndex = new HashMap<>();
+    // Timestamp of the last log indexed, from which the next refresh reads
+    private long mLastTimestamp = 0;
+    // Pid and uid of the logs indexed at mLastTimestamp, which are read again by the next refresh
+    private final List<List<Integer>> mLastProcesses = new ArrayList<>();
+
+    public MetricsIndex(MetricsReader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Ignore the logs written so far.
+     */
+    public void checkpoint() {
+        mReader.checkpoint();
+        mLogs.clear();
+        mIndex.clear();
+        // The reader now skips the logs up to the checkpoint, including those at mLastTimestamp.
+        mLastProcesses.clear();
+    }
+
+    /**
+     * Index the logs written since the last refresh.
+     */
+    public void refresh() {
+        long horizon = mLastTimestamp;
+        mReader.read(horizon);
+        // Logs from before the horizon may still be returned, and those at the horizon that are
+        // already indexed are read again.
+        List<List<Integer>> seen = new ArrayList<>(mLastProcesses);
+        while (mReader.hasNext()) {
+            LogMaker log = mReader.next();
+            long timestamp = log.getTimestamp();
+            if (timestamp < horizon || (timestamp == horizon && seen.remove(getProcess(log)))) {
+                continue;
+            }
+            add(log);
+        }
+    }
+
+    private static List<Integer> getProcess(LogMaker log) {
+        return Arrays.asList(log.getProcessId(), log.getUid());
+    }
+
+    private void add(LogMaker log) {
+        mLogs.add(log);
+        if (log.getTimestamp() != mLastTimestamp) {
+            mLastTimestamp = log.getTimestamp();
+            mLastProcesses.clear();
+        }
+        mLastProcesses.add(getProcess(log));
+        int category = log.getCategory();
+        int type = log.getType();
+        addToIndex(Arrays.asList(category), log);
+        addToIndex(Arrays.asList(category, type), log);
+        addToIndex(Arrays.asList(category, type, log.getSubtype()), log);
+    }
+
+    private void addToIndex(List<Integer> key, LogMaker log) {
+        List<LogMaker> logs = mIndex.get(key);
+        if (logs == null) {
+            logs = new ArrayList<>();
+            mIndex.put(key, logs);
+        }
+        logs.add(log);
+    }
+
+    /**
+     * @returns logs that have at least all the matching fields in the template, most recent first
+     *     like {@link MetricsAsserts#findMatchingLogs}.
+     */
+    public Queue<LogMaker> findMatchingLogs(LogMaker template) {
+        LinkedList<LogMaker> logs = new LinkedList<>();
+        if (template == null) {
+            return logs;
+        }
+        refresh();
+        for (LogMaker log : getCandidates(template)) {
+            if (template.isSubsetOf(log)) {
+                logs.push(log);
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * @returns true if at least one log matches the template.
+     */
+    public boolean hasMatchingLog(LogMaker template) {
+        if (template == null) {
+            return false;
+        }
+        refresh();
+        for (LogMaker log : getCandidates(template)) {
+            if (template.isSubsetOf(log)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Narrow the logs down using the most specific key set in the template.
+    private List<LogMaker> getCandidates(LogMaker template) {
+        if (!isSet(template, MetricsEvent.RESERVED_FOR_LOGBUILDER_CATEGORY)) {
+            return mLogs;
+        }
+        List<Integer> key;
+        if (!isSet(template, MetricsEvent.RESERVED_FOR_LOGBUILDER_TYPE)) {
+            key = Arrays.asList(template.getCategory());
+        } else if (!isSet(template, MetricsEvent.RESERVED_FOR_LOGBUILDER_SUBTYPE)) {
+            key = Arrays.asList(template.getCategory(), template.getType());
+        } else {
+            key = Arrays.asList(
+                    template.getCategory(), template.getType(), template.getSubtype());
+        }
+        List<LogMaker> logs = mIndex.get(key);
+        return logs == null ? Collections.<LogMaker>emptyList() : logs;
+    }
+
+    private static boolean isSet(LogMaker template, int tag) {
+        return template.getTaggedData(tag) != null;
+    }
+}
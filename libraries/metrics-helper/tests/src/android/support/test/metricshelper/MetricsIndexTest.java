@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.support.test.metricshelper;
+
+import android.metrics.LogMaker;
+import android.metrics.MetricsReader;
+import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import android.support.test.runner.AndroidJUnit4;
+
+import java.util.Queue;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@SmallTest
+@RunWith(AndroidJUnit4.class)
+public class MetricsIndexTest {
+    @Mock MetricsReader mReader;
+
+    private LogMaker a;
+    private LogMaker b;
+    private LogMaker c;
+    private LogMaker d;
+
+    private int mActionView = MetricsEvent.ACTION_WIFI_ON;
+    private int mOpenView = MetricsEvent.MAIN_SETTINGS;
+    private int mSubtype = 4;
+
+    private MetricsIndex mIndex;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+
+        a = new LogMaker(mOpenView)
+                .setType(MetricsEvent.TYPE_OPEN)
+                .setTimestamp(1000);
+        b = new LogMaker(mActionView)
+                .setType(MetricsEvent.TYPE_ACTION)
+                .setTimestamp(2000);
+        c = new LogMaker(mActionView)
+                .setType(MetricsEvent.TYPE_ACTION)
+                .setSubtype(mSubtype)
+                .setTimestamp(3000);
+        d = new LogMaker(mOpenView)
+                .setType(MetricsEvent.TYPE_CLOSE)
+                .setTimestamp(4000);
+
+        when(mReader.hasNext())
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(false);
+        when(mReader.next())
+            .thenReturn(a)
+            .thenReturn(b)
+            .thenReturn(c)
+            .thenReturn(null);
+
+        mIndex = new MetricsIndex(mReader);
+    }
+
+    @Test
+    public void testFindByCategory() {
+        Queue<LogMaker> logs = mIndex.findMatchingLogs(new LogMaker(mActionView));
+        assertEquals(2, logs.size());
+        // Most recent first, as for MetricsAsserts.findMatchingLogs.
+        assertSame(c, logs.poll());
+        assertSame(b, logs.poll());
+    }
+
+    @Test
+    public void testFindByCategoryAndType() {
+        Queue<LogMaker> logs = mIndex.findMatchingLogs(
+                new LogMaker(mOpenView).setType(MetricsEvent.TYPE_OPEN));
+        assertEquals(1, logs.size());
+        assertSame(a, logs.poll());
+    }
+
+    @Test
+    public void testFindByCategoryTypeAndSubtype() {
+        Queue<LogMaker> logs = mIndex.findMatchingLogs(
+                new LogMaker(mActionView)
+                        .setType(MetricsEvent.TYPE_ACTION)
+                        .setSubtype(mSubtype));
+        assertEquals(1, logs.size());
+        assertSame(c, logs.poll());
+    }
+
+    @Test
+    public void testHasMatchingLog() {
+        assertTrue(mIndex.hasMatchingLog(new LogMaker(mActionView).setSubtype(mSubtype)));
+        assertFalse(mIndex.hasMatchingLog(
+                new LogMaker(mOpenView).setType(MetricsEvent.TYPE_CLOSE)));
+        assertFalse(mIndex.hasMatchingLog(null));
+    }
+
+    @Test
+    public void testRefreshIndexesNewLogsOnly() {
+        assertFalse(mIndex.hasMatchingLog(
+                new LogMaker(mOpenView).setType(MetricsEvent.TYPE_CLOSE)));
+
+        // The reader returns the logs since its checkpoint again, followed by the new log.
+        when(mReader.hasNext())
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(false);
+        when(mReader.next())
+            .thenReturn(a)
+            .thenReturn(b)
+            .thenReturn(c)
+            .thenReturn(d)
+            .thenReturn(null);
+
+        assertTrue(mIndex.hasMatchingLog(
+                new LogMaker(mOpenView).setType(MetricsEvent.TYPE_CLOSE)));
+        assertEquals(2, mIndex.findMatchingLogs(new LogMaker(mOpenView)).size());
+        // Each refresh reads from the last log indexed.
+        verify(mReader).read(0);
+        verify(mReader).read(3000);
+        verify(mReader).read(4000);
+    }
+
+    @Test
+    public void testRefreshAfterBufferWrapped() {
+        assertEquals(2, mIndex.findMatchingLogs(new LogMaker(mActionView)).size());
+
+        // The oldest logs have dropped off the event log.
+        when(mReader.hasNext())
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(false);
+        when(mReader.next())
+            .thenReturn(c)
+            .thenReturn(d)
+            .thenReturn(null);
+
+        assertTrue(mIndex.hasMatchingLog(
+                new LogMaker(mOpenView).setType(MetricsEvent.TYPE_CLOSE)));
+        assertEquals(2, mIndex.findMatchingLogs(new LogMaker(mActionView)).size());
+    }
+
+    @Test
+    public void testRefreshKeepsNewLogsAtLastTimestamp() {
+        assertTrue(mIndex.hasMatchingLog(new LogMaker(mActionView)));
+
+        // Another process logged in the same millisecond as the last log indexed.
+        LogMaker e = new LogMaker(mOpenView)
+                .setType(MetricsEvent.TYPE_CLOSE)
+                .setTimestamp(3000)
+                .setProcessId(1234);
+        when(mReader.hasNext())
+            .thenReturn(true)
+            .thenReturn(true)
+            .thenReturn(false);
+        when(mReader.next())
+            .thenReturn(c)
+            .thenReturn(e)
+            .thenReturn(null);
+
+        assertTrue(mIndex.hasMatchingLog(
+                new LogMaker(mOpenView).setType(MetricsEvent.TYPE_CLOSE)));
+        assertEquals(2, mIndex.findMatchingLogs(new LogMaker(mActionView)).size());
+    }
+
+    @Test
+    public void testCheckpointClearsIndex() {
+        assertTrue(mIndex.hasMatchingLog(new LogMaker(mActionView)));
+        mIndex.checkpoint();
+        verify(mReader).checkpoint();
+        assertFalse(mIndex.hasMatchingLog(new LogMaker(mActionView)));
+    }
+
+    @Test
+    public void testAsserts() {
+        MetricsAsserts.assertHasActionLog("foo", mIndex, mActionView);
+        MetricsAsserts.assertHasVisibilityLog("foo", mIndex, mOpenView, true);
+        MetricsAsserts.assertHasLog("foo", mIndex,
+                new LogMaker(mActionView).setSubtype(mSubtype));
+        assertEquals(1, MetricsAsserts.findMatchingLogs(mIndex,
+                new LogMaker(mOpenView)).size());
+    }
+}
@@ -19,7 +19,6 @@ package com.android.helper;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.List;
 import java.util.Properties;
@@ -27,6 +26,7 @@ import android.os.Bundle;
 import android.os.Environment;
 
 import android.os.SystemClock;
+import android.support.test.timeresulthelper.TimeResultSession;
 import android.support.test.uiautomator.UiAutomatorTestCase;
 import android.test.InstrumentationTestRunner;
 import android.util.Log;
@@ -41,6 +41,8 @@ public class PowerTestHelper extends UiAutomatorTestCase {
     private final static String TAG = "PowerTestHelper";
 
     private Bundle mParams;
+    // Keeps the power log open for the test, so that logging doesn't disturb the measurement.
+    private TimeResultSession mPowerLog;
 
     @Override
     public Bundle getParams() {
@@ -55,11 +57,22 @@ public class PowerTestHelper extends UiAutomatorTestCase {
         super.setUp();
         mParams = getParams();
         assertNotNull("mParams is null", mParams);
+        mPowerLog = new TimeResultSession(new File(POWER_OUTPUT));
 
         // Wait for USB to be disconnected by the test harness
         SystemClock.sleep(SYNC_DELAY);
     }
 
+    @Override
+    protected void tearDown() throws Exception {
+        // Write the power log timestamps recorded during the test.
+        if (mPowerLog != null) {
+            mPowerLog.close();
+            mPowerLog = null;
+        }
+        super.tearDown();
+    }
+
     /**
      * Expects a file from the command line via conf param or default following
      * format each on its own line. <code>
@@ -146,10 +159,7 @@ public class PowerTestHelper extends UiAutomatorTestCase {
      */
     protected void writePowerLog(String logType, String testCase, long time,
             long delay) throws IOException {
-        FileWriter outputWriter = new FileWriter(new File(POWER_OUTPUT), true);
-        outputWriter.write(String.format("%d %s %s\n", (time + delay),
-                logType, testCase));
-        outputWriter.close();
+        mPowerLog.writeTimeStamp(logType, testCase, time, delay);
     }
 
     protected void writePowerLogStart(String testCase) throws IOException {
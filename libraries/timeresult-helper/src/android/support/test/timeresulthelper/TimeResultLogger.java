@@ -24,6 +24,8 @@ import android.os.Bundle;
 
 /**
  * Class contains helper methods to log the start and stop time and backup the results to a file.
+ * Each timestamp opens and closes the file; use {@link TimeResultSession} to log many timestamps
+ * during a measurement.
  */
 public class TimeResultLogger {
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.support.test.timeresulthelper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+/**
+ * Session-scoped alternative to {@link TimeResultLogger}, for tests where logging must not disturb
+ * the power or timing being measured.
+ * <p>
+ * The destination file is opened once, and timestamps are recorded into preallocated arrays
+ * without allocating or doing I/O per event. They are written in the same "time logType testCase"
+ * format when the buffer is full, on {@link #flush()}, or when the session is closed at the end of
+ * the test.
+ */
+public class TimeResultSession implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final Writer mWriter;
+    private final boolean mMonotonic;
+    private final long[] mTimes;
+    private final String[] mLogTypes;
+    private final String[] mTestCases;
+    private int mCount;
+
+    /**
+     * Starts a session logging wall clock timestamps in milliseconds, as
+     * {@link TimeResultLogger} does.
+     */
+    public TimeResultSession(File destFile) throws IOException {
+        this(destFile, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @param destFile file to append the timestamps to
+     * @param capacity number of timestamps kept in memory before writing them
+     * @param monotonic true to log {@link SystemClock#elapsedRealtimeNanos()} timestamps in
+     *     nanoseconds, which don't jump when the wall clock is changed
+     */
+    public TimeResultSession(File destFile, int capacity, boolean monotonic) throws IOException {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("Invalid capacity %d", capacity));
+        }
+        mWriter = new BufferedWriter(new FileWriter(destFile, true));
+        mMonotonic = monotonic;
+        mTimes = new long[capacity];
+        mLogTypes = new String[capacity];
+        mTestCases = new String[capacity];
+    }
+
+    /**
+     * @return the current time on the clock of this session
+     */
+    public long now() {
+        return mMonotonic ? SystemClock.elapsedRealtimeNanos() : System.currentTimeMillis();
+    }
+
+    public void writeTimeStamp(String logType, String testCase, long delay) throws IOException {
+        writeTimeStamp(logType, testCase, now(), delay);
+    }
+
+    /**
+     * @param time timestamp on the clock of this session, see {@link #now()}
+     * @param delay delay for the logged time, in milliseconds
+     */
+    public void writeTimeStamp(String logType, String testCase, long time, long delay)
+            throws IOException {
+        if (mCount == mTimes.length) {
+            flush();
+        }
+        mTimes[mCount] = time + (mMonotonic ? TimeUnit.MILLISECONDS.toNanos(delay) : delay);
+        mLogTypes[mCount] = logType;
+        mTestCases[mCount] = testCase;
+        mCount++;
+    }
+
+    public void writeTimeStampLogStart(String testCase) throws IOException {
+        writeTimeStamp("AUTOTEST_TEST_BEGIN", testCase, 5 * 1000);
+    }
+
+    public void writeTimeStampLogEnd(String testCase) throws IOException {
+        writeTimeStamp("AUTOTEST_TEST_SUCCESS", testCase, 0);
+    }
+
+    /**
+     * Writes the recorded timestamps to the file.
+     */
+    public void flush() throws IOException {
+        for (int i = 0; i < mCount; i++) {
+            mWriter.write(Long.toString(mTimes[i]));
+            mWriter.write(' ');
+            mWriter.write(mLogTypes[i]);
+            mWriter.write(' ');
+            mWriter.write(mTestCases[i]);
+            mWriter.write('\n');
+            mLogTypes[i] = null;
+            mTestCases[i] = null;
+        }
+        mCount = 0;
+        mWriter.flush();
+    }
+
+    /**
+     * Writes the recorded timestamps and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mWriter.close();
+        }
+    }
+}
@@ -29,7 +29,10 @@ import android.support.test.uiautomator.UiObject2;
 import android.support.test.uiautomator.UiObjectNotFoundException;
 import android.support.test.uiautomator.Until;
 
+import com.android.helpers.FrameWindowHelper;
+
 import java.io.IOException;
+import java.util.Map;
 
 /*
  * This class contains the tests for key system apps on Android TV jank.
@@ -40,7 +43,10 @@ public class SystemAppJankTests extends JankTestBase {
     private static final int INNER_LOOP = 8;
     private static final int FLING_SPEED = 12000;
     private static final String YOUTUBE_PACKAGE = "com.google.android.youtube.tv";
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
     private UiDevice mDevice;
+    private FrameWindowHelper mFrameWindow;
 
     @Override
     public void setUp() {
@@ -49,10 +55,33 @@ public class SystemAppJankTests extends JankTestBase {
 
     @Override
     protected void tearDown() throws Exception {
+        reportFrameWindow();
         super.tearDown();
     }
 
+    // Marks the frames of each iteration, outside of the test method measured by GfxMonitor
+    private void beginFrameWindow(String packageName) {
+        if (mFrameWindow == null) {
+            mFrameWindow = new FrameWindowHelper(mDevice, packageName);
+        }
+        mFrameWindow.begin();
+    }
+
+    // Reports the frames of all the iterations once the test is done
+    private void reportFrameWindow() {
+        if (mFrameWindow == null) {
+            return;
+        }
+        Bundle metrics = new Bundle();
+        for (Map.Entry<String, Double> metric : mFrameWindow.getMetrics().entrySet()) {
+            metrics.putDouble(String.format("%s_%s", getName(), metric.getKey()),
+                    metric.getValue());
+        }
+        getInstrumentation().sendStatus(METRICS_STATUS_CODE, metrics);
+    }
+
     public void afterTestSystemApp(Bundle metrics) throws IOException {
+        mFrameWindow.end();
         mDevice.pressHome();
         super.afterTest(metrics);
     }
@@ -66,8 +95,13 @@ public class SystemAppJankTests extends JankTestBase {
                 Until.findObject(By.scrollable(true).res(YOUTUBE_PACKAGE, "guide")), LONG_TIMEOUT);
     }
 
+    public void beforeYoutubeGuideNavigation() throws UiObjectNotFoundException {
+        launchYoutube();
+        beginFrameWindow(YOUTUBE_PACKAGE);
+    }
+
     // Measures jank while scrolling down the Youtube Navigation Bar
-    @JankTest(expectedFrames=100, beforeTest = "launchYoutube",
+    @JankTest(expectedFrames=100, beforeTest = "beforeYoutubeGuideNavigation",
             afterTest="afterTestSystemApp")
     @GfxMonitor(processName=YOUTUBE_PACKAGE)
     public void testYoutubeGuideNavigation() throws UiObjectNotFoundException {
@@ -86,8 +120,13 @@ public class SystemAppJankTests extends JankTestBase {
                 .res(YOUTUBE_PACKAGE, "container_list")), LONG_TIMEOUT);
     }
 
+    public void beforeYoutubeContainerListNavigation() throws UiObjectNotFoundException {
+        goToYoutubeContainer();
+        beginFrameWindow(YOUTUBE_PACKAGE);
+    }
+
     // Measures jank while scrolling down the Youtube Navigation Bar
-    @JankTest(expectedFrames=100, beforeTest = "goToYoutubeContainer",
+    @JankTest(expectedFrames=100, beforeTest = "beforeYoutubeContainerListNavigation",
             afterTest="afterTestSystemApp")
     @GfxMonitor(processName=YOUTUBE_PACKAGE)
     public void testYoutubeContainerListNavigation() throws UiObjectNotFoundException {
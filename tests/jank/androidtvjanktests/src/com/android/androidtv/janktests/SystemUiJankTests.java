@@ -30,9 +30,12 @@ import android.support.test.uiautomator.UiObjectNotFoundException;
 import android.support.test.uiautomator.Until;
 import android.util.Log;
 
+import com.android.helpers.FrameWindowHelper;
+
 import junit.framework.Assert;
 
 import java.io.IOException;
+import java.util.Map;
 
 /*
  * This class contains the tests for Android TV jank.
@@ -46,8 +49,11 @@ public class SystemUiJankTests extends JankTestBase {
     private static final String TVLAUNCHER_PACKAGE = "com.google.android.tvlauncher";
     private static final String SETTINGS_PACKAGE = "com.android.tv.settings";
     private static final BySelector SELECTOR_TOP_ROW = By.res(TVLAUNCHER_PACKAGE, "top_row");
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
     private UiDevice mDevice;
     private DPadUtil mDPadUtil;
+    private FrameWindowHelper mFrameWindow;
 
     @Override
     public void setUp() {
@@ -57,9 +63,31 @@ public class SystemUiJankTests extends JankTestBase {
 
     @Override
     protected void tearDown() throws Exception {
+        reportFrameWindow();
         super.tearDown();
     }
 
+    // Marks the frames of each iteration, outside of the test method measured by GfxMonitor
+    private void beginFrameWindow(String packageName) {
+        if (mFrameWindow == null) {
+            mFrameWindow = new FrameWindowHelper(mDevice, packageName);
+        }
+        mFrameWindow.begin();
+    }
+
+    // Reports the frames of all the iterations once the test is done
+    private void reportFrameWindow() {
+        if (mFrameWindow == null) {
+            return;
+        }
+        Bundle metrics = new Bundle();
+        for (Map.Entry<String, Double> metric : mFrameWindow.getMetrics().entrySet()) {
+            metrics.putDouble(String.format("%s_%s", getName(), metric.getKey()),
+                    metric.getValue());
+        }
+        getInstrumentation().sendStatus(METRICS_STATUS_CODE, metrics);
+    }
+
     public void goHome() {
         mDevice.pressHome();
         UiObject2 homeScreen = mDevice
@@ -73,12 +101,18 @@ public class SystemUiJankTests extends JankTestBase {
                 SHORT_TIMEOUT));
     }
 
+    public void beforeHomeScreenNavigation() {
+        goHome();
+        beginFrameWindow(TVLAUNCHER_PACKAGE);
+    }
+
     public void afterTestHomeScreenNavigation(Bundle metrics) throws IOException {
+        mFrameWindow.end();
         super.afterTest(metrics);
     }
 
     // Measures jank while navigating up and down the Home screen
-    @JankTest(expectedFrames=100, beforeTest = "goHome",
+    @JankTest(expectedFrames=100, beforeTest = "beforeHomeScreenNavigation",
             afterTest="afterTestHomeScreenNavigation")
     @GfxMonitor(processName=TVLAUNCHER_PACKAGE)
     public void testHomeScreenNavigation() throws UiObjectNotFoundException {
@@ -96,14 +130,20 @@ public class SystemUiJankTests extends JankTestBase {
             selectBidirect(By.res(TVLAUNCHER_PACKAGE, "settings").focused(true), Direction.RIGHT));
     }
 
+    public void beforeNavigateToSettings() {
+        goToSettingsButton();
+        beginFrameWindow(SETTINGS_PACKAGE);
+    }
+
     public void afterTestSettings(Bundle metrics) throws IOException {
+        mFrameWindow.end();
         // Navigate back home
         goHome();
         super.afterTest(metrics);
     }
 
     // Measures jank while navigating to Settings from Home and back
-    @JankTest(expectedFrames=100, beforeTest="goToSettingsButton",
+    @JankTest(expectedFrames=100, beforeTest="beforeNavigateToSettings",
             afterTest="afterTestSettings")
     @GfxMonitor(processName=SETTINGS_PACKAGE)
     public void testNavigateToSettings() throws UiObjectNotFoundException {
@@ -128,8 +168,13 @@ public class SystemUiJankTests extends JankTestBase {
                 SHORT_TIMEOUT));
     }
 
+    public void beforeSettingsScreenNavigation() {
+        goToSettings();
+        beginFrameWindow(SETTINGS_PACKAGE);
+    }
+
     // Measures jank while scrolling on the Settings screen
-    @JankTest(expectedFrames=100, beforeTest="goToSettings",
+    @JankTest(expectedFrames=100, beforeTest="beforeSettingsScreenNavigation",
             afterTest="afterTestSettings")
     @GfxMonitor(processName=SETTINGS_PACKAGE)
     public void testSettingsScreenNavigation() throws UiObjectNotFoundException {
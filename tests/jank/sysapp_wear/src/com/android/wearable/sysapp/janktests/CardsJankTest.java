@@ -30,6 +30,8 @@ public class CardsJankTest extends JankTestBase {
     private UiDevice mDevice;
     private SysAppTestHelper mHelper;
 
+    private static final String WEARABLE_APP_PACKAGE = "com.google.android.wearable.app";
+
     /*
      * (non-Javadoc)
      * @see junit.framework.TestCase#setUp()
@@ -52,7 +54,8 @@ public class CardsJankTest extends JankTestBase {
 
     // Measure card scroll jank
 
-    @JankTest(beforeLoop = "openScrollCard", afterTest = "goBackHome",
+    @JankTest(beforeLoop = "openScrollCard", beforeTest = "beginFrameWindow",
+            afterTest = "goBackHome",
             expectedFrames = SysAppTestHelper.EXPECTED_FRAMES_CARDS_TEST)
     @GfxMonitor(processName = "com.google.android.wearable.app")
     public void testScrollCard() {
@@ -68,21 +71,29 @@ public class CardsJankTest extends JankTestBase {
 
     // Measure jank when dismissing a card
 
-    @JankTest(beforeLoop = "openSwipeCard", afterTest = "goBackHome",
+    @JankTest(beforeLoop = "openSwipeCard", beforeTest = "beginFrameWindow",
+            afterTest = "goBackHome",
             expectedFrames = SysAppTestHelper.EXPECTED_FRAMES_CARDS_TEST)
     @GfxMonitor(processName = "com.google.android.wearable.app")
     public void testSwipeCard() {
         mHelper.swipeRight();
     }
 
+    // Marks the frames of each iteration, outside of the test method measured by GfxMonitor
+    public void beginFrameWindow() {
+        mHelper.beginFrameWindow(getName(), WEARABLE_APP_PACKAGE);
+    }
+
     // Ensuring that we head back to the first screen before launching the app again
     public void goBackHome(Bundle metrics) {
+        mHelper.endFrameWindow();
         mHelper.goBackHome();
         super.afterTest(metrics);
     }
 
     // Measure jank when dismissing on an expanded card
-    @JankTest(beforeLoop = "openSwipeExpandedCard", afterTest = "goBackHome",
+    @JankTest(beforeLoop = "openSwipeExpandedCard", beforeTest = "beginFrameWindow",
+            afterTest = "goBackHome",
             expectedFrames = SysAppTestHelper.EXPECTED_FRAMES_DISMISS_EXPANDED_CARDS_TEST)
     @GfxMonitor(processName = "com.google.android.wearable.app")
     public void testSwipeExpandedCard() {
@@ -101,6 +112,7 @@ public class CardsJankTest extends JankTestBase {
      */
     @Override
     protected void tearDown() throws Exception {
+        mHelper.reportFrameWindow();
         super.tearDown();
     }
 
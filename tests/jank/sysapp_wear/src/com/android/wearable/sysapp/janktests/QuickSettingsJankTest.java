@@ -70,7 +70,8 @@ public class QuickSettingsJankTest extends JankTestBase {
     }
 
     // Verify jank while pulling down quick settings
-    @JankTest(beforeLoop = "startFromHome", afterTest = "goBackHome",
+    @JankTest(beforeLoop = "startFromHome", beforeTest = "beginFrameWindow",
+            afterTest = "goBackHome",
             expectedFrames = SysAppTestHelper.EXPECTED_FRAMES_CARDS_TEST)
     @GfxMonitor(processName = WEARABLE_APP_PACKAGE)
     public void testPullDownQuickSettings() {
@@ -85,16 +86,29 @@ public class QuickSettingsJankTest extends JankTestBase {
     }
 
     // Verify jank while pulling up quick settings
-    @JankTest(beforeLoop = "openPullUpQuickSettings", afterTest = "goBackHome",
+    @JankTest(beforeLoop = "openPullUpQuickSettings", beforeTest = "beginFrameWindow",
+            afterTest = "goBackHome",
             expectedFrames = SysAppTestHelper.EXPECTED_FRAMES_CARDS_TEST)
     @GfxMonitor(processName = WEARABLE_APP_PACKAGE)
     public void testPullUpQuickSettings() {
         mHelper.swipeUp();
     }
 
+    // Marks the frames of each iteration, outside of the test method measured by GfxMonitor
+    public void beginFrameWindow() {
+        mHelper.beginFrameWindow(getName(), WEARABLE_APP_PACKAGE);
+    }
+
     // Ensuring that we head back to the first screen before launching the app again
     public void goBackHome(Bundle metrics) {
+        mHelper.endFrameWindow();
         mHelper.goBackHome();
         super.afterTest(metrics);
     }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.reportFrameWindow();
+        super.tearDown();
+    }
 }
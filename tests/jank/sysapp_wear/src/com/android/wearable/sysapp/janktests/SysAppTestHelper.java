@@ -19,6 +19,7 @@ package com.android.wearable.sysapp.janktests;
 import android.app.Instrumentation;
 import android.content.ComponentName;
 import android.content.Intent;
+import android.os.Bundle;
 import android.os.SystemClock;
 import android.support.test.uiautomator.By;
 import android.support.test.uiautomator.UiDevice;
@@ -26,8 +27,13 @@ import android.support.test.uiautomator.UiObject2;
 import android.support.test.uiautomator.Until;
 import android.util.Log;
 import android.view.KeyEvent;
+
+import com.android.helpers.FrameWindowHelper;
+
 import junit.framework.Assert;
 
+import java.util.Map;
+
 /**
  * Helper for all the system apps jank tests
  */
@@ -48,11 +54,15 @@ public class SysAppTestHelper {
     private static final String HOME_INDICATOR = "charging_icon";
     private static final String NO_NOTIFICATION_ID = "no_notifications";
     private static final String STREAM_CARD_ID = "stream_card";
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
 
     private static SysAppTestHelper sysAppTestHelperInstance;
     private UiDevice mDevice = null;
     private Instrumentation instrumentation = null;
     private Intent mIntent = null;
+    private FrameWindowHelper mFrameWindow = null;
+    private String mFrameWindowName = null;
 
     /**
      * @param mDevice Instance to represent the current device.
@@ -72,6 +82,46 @@ public class SysAppTestHelper {
         return sysAppTestHelperInstance;
     }
 
+    /**
+     * Start capturing the frames of a package, once the setup of a test is done. The frames of
+     * successive windows with the same name, e.g. over the test iterations, are added up. This
+     * reads gfxinfo, so call it from a before test hook rather than from the measured test method.
+     */
+    public void beginFrameWindow(String name, String packageName) {
+        if (mFrameWindow == null || !name.equals(mFrameWindowName)
+                || !packageName.equals(mFrameWindow.getPackageName())) {
+            mFrameWindow = new FrameWindowHelper(mDevice, packageName);
+            mFrameWindowName = name;
+        }
+        mFrameWindow.begin();
+    }
+
+    /**
+     * Stop capturing frames. This reads gfxinfo, so call it from an after test hook rather than
+     * from the measured test method.
+     */
+    public void endFrameWindow() {
+        mFrameWindow.end();
+    }
+
+    /**
+     * Report the frames captured over all the windows of the test as metrics prefixed with the
+     * window name, and discard them. Does nothing if the test marked no window.
+     */
+    public void reportFrameWindow() {
+        if (mFrameWindow == null) {
+            return;
+        }
+        Bundle metrics = new Bundle();
+        for (Map.Entry<String, Double> metric : mFrameWindow.getMetrics().entrySet()) {
+            metrics.putDouble(String.format("%s_%s", mFrameWindowName, metric.getKey()),
+                    metric.getValue());
+        }
+        instrumentation.sendStatus(METRICS_STATUS_CODE, metrics);
+        mFrameWindow = null;
+        mFrameWindowName = null;
+    }
+
     // TODO: Cleanup confusion between swipe and fling.
     public void swipeRight() {
         mDevice.swipe(50,
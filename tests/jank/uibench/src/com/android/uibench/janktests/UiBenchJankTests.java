@@ -20,6 +20,7 @@ import static com.android.uibench.janktests.UiBenchJankTestsHelper.EXPECTED_FRAM
 import static com.android.uibench.janktests.UiBenchJankTestsHelper.PACKAGE_NAME;
 import static com.android.uibench.janktests.UiBenchJankTestsHelper.SHORT_EXPECTED_FRAMES;
 
+import android.os.Bundle;
 import android.os.SystemClock;
 import android.support.test.jank.GfxMonitor;
 import android.support.test.jank.JankTest;
@@ -31,6 +32,8 @@ import android.widget.ListView;
 
 import junit.framework.Assert;
 
+import java.io.IOException;
+
 /**
  * Jank benchmark General tests for UiBench app
  */
@@ -51,18 +54,31 @@ public class UiBenchJankTests extends JankTestBase {
 
     @Override
     protected void tearDown() throws Exception {
+        mHelper.reportFrameWindow();
         mDevice.unfreezeRotation();
         super.tearDown();
     }
 
+    // Marks the frames of each iteration, outside of the test method measured by GfxMonitor
+    public void beginFrameWindow() {
+        mHelper.beginFrameWindow(getName());
+    }
+
+    public void endFrameWindow(Bundle metrics) throws IOException {
+        mHelper.endFrameWindow();
+        super.afterTest(metrics);
+    }
+
     public void openDialogList() {
         mHelper.launchActivity("DialogListActivity", "Dialog");
         mHelper.mContents = mDevice.wait(Until.findObject(
                 By.clazz(ListView.class)), UiBenchJankTestsHelper.TIMEOUT);
         Assert.assertNotNull("Dialog List View isn't found", mHelper.mContents);
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openDialogList", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openDialogList", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testDialogListFling() {
         mHelper.flingUpDown(mHelper.mContents, 1);
@@ -71,9 +87,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openFullscreenOverdraw() {
         mHelper.launchActivity("FullscreenOverdrawActivity",
                 "General/Fullscreen Overdraw");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openFullscreenOverdraw", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openFullscreenOverdraw", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testFullscreenOverdraw() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -82,9 +100,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openGLTextureView() {
         mHelper.launchActivity("GlTextureViewActivity",
                 "General/GL TextureView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openGLTextureView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openGLTextureView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testGLTextureView() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -93,9 +113,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openInvalidate() {
         mHelper.launchActivity("InvalidateActivity",
                 "General/Invalidate");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openInvalidate", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openInvalidate", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testInvalidate() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -104,9 +126,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openInvalidateTree() {
         mHelper.launchActivity("InvalidateTreeActivity",
                 "General/Invalidate Tree");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openInvalidateTree", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openInvalidateTree", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testInvalidateTree() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -115,9 +139,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openTrivialAnimation() {
         mHelper.launchActivity("TrivialAnimationActivity",
                 "General/Trivial Animation");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openTrivialAnimation", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openTrivialAnimation", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testTrivialAnimation() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -125,9 +151,11 @@ public class UiBenchJankTests extends JankTestBase {
 
     public void openTrivialListView() {
         mHelper.launchActivityAndAssert("TrivialListActivity", "General/Trivial ListView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openTrivialListView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openTrivialListView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testTrivialListViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -135,9 +163,11 @@ public class UiBenchJankTests extends JankTestBase {
 
     public void openFadingEdgeListView() {
         mHelper.launchActivityAndAssert("FadingEdgeListActivity", "General/Fading Edge ListView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openFadingEdgeListView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openFadingEdgeListView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testFadingEdgeListViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -145,9 +175,11 @@ public class UiBenchJankTests extends JankTestBase {
 
     public void openSaveLayerInterleaveActivity() {
         mHelper.launchActivityAndAssert("SaveLayerInterleaveActivity", "General/SaveLayer Animation");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openSaveLayerInterleaveActivity", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openSaveLayerInterleaveActivity", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testSaveLayerAnimation() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -156,9 +188,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openTrivialRecyclerView() {
         mHelper.launchActivityAndAssert("TrivialRecyclerViewActivity",
                 "General/Trivial RecyclerView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openTrivialRecyclerView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openTrivialRecyclerView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testTrivialRecyclerListViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -167,9 +201,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openSlowBindRecyclerView() {
         mHelper.launchActivityAndAssert("SlowBindRecyclerViewActivity",
                 "General/Slow Bind RecyclerView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openSlowBindRecyclerView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openSlowBindRecyclerView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testSlowBindRecyclerViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -178,15 +214,18 @@ public class UiBenchJankTests extends JankTestBase {
     public void openSlowNestedRecyclerView() {
         mHelper.launchActivityAndAssert("SlowNestedRecyclerViewActivity",
                 "General/Slow Nested RecyclerView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openSlowNestedRecyclerView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openSlowNestedRecyclerView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testSlowNestedRecyclerViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
     }
 
     @JankTest(/* NOTE: relaunch between loops */ beforeLoop = "openSlowNestedRecyclerView",
+            beforeTest = "beginFrameWindow", afterTest = "endFrameWindow",
             expectedFrames = SHORT_EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testSlowNestedRecyclerViewInitialFling() {
@@ -196,9 +235,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openInflatingListView() {
         mHelper.launchActivityAndAssert("InflatingListActivity",
                 "Inflation/Inflating ListView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openInflatingListView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openInflatingListView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testInflatingListViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -207,9 +248,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openInflatingEmojiListView() {
         mHelper.launchActivityAndAssert("InflatingEmojiListActivity",
                 "Inflation/Inflating ListView with Emoji");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openInflatingEmojiListView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openInflatingEmojiListView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testInflatingEmojiListViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -218,9 +261,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openInflatingHanListView() {
         mHelper.launchActivityAndAssert("InflatingHanListActivity",
                 "Inflation/Inflating ListView with Han Characters");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openInflatingHanListView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openInflatingHanListView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testInflatingHanListViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -229,9 +274,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openInflatingLongStringListView() {
         mHelper.launchActivityAndAssert("InflatingLongStringListActivity",
                 "Inflation/Inflating ListView with long string");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openInflatingLongStringListView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openInflatingLongStringListView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testInflatingLongStringListViewFling() {
         mHelper.flingUpDown(mHelper.mContents, 2);
@@ -240,9 +287,11 @@ public class UiBenchJankTests extends JankTestBase {
     public void openNavigationDrawerActivity() {
         mHelper.launchActivityAndAssert("NavigationDrawerActivity", "Navigation Drawer Activity");
         mHelper.mContents.setGestureMargins(0, 0, 10, 0);
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openNavigationDrawerActivity", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openNavigationDrawerActivity", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testOpenNavigationDrawer() {
         mHelper.swipeRightLeft(mHelper.mContents, 4);
@@ -250,9 +299,11 @@ public class UiBenchJankTests extends JankTestBase {
 
     public void openNotificationShade() {
         mHelper.launchActivityAndAssert("NotificationShadeActivity", "Notification Shade");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openNotificationShade", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openNotificationShade", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testOpenNotificationShade() {
         mHelper.flingUpDown(mHelper.mContents, 2, true);
@@ -260,9 +311,11 @@ public class UiBenchJankTests extends JankTestBase {
 
     public void openResizeHWLayer() {
         mHelper.launchActivity("ResizeHWLayerActivity", "General/Resize HW Layer");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openResizeHWLayer", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openResizeHWLayer", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testResizeHWLayer() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -270,9 +323,11 @@ public class UiBenchJankTests extends JankTestBase {
 
     public void openClippedListView() {
         mHelper.launchActivityAndAssert("ClippedListActivity", "General/Clipped ListView");
+        beginFrameWindow();
     }
 
-    @JankTest(beforeTest = "openClippedListView", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openClippedListView", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testClippedListView() {
         mHelper.swipeRightLeft(mHelper.mContents, 4);
@@ -21,15 +21,24 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
 import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
 import android.support.test.uiautomator.By;
 import android.support.test.uiautomator.Direction;
 import android.support.test.uiautomator.UiDevice;
 import android.support.test.uiautomator.UiObject2;
 import android.support.test.uiautomator.Until;
 import android.util.DisplayMetrics;
+import android.util.Log;
+
+import com.android.helpers.FrameWindowHelper;
 
 import junit.framework.Assert;
 
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Jank benchmark tests helper for UiBench app
  */
@@ -49,6 +58,17 @@ public class UiBenchJankTestsHelper {
 
     public static final String PACKAGE_NAME = "com.android.test.uibench";
 
+    // Opt-in: launch each measured uibench activity once before its first test, so that tests
+    // start from a warm process and their jank window doesn't include startup work.
+    public static final String WARMUP_OPTION = "uibench-warmup";
+
+    private static final String LOG_TAG = UiBenchJankTestsHelper.class.getSimpleName();
+    // Waits for the launch to complete, and prints its timing
+    private static final String LAUNCH_CMD = "am start -W --activity-clear-task -n %s";
+    private static final String TOTAL_TIME_MESSAGE = "TotalTime:";
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
+
     private static final int SLOW_FLING_SPEED = 3000; // compare to UiObject2#DEFAULT_FLING_SPEED
 
     private static UiBenchJankTestsHelper sInstance;
@@ -56,11 +76,19 @@ public class UiBenchJankTestsHelper {
     private Context mContext;
     private DisplayMetrics mDisplayMetrics;
     protected UiObject2 mContents;
+    private final boolean mWarmUp;
+    // Activities launched by the warmup
+    private final Set<String> mWarmedUp = new HashSet<>();
+    private final FrameWindowHelper mFrameWindow;
+    private String mFrameWindowName = null;
 
     private UiBenchJankTestsHelper(Context context, UiDevice device) {
         mContext = context;
         mDevice = device;
+        mFrameWindow = new FrameWindowHelper(device, PACKAGE_NAME);
         mDisplayMetrics = context.getResources().getDisplayMetrics();
+        mWarmUp = Boolean.parseBoolean(
+                InstrumentationRegistry.getArguments().getString(WARMUP_OPTION));
     }
 
     public static UiBenchJankTestsHelper getInstance(Context context, UiDevice device) {
@@ -76,21 +104,76 @@ public class UiBenchJankTestsHelper {
     public void launchActivity(String activityName, Bundle extras, String verifyText) {
         ComponentName cn = new ComponentName(PACKAGE_NAME,
                 String.format("%s.%s", PACKAGE_NAME, activityName));
-        Intent intent = new Intent(Intent.ACTION_MAIN);
-        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK);
-        if (extras != null) {
-            intent.putExtras(extras);
+        if (mWarmUp && mWarmedUp.add(activityName)) {
+            warmUp(cn, activityName);
+        }
+        if (mWarmUp && extras == null) {
+            // Launch the same way as the warmup, to report the launch separately from the jank
+            // window of the test.
+            long launchMs = startActivityAndWait(cn);
+            if (launchMs >= 0) {
+                Bundle metrics = new Bundle();
+                metrics.putLong(String.format("%s_warm_launch_ms", activityName), launchMs);
+                InstrumentationRegistry.getInstrumentation().sendStatus(
+                        METRICS_STATUS_CODE, metrics);
+            }
+        } else {
+            Intent intent = new Intent(Intent.ACTION_MAIN);
+            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TASK);
+            if (extras != null) {
+                intent.putExtras(extras);
+            }
+            intent.setComponent(cn);
+            // Launch the activity
+            mContext.startActivity(intent);
         }
-        intent.setComponent(cn);
-        // Launch the activity
-        mContext.startActivity(intent);
         UiObject2 expectedTextCmp = mDevice.wait(Until.findObject(
                 By.text(verifyText)), LONG_TIMEOUT);
         Assert.assertNotNull(String.format("Issue in opening %s", activityName),
                 expectedTextCmp);
     }
 
+    /**
+     * Launch an activity once before it is first measured, and report the time of that launch.
+     * Later launches then reuse the warm process.
+     */
+    private void warmUp(ComponentName cn, String activityName) {
+        long launchMs = startActivityAndWait(cn);
+        if (launchMs >= 0) {
+            Bundle metrics = new Bundle();
+            metrics.putLong(String.format("%s_first_launch_ms", activityName), launchMs);
+            InstrumentationRegistry.getInstrumentation().sendStatus(METRICS_STATUS_CODE, metrics);
+        }
+        mDevice.pressHome();
+        mDevice.waitForIdle();
+    }
+
+    /**
+     * Launch an activity in a new task and wait for the launch to complete.
+     * @return the launch time reported by the activity manager, or -1 if it isn't reported
+     */
+    private long startActivityAndWait(ComponentName cn) {
+        String output;
+        try {
+            output = mDevice.executeShellCommand(
+                    String.format(LAUNCH_CMD, cn.flattenToShortString()));
+        } catch (IOException e) {
+            throw new RuntimeException(String.format("Failed to launch %s", cn), e);
+        }
+        for (String line : output.split("\n")) {
+            if (line.startsWith(TOTAL_TIME_MESSAGE)) {
+                try {
+                    return Long.parseLong(line.substring(TOTAL_TIME_MESSAGE.length()).trim());
+                } catch (NumberFormatException e) {
+                    // Not reported by this platform version.
+                }
+            }
+        }
+        Log.w(LOG_TAG, String.format("No launch time reported for %s: %s", cn, output));
+        return -1;
+    }
+
     public void launchActivity(String activityName, String verifyText) {
         launchActivity(activityName, null, verifyText);
     }
@@ -101,6 +184,45 @@ public class UiBenchJankTestsHelper {
         Assert.assertNotNull(activityName + " isn't found", mContents);
     }
 
+    /**
+     * Start capturing the frames of a test, once its setup is done. The frames of successive
+     * windows with the same name, e.g. over the test iterations, are added up. This reads
+     * gfxinfo, so call it from a before test hook rather than from the measured test method.
+     */
+    public void beginFrameWindow(String name) {
+        if (!name.equals(mFrameWindowName)) {
+            mFrameWindow.clear();
+            mFrameWindowName = name;
+        }
+        mFrameWindow.begin();
+    }
+
+    /**
+     * Stop capturing frames. This reads gfxinfo, so call it from an after test hook rather than
+     * from the measured test method.
+     */
+    public void endFrameWindow() {
+        mFrameWindow.end();
+    }
+
+    /**
+     * Report the frames captured over all the windows of the test as metrics prefixed with the
+     * window name, and discard them. Does nothing if the test marked no window.
+     */
+    public void reportFrameWindow() {
+        if (mFrameWindowName == null) {
+            return;
+        }
+        Bundle metrics = new Bundle();
+        for (Map.Entry<String, Double> metric : mFrameWindow.getMetrics().entrySet()) {
+            metrics.putDouble(String.format("%s_%s", mFrameWindowName, metric.getKey()),
+                    metric.getValue());
+        }
+        InstrumentationRegistry.getInstrumentation().sendStatus(METRICS_STATUS_CODE, metrics);
+        mFrameWindow.clear();
+        mFrameWindowName = null;
+    }
+
     /**
      * To perform the fling down and up on given content for flingCount number
      * of times
@@ -19,6 +19,7 @@ package com.android.uibench.janktests;
 import static com.android.uibench.janktests.UiBenchJankTestsHelper.EXPECTED_FRAMES;
 import static com.android.uibench.janktests.UiBenchJankTestsHelper.PACKAGE_NAME;
 
+import android.os.Bundle;
 import android.os.SystemClock;
 import android.support.test.jank.GfxMonitor;
 import android.support.test.jank.JankTest;
@@ -29,6 +30,8 @@ import android.support.test.uiautomator.Until;
 import android.widget.ListView;
 import junit.framework.Assert;
 
+import java.io.IOException;
+
 /**
  * Jank benchmark Rendering tests for UiBench app
  */
@@ -49,18 +52,31 @@ public class UiBenchRenderingJankTests extends JankTestBase {
 
     @Override
     protected void tearDown() throws Exception {
+        mHelper.reportFrameWindow();
         mDevice.unfreezeRotation();
         super.tearDown();
     }
 
+    // Marks the frames of each iteration, outside of the test method measured by GfxMonitor
+    public void beginFrameWindow() {
+        mHelper.beginFrameWindow(getName());
+    }
+
+    public void endFrameWindow(Bundle metrics) throws IOException {
+        mHelper.endFrameWindow();
+        super.afterTest(metrics);
+    }
+
     // Open Bitmap Upload
     public void openBitmapUpload() {
         mHelper.launchActivity("BitmapUploadActivity",
                 "Rendering/Bitmap Upload");
+        beginFrameWindow();
     }
 
     // Test Bitmap Upload jank
-    @JankTest(beforeTest = "openBitmapUpload", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openBitmapUpload", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testBitmapUploadJank() {
         SystemClock.sleep(UiBenchJankTestsHelper.FULL_TEST_DURATION);
@@ -73,10 +89,12 @@ public class UiBenchRenderingJankTests extends JankTestBase {
         mHelper.mContents = mDevice.wait(Until.findObject(
                 By.clazz(ListView.class)), mHelper.TIMEOUT);
         Assert.assertNotNull("Shadow Grid list isn't found", mHelper.mContents);
+        beginFrameWindow();
     }
 
     // Test Shadow Grid fling
-    @JankTest(beforeTest = "openRenderingList", expectedFrames = EXPECTED_FRAMES)
+    @JankTest(beforeTest = "openRenderingList", afterTest = "endFrameWindow",
+            expectedFrames = EXPECTED_FRAMES)
     @GfxMonitor(processName = PACKAGE_NAME)
     public void testShadowGridListFling() {
         mHelper.flingUpDown(mHelper.mContents, 1);
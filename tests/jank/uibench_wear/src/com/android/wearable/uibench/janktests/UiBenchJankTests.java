@@ -56,6 +56,7 @@ public class UiBenchJankTests extends JankTestBase {
 
     @Override
     protected void tearDown() throws Exception {
+        mHelper.reportFrameWindow(getInstrumentation());
         super.tearDown();
     }
 
@@ -64,6 +65,7 @@ public class UiBenchJankTests extends JankTestBase {
         mHelper.launchUiBench();
         mHelper.openTextInList("General");
         mHelper.openTextInList(componentName);
+        mHelper.beginFrameWindow(getName());
     }
 
     // Open Fullscreen Overdraw from General
@@ -195,6 +197,7 @@ public class UiBenchJankTests extends JankTestBase {
         mHelper.launchUiBench();
         mHelper.openTextInList("Inflation");
         mHelper.openTextInList("Inflating ListView");
+        mHelper.beginFrameWindow(getName());
     }
 
     // Test Inflating List View fling
@@ -227,6 +230,7 @@ public class UiBenchJankTests extends JankTestBase {
 
     // Ensuring that we head back to the first screen before launching the app again
     public void goBackHome(Bundle metrics) throws UiObjectNotFoundException {
+        mHelper.endFrameWindow();
         mHelper.goBackHome();
         super.afterTest(metrics);
     }
@@ -17,9 +17,11 @@
 package com.android.wearable.uibench.janktests;
 
 import android.R;
+import android.app.Instrumentation;
 import android.util.Log;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
 import android.os.SystemClock;
 import android.support.test.uiautomator.By;
 import android.support.test.uiautomator.UiDevice;
@@ -27,7 +29,10 @@ import android.support.test.uiautomator.UiObject2;
 import android.support.test.uiautomator.UiObjectNotFoundException;
 import android.support.test.uiautomator.Until;
 
+import com.android.helpers.FrameWindowHelper;
+
 import java.io.IOException;
+import java.util.Map;
 
 import junit.framework.Assert;
 
@@ -52,14 +57,19 @@ public class UiBenchJankTestsHelper {
     public static final String UIBENCH_OBJECT_NAME = "UiBench";
     public static final String KEYBOARD_SERVICE_NAME = "com.google.android.inputmethod.latin/"
             + "com.google.android.apps.inputmethod.wear.latin.WearLatinIME";
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
 
     private static UiBenchJankTestsHelper mInstance;
     private UiDevice mDevice;
     private Context mContext;
+    private final FrameWindowHelper mFrameWindow;
+    private String mFrameWindowName = null;
 
     private UiBenchJankTestsHelper(UiDevice device, Context context) {
         mDevice = device;
         mContext = context;
+        mFrameWindow = new FrameWindowHelper(device, PACKAGE_NAME);
     }
 
     public static UiBenchJankTestsHelper getInstance(UiDevice device) {
@@ -89,6 +99,45 @@ public class UiBenchJankTestsHelper {
         }
     }
 
+    /**
+     * Start capturing the frames of a test, once its setup is done. The frames of successive
+     * windows with the same name, e.g. over the test iterations, are added up. This reads
+     * gfxinfo, so call it from a before test hook rather than from the measured test method.
+     */
+    public void beginFrameWindow(String name) {
+        if (!name.equals(mFrameWindowName)) {
+            mFrameWindow.clear();
+            mFrameWindowName = name;
+        }
+        mFrameWindow.begin();
+    }
+
+    /**
+     * Stop capturing frames. This reads gfxinfo, so call it from an after test hook rather than
+     * from the measured test method.
+     */
+    public void endFrameWindow() {
+        mFrameWindow.end();
+    }
+
+    /**
+     * Report the frames captured over all the windows of the test as metrics prefixed with the
+     * window name, and discard them. Does nothing if the test marked no window.
+     */
+    public void reportFrameWindow(Instrumentation instrumentation) {
+        if (mFrameWindowName == null) {
+            return;
+        }
+        Bundle metrics = new Bundle();
+        for (Map.Entry<String, Double> metric : mFrameWindow.getMetrics().entrySet()) {
+            metrics.putDouble(String.format("%s_%s", mFrameWindowName, metric.getKey()),
+                    metric.getValue());
+        }
+        instrumentation.sendStatus(METRICS_STATUS_CODE, metrics);
+        mFrameWindow.clear();
+        mFrameWindowName = null;
+    }
+
     // Helper method to go back to home screen
     public void goBackHome() throws UiObjectNotFoundException {
         String launcherPackage = mDevice.getLauncherPackageName();
@@ -56,6 +56,7 @@ public class UiBenchRenderingJankTests extends JankTestBase {
 
     @Override
     protected void tearDown() throws Exception {
+        mHelper.reportFrameWindow(getInstrumentation());
         mDevice.unfreezeRotation();
         super.tearDown();
     }
@@ -65,6 +66,7 @@ public class UiBenchRenderingJankTests extends JankTestBase {
         mHelper.launchUiBench();
         mHelper.openTextInList("Rendering");
         mHelper.openTextInList(componentName);
+        mHelper.beginFrameWindow(getName());
     }
 
     // Open Bitmap Upload
@@ -108,6 +110,7 @@ public class UiBenchRenderingJankTests extends JankTestBase {
 
     // Ensuring that we head back to the first screen before launching the app again
     public void goBackHome(Bundle metrics) throws UiObjectNotFoundException {
+        mHelper.endFrameWindow();
         mHelper.goBackHome();
         super.afterTest(metrics);
     }
@@ -61,6 +61,7 @@ public class UiBenchTextJankTests extends JankTestBase {
 
     @Override
     protected void tearDown() throws Exception {
+        mHelper.reportFrameWindow(getInstrumentation());
         mDevice.unfreezeRotation();
         mHelper.enableKeyboardIME(true);
         super.tearDown();
@@ -71,6 +72,7 @@ public class UiBenchTextJankTests extends JankTestBase {
         mHelper.launchUiBench();
         mHelper.openTextInList("Text");
         mHelper.openTextInList(componentName);
+        mHelper.beginFrameWindow(getName());
     }
 
     // Open EditText Typing
@@ -154,6 +156,7 @@ public class UiBenchTextJankTests extends JankTestBase {
 
     // Ensuring that we head back to the first screen before launching the app again
     public void goBackHome(Bundle metrics) throws UiObjectNotFoundException {
+            mHelper.endFrameWindow();
             mHelper.goBackHome();
             super.afterTest(metrics);
     }
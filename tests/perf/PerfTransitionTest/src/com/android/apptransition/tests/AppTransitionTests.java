@@ -27,8 +27,9 @@ import android.os.RemoteException;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.launcherhelper.ILauncherStrategy;
 import android.support.test.launcherhelper.LauncherStrategyFactory;
-import android.support.test.rule.logging.AtraceLogger;
+import android.support.test.uiautomator.By;
 import android.support.test.uiautomator.UiDevice;
+import android.support.test.uiautomator.Until;
 import android.util.Log;
 
 import com.android.launcher3.tapl.LauncherInstrumentation;
@@ -40,17 +41,14 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.BufferedReader;
-import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 public class AppTransitionTests extends Instrumentation {
 
@@ -69,37 +67,36 @@ public class AppTransitionTests extends Instrumentation {
     private static final String LAUNCH_APPS = "launch_apps";
     private static final String KEY_LAUNCH_ITERATIONS = "launch_iteration";
     private static final String KEY_POST_LAUNCH_TIMEOUT = "postlaunch_timeout";
+    // Keep launching until the confidence interval of the launch time is narrow enough, with
+    // launch_iteration as the minimum number of launches.
+    private static final String KEY_ADAPTIVE_LAUNCH = "adaptive_launch";
+    private static final String KEY_MAX_LAUNCH_ITERATIONS = "max_launch_iteration";
+    private static final String KEY_LAUNCH_CI_TARGET = "launch_ci_target";
+    private static final String DEFAULT_MAX_LAUNCH_COUNT = "50";
+    // Half-width of the 95% confidence interval, relative to the mean launch time
+    private static final String DEFAULT_LAUNCH_CI_TARGET = "0.05";
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int METRICS_STATUS_CODE = 2;
     private static final String COLD_LAUNCH = "cold_launch";
     private static final String HOT_LAUNCH = "hot_launch";
     private static final String NOT_SURE = "not_sure";
     private static final String ACTIVITY = "Activity:";
-    private static final String KEY_TRACE_DIRECTORY = "trace_directory";
-    private static final String KEY_TRACE_CATEGORY = "trace_categories";
-    private static final String KEY_TRACE_BUFFERSIZE = "trace_bufferSize";
-    private static final String KEY_TRACE_DUMPINTERVAL = "tracedump_interval";
-    private static final String DEFAULT_TRACE_CATEGORIES = "sched,freq,gfx,view,dalvik,webview,"
-            + "input,wm,disk,am,wm";
-    private static final String DEFAULT_TRACE_BUFFER_SIZE = "20000";
-    private static final String DEFAULT_TRACE_DUMP_INTERVAL = "10";
     private static final String DELIMITER = ",";
     private UiDevice mDevice;
     private LauncherInstrumentation mLauncher;
     private ILauncherStrategy mLauncherStrategy = null;
     private Map<String, Intent> mAppLaunchIntentsMapping = null;
-    private String mTraceDirectoryStr = null;
     private Bundle mResult = new Bundle();
     private Bundle mArgs;
     private String mPreAppsList;
     private int mLaunchIterations;
     private int mPostLaunchTimeout;
+    private boolean mAdaptiveLaunch;
+    private int mMaxLaunchIterations;
+    private double mLaunchCiTarget;
     private String[] mAppListArray;
     private String[] mPreAppsListArray;
-    private File mRootTrace = null;
-    private File mRootTraceSubDir = null;
-    private int mTraceBufferSize = 0;
-    private int mTraceDumpInterval = 0;
-    private Set<String> mTraceCategoriesSet = null;
-    private AtraceLogger mAtraceLogger = null;
+    private TraceSession mTraceSession;
     private String mComponentName = null;
     private Map<String,String> mPreAppsComponentName = new HashMap<String, String>();
     private boolean mHasLeanback = false;
@@ -127,6 +124,11 @@ public class AppTransitionTests extends Instrumentation {
                 DEFAULT_LAUNCH_COUNT));
         mPostLaunchTimeout = Integer.parseInt(mArgs.getString(KEY_POST_LAUNCH_TIMEOUT,
                 DEFAULT_POST_LAUNCH_TIMEOUT));
+        mAdaptiveLaunch = Boolean.parseBoolean(mArgs.getString(KEY_ADAPTIVE_LAUNCH));
+        mMaxLaunchIterations = Integer.parseInt(mArgs.getString(KEY_MAX_LAUNCH_ITERATIONS,
+                DEFAULT_MAX_LAUNCH_COUNT));
+        mLaunchCiTarget = Double.parseDouble(mArgs.getString(KEY_LAUNCH_CI_TARGET,
+                DEFAULT_LAUNCH_CI_TARGET));
         if (null == mAppsList && mAppsList.isEmpty()) {
             throw new IllegalArgumentException("Need atleast one app to do the"
                     + " app transition from launcher");
@@ -134,23 +136,8 @@ public class AppTransitionTests extends Instrumentation {
         mAppsList = mAppsList.replaceAll("%"," ");
         mAppListArray = mAppsList.split(DELIMITER);
 
-        // Parse the trace parameters
-        mTraceDirectoryStr = mArgs.getString(KEY_TRACE_DIRECTORY);
-        if (isTracesEnabled()) {
-            String traceCategoriesStr = mArgs
-                    .getString(KEY_TRACE_CATEGORY, DEFAULT_TRACE_CATEGORIES);
-            mTraceBufferSize = Integer.parseInt(mArgs.getString(KEY_TRACE_BUFFERSIZE,
-                    DEFAULT_TRACE_BUFFER_SIZE));
-            mTraceDumpInterval = Integer.parseInt(mArgs.getString(KEY_TRACE_DUMPINTERVAL,
-                    DEFAULT_TRACE_DUMP_INTERVAL));
-            mTraceCategoriesSet = new HashSet<String>();
-            if (!traceCategoriesStr.isEmpty()) {
-                String[] traceCategoriesSplit = traceCategoriesStr.split(DELIMITER);
-                for (int i = 0; i < traceCategoriesSplit.length; i++) {
-                    mTraceCategoriesSet.add(traceCategoriesSplit[i]);
-                }
-            }
-        }
+        // One trace covers all the launches of a test.
+        mTraceSession = new TraceSession(getInstrumentation(), mArgs);
         mDevice.setOrientationNatural();
         sleep(mPostLaunchTimeout);
         cleanTestApps();
@@ -158,6 +145,7 @@ public class AppTransitionTests extends Instrumentation {
 
     @After
     public void tearDown() throws Exception{
+        mTraceSession.stop(getInstrumentation());
         cleanTestApps();
         getInstrumentation().sendStatus(0, mResult);
     }
@@ -171,9 +159,7 @@ public class AppTransitionTests extends Instrumentation {
     @Test
     public void testColdLaunchFromLauncher() throws IOException, InterruptedException,
             RemoteException {
-        if (isTracesEnabled()) {
-            createTraceDirectory("testColdLaunchFromLauncher");
-        }
+        mTraceSession.start("testColdLaunchFromLauncher");
         // Perform cold app launch from launcher screen
         for (int appCount = 0; appCount < mAppListArray.length; appCount++) {
             String appName = mAppListArray[appCount];
@@ -181,6 +167,10 @@ public class AppTransitionTests extends Instrumentation {
             if (setupAppLaunch(appName) == ILauncherStrategy.LAUNCH_FAILED_TIMESTAMP) {
                 continue;
             }
+            if (mAdaptiveLaunch) {
+                runAdaptiveLaunches(appName, COLD_LAUNCH);
+                continue;
+            }
             closeApps(new String[] {
                     appName
             });
@@ -188,15 +178,9 @@ public class AppTransitionTests extends Instrumentation {
                     .executeShellCommand(DROP_CACHE_SCRIPT);
             sleep(DEFAULT_DROP_CACHE_DELAY);
             for (int launchCount = 0; launchCount <= mLaunchIterations; launchCount++) {
-                if (null != mAtraceLogger) {
-                    mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                            mTraceDumpInterval, mRootTraceSubDir,
-                            String.format("%s-%d", appName, launchCount));
-                }
+                mTraceSession.beginIteration(String.format("%s-%d", appName, launchCount));
                 mLauncherStrategy.launch(appName, mComponentName.split("\\/")[0]);
-                if (null != mAtraceLogger) {
-                    mAtraceLogger.atraceStop();
-                }
+                mTraceSession.endIteration();
                 sleep(mPostLaunchTimeout);
                 mDevice.pressHome();
                 mDevice.waitForIdle();
@@ -224,26 +208,22 @@ public class AppTransitionTests extends Instrumentation {
     @Test
     public void testHotLaunchFromLauncher() throws IOException, InterruptedException,
             RemoteException {
-        if (isTracesEnabled()) {
-            createTraceDirectory("testHotLaunchFromLauncher");
-        }
+        mTraceSession.start("testHotLaunchFromLauncher");
         for (int appCount = 0; appCount < mAppListArray.length; appCount++) {
             String appName = mAppListArray[appCount];
             // Additional launch to account for cold launch
             if (setupAppLaunch(appName) == ILauncherStrategy.LAUNCH_FAILED_TIMESTAMP) {
                 continue;
             }
+            if (mAdaptiveLaunch) {
+                runAdaptiveLaunches(appName, HOT_LAUNCH);
+                continue;
+            }
             // Hot app launch for given (launch iterations + 1) times.
             for (int launchCount = 0; launchCount <= (mLaunchIterations); launchCount++) {
-                if (null != mAtraceLogger) {
-                    mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                            mTraceDumpInterval, mRootTraceSubDir,
-                            String.format("%s-%d", appName, (launchCount)));
-                }
+                mTraceSession.beginIteration(String.format("%s-%d", appName, launchCount));
                 mLauncherStrategy.launch(appName, mComponentName.split("\\/")[0]);
-                if (null != mAtraceLogger) {
-                    mAtraceLogger.atraceStop();
-                }
+                mTraceSession.endIteration();
                 sleep(mPostLaunchTimeout);
                 mDevice.pressHome();
                 sleep(mPostLaunchTimeout);
@@ -263,9 +243,7 @@ public class AppTransitionTests extends Instrumentation {
     @Test
     public void testAppToRecents() throws IOException, InterruptedException, RemoteException {
         Assume.assumeFalse(mHasLeanback);
-        if (isTracesEnabled()) {
-            createTraceDirectory("testAppToRecents");
-        }
+        mTraceSession.start("testAppToRecents");
         if (null == mPreAppsList && mPreAppsList.isEmpty()) {
             throw new IllegalArgumentException("Need atleast few apps in the "
                     + "recents before starting the test");
@@ -281,16 +259,13 @@ public class AppTransitionTests extends Instrumentation {
                 mLauncherStrategy.launch(appName, mPreAppsComponentName.get(appName).split(
                         "\\/")[0]);
                 sleep(mPostLaunchTimeout);
-                if (null != mAtraceLogger && launchCount > 0) {
-                    mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                            mTraceDumpInterval, mRootTraceSubDir,
+                if (launchCount > 0) {
+                    mTraceSession.beginIteration(
                             String.format("%s-%d", appName, launchCount - 1));
                 }
                 mLauncher.getBackground().switchToOverview();
                 sleep(mPostLaunchTimeout);
-                if (null != mAtraceLogger && launchCount > 0) {
-                    mAtraceLogger.atraceStop();
-                }
+                mTraceSession.endIteration();
                 mDevice.pressHome();
                 sleep(mPostLaunchTimeout);
             }
@@ -308,9 +283,7 @@ public class AppTransitionTests extends Instrumentation {
     public void testHotLaunchFromRecents() throws IOException, InterruptedException,
             RemoteException {
         Assume.assumeFalse(mHasLeanback);
-        if (isTracesEnabled()) {
-            createTraceDirectory("testHotLaunchFromRecents");
-        }
+        mTraceSession.start("testHotLaunchFromRecents");
         if (null == mPreAppsList && mPreAppsList.isEmpty()) {
             throw new IllegalArgumentException("Need atleast few apps in the"
                     + " recents before starting the test");
@@ -327,16 +300,10 @@ public class AppTransitionTests extends Instrumentation {
             for (int launchCount = 0; launchCount <= mLaunchIterations; launchCount++) {
                 sleep(mPostLaunchTimeout);
                 final Workspace workspace = mLauncher.pressHome();
-                if (null != mAtraceLogger) {
-                    mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                            mTraceDumpInterval, mRootTraceSubDir,
-                            String.format("%s-%d", appName, (launchCount)));
-                }
+                mTraceSession.beginIteration(String.format("%s-%d", appName, launchCount));
                 workspace.switchToOverview().getCurrentTask().open();
                 sleep(mPostLaunchTimeout);
-                if (null != mAtraceLogger) {
-                    mAtraceLogger.atraceStop();
-                }
+                mTraceSession.endIteration();
             }
             updateResult(appName);
         }
@@ -354,6 +321,11 @@ public class AppTransitionTests extends Instrumentation {
         if (appLaunchTime == ILauncherStrategy.LAUNCH_FAILED_TIMESTAMP) {
             return appLaunchTime;
         }
+        if (mAdaptiveLaunch) {
+            mDevice.waitForIdle();
+            pressHomeAndWait();
+            return appLaunchTime;
+        }
         sleep(mPostLaunchTimeout);
         mDevice.pressHome();
         sleep(mPostLaunchTimeout);
@@ -361,20 +333,87 @@ public class AppTransitionTests extends Instrumentation {
     }
 
     /**
-     * Create sub directory under the trace root directory to store the trace files captured during
-     * the app transition.
-     * @param subDirectoryName
+     * Launch an app until its launch time is known precisely enough, and report the launch time
+     * statistics. Each launch is measured by the activity manager, and the next step starts as
+     * soon as the device is ready instead of after a fixed delay.
+     * @param appName
+     * @param launchMode Cold or Hot launch
+     */
+    private void runAdaptiveLaunches(String appName, String launchMode) {
+        LaunchStats stats = new LaunchStats();
+        for (int launchCount = 0; launchCount < mMaxLaunchIterations; launchCount++) {
+            if (stats.getCount() >= mLaunchIterations && stats.isConverged(mLaunchCiTarget)) {
+                break;
+            }
+            if (COLD_LAUNCH.equals(launchMode)) {
+                closeAppAndWait(appName);
+                dropCacheAndWait();
+            }
+            mTraceSession.beginIteration(String.format("%s-%d", appName, launchCount));
+            long launchTime = startApp(appName, launchMode);
+            mTraceSession.endIteration();
+            if (launchTime == ILauncherStrategy.LAUNCH_FAILED_TIMESTAMP) {
+                Log.w(TAG, String.format("Discarding failed %s of %s", launchMode, appName));
+            } else {
+                stats.add(launchTime);
+            }
+            mDevice.waitForIdle();
+            pressHomeAndWait();
+        }
+        Log.i(TAG, String.format("%s of %s: %s", launchMode, appName, stats));
+        getInstrumentation().sendStatus(METRICS_STATUS_CODE, stats.toMetrics(appName));
+        mComponentName = null;
+        // Update the result with the component name
+        updateResult(appName);
+    }
+
+    /**
+     * Press home and wait for the launcher to be in the foreground.
      */
-    private void createTraceDirectory(String subDirectoryName) throws IOException {
-        mRootTrace = new File(mTraceDirectoryStr);
-        if (!mRootTrace.exists() && !mRootTrace.mkdirs()) {
-            throw new IOException("Unable to create the trace directory");
+    private void pressHomeAndWait() {
+        mDevice.pressHome();
+        if (!mDevice.wait(Until.hasObject(
+                By.pkg(mLauncherStrategy.getSupportedLauncherPackage()).depth(0)),
+                mPostLaunchTimeout)) {
+            Log.w(TAG, "Launcher is not in the foreground after pressing home");
         }
-        mRootTraceSubDir = new File(mRootTrace, subDirectoryName);
-        if (!mRootTraceSubDir.exists() && !mRootTraceSubDir.mkdirs()) {
-            throw new IOException("Unable to create the trace sub directory");
+        mDevice.waitForIdle();
+    }
+
+    /**
+     * Force stop an app, returning once the activity manager has stopped it.
+     * @param appName
+     */
+    private void closeAppAndWait(String appName) {
+        Intent startIntent = mAppLaunchIntentsMapping.get(appName);
+        if (startIntent != null) {
+            executeShellCommandAndWait(FORCE_STOP + startIntent.getComponent().getPackageName());
+        }
+    }
+
+    /**
+     * Drop the caches, returning once the script has completed.
+     */
+    private void dropCacheAndWait() {
+        executeShellCommandAndWait(DROP_CACHE_SCRIPT);
+    }
+
+    /**
+     * Run a shell command and read its output until it exits.
+     * @param command
+     */
+    private void executeShellCommandAndWait(String command) {
+        ParcelFileDescriptor parcelDesc = getInstrumentation().getUiAutomation()
+                .executeShellCommand(command);
+        byte[] buffer = new byte[1024];
+        try (InputStream inputStream =
+                new ParcelFileDescriptor.AutoCloseInputStream(parcelDesc)) {
+            while (inputStream.read(buffer) != -1) {
+                // Discard the output.
+            }
+        } catch (IOException e) {
+            Log.w(TAG, String.format("Error reading the output of %s", command), e);
         }
-        mAtraceLogger = AtraceLogger.getAtraceLoggerInstance(getInstrumentation());
     }
 
     /**
@@ -580,13 +619,6 @@ public class AppTransitionTests extends Instrumentation {
         sleep(mPostLaunchTimeout);
     }
 
-    /**
-     * @return
-     */
-    private boolean isTracesEnabled(){
-        return (null != mTraceDirectoryStr && !mTraceDirectoryStr.isEmpty());
-    }
-
     /**
      * Update the result status
      * @param appName
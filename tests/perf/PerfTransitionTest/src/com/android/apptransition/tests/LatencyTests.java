@@ -23,7 +23,6 @@ import android.os.SystemClock;
 import android.provider.Settings;
 import android.support.test.InstrumentationRegistry;
 import android.support.test.launcherhelper.LauncherStrategyFactory;
-import android.support.test.rule.logging.AtraceLogger;
 import android.support.test.uiautomator.UiDevice;
 import android.system.helpers.LockscreenHelper;
 import android.system.helpers.OverviewHelper;
@@ -34,13 +33,10 @@ import android.view.WindowManagerGlobal;
 
 import com.android.launcher3.tapl.LauncherInstrumentation;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-import java.io.File;
-import java.util.HashSet;
-import java.util.Set;
-
 /**
  * Tests to test various latencies in the system.
  */
@@ -55,15 +51,6 @@ public class LatencyTests extends Instrumentation {
             + "com.android.systemui.latency.ACTION_TURN_ON_SCREEN";
     private static final String AM_START_COMMAND_TEMPLATE = "am start -a %s";
     private static final String PIN = "1234";
-    private static final String KEY_TRACE_DIRECTORY = "trace_directory";
-    private static final String KEY_TRACE_CATEGORY = "trace_categories";
-    private static final String KEY_TRACE_BUFFERSIZE = "trace_bufferSize";
-    private static final String KEY_TRACE_DUMPINTERVAL = "tracedump_interval";
-    private static final String DEFAULT_TRACE_CATEGORIES = "sched,freq,gfx,view,dalvik,webview,"
-            + "input,wm,disk,am,wm";
-    private static final String DEFAULT_TRACE_BUFFER_SIZE = "20000";
-    private static final String DEFAULT_TRACE_DUMP_INTERVAL = "10";
-    private static final String DELIMITER = ",";
     private static final String TEST_EXPANDNOTIFICATIONS = "testExpandNotificationsLatency";
     private static final String TEST_FINGERPRINT = "testFingerprintWakeAndUnlock";
     private static final String TEST_SCREEN_TURNON = "testScreenTurnOn";
@@ -72,12 +59,7 @@ public class LatencyTests extends Instrumentation {
     private static final String TEST_ROTATION_LATENCY = "testRotationLatency";
     private static final String TEST_SETTINGS_SEARCH = "testSettingsSearch";
 
-    private String mTraceDirectoryStr = null;
-    private File mRootTrace = null;
-    private int mTraceBufferSize = 0;
-    private int mTraceDumpInterval = 0;
-    private Set<String> mTraceCategoriesSet = null;
-    private AtraceLogger mAtraceLogger = null;
+    private TraceSession mTraceSession;
 
     private UiDevice mDevice;
     private LauncherInstrumentation mLauncher;
@@ -92,28 +74,18 @@ public class LatencyTests extends Instrumentation {
                 Integer.toString(DEFAULT_ITERATION_COUNT)));
         mDevice.pressHome();
 
-        // Parse the trace parameters
-        mTraceDirectoryStr = mArgs.getString(KEY_TRACE_DIRECTORY);
-        if (isTracesEnabled()) {
-            String traceCategoriesStr = mArgs
-                    .getString(KEY_TRACE_CATEGORY, DEFAULT_TRACE_CATEGORIES);
-            mTraceBufferSize = Integer.parseInt(mArgs.getString(KEY_TRACE_BUFFERSIZE,
-                    DEFAULT_TRACE_BUFFER_SIZE));
-            mTraceDumpInterval = Integer.parseInt(mArgs.getString(KEY_TRACE_DUMPINTERVAL,
-                    DEFAULT_TRACE_DUMP_INTERVAL));
-            mTraceCategoriesSet = new HashSet<String>();
-            if (!traceCategoriesStr.isEmpty()) {
-                String[] traceCategoriesSplit = traceCategoriesStr.split(DELIMITER);
-                for (int i = 0; i < traceCategoriesSplit.length; i++) {
-                    mTraceCategoriesSet.add(traceCategoriesSplit[i]);
-                }
-            }
-        }
+        // One trace covers all the iterations of a test.
+        mTraceSession = new TraceSession(getInstrumentation(), mArgs);
         // Need to run strategy initialization code as a precondition for tests.
         LauncherStrategyFactory.getInstance(mDevice);
         mLauncher = new LauncherInstrumentation(getInstrumentation());
     }
 
+    @After
+    public void tearDown() throws Exception {
+        mTraceSession.stop(getInstrumentation());
+    }
+
     /**
      * Test to track how long it takes to expand the notification shade when swiping.
      * <p>
@@ -121,15 +93,9 @@ public class LatencyTests extends Instrumentation {
      */
     @Test
     public void testExpandNotificationsLatency() throws Exception {
-        if (isTracesEnabled()) {
-            createTraceDirectory();
-        }
+        mTraceSession.start(TEST_EXPANDNOTIFICATIONS);
         for (int i = 0; i < mIterationCount; i++) {
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                        mTraceDumpInterval, mRootTrace,
-                        String.format("%s-%d", TEST_EXPANDNOTIFICATIONS, i));
-            }
+            mTraceSession.beginIteration(i);
             swipeDown();
             mDevice.waitForIdle();
             swipeUp();
@@ -137,9 +103,7 @@ public class LatencyTests extends Instrumentation {
 
             // Wait for clocks to settle down
             SystemClock.sleep(CLOCK_SETTLE_DELAY);
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStop();
-            }
+            mTraceSession.endIteration();
 
         }
     }
@@ -167,26 +131,18 @@ public class LatencyTests extends Instrumentation {
      */
     @Test
     public void testFingerprintWakeAndUnlock() throws Exception {
-        if (isTracesEnabled()) {
-            createTraceDirectory();
-        }
+        mTraceSession.start(TEST_FINGERPRINT);
         for (int i = 0; i < mIterationCount; i++) {
             mDevice.sleep();
 
             // Wait for clocks to settle down
             SystemClock.sleep(CLOCK_SETTLE_DELAY);
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                        mTraceDumpInterval, mRootTrace,
-                        String.format("%s-%d", TEST_FINGERPRINT, i));
-            }
+            mTraceSession.beginIteration(i);
 
             mDevice.executeShellCommand(FINGERPRINT_WAKE_FAKE_COMMAND);
             mDevice.waitForIdle();
 
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStop();
-            }
+            mTraceSession.endIteration();
         }
     }
 
@@ -197,25 +153,17 @@ public class LatencyTests extends Instrumentation {
      */
     @Test
     public void testScreenTurnOn() throws Exception {
-        if (isTracesEnabled()) {
-            createTraceDirectory();
-        }
+        mTraceSession.start(TEST_SCREEN_TURNON);
         for (int i = 0; i < mIterationCount; i++) {
             mDevice.sleep();
 
             // Wait for clocks to settle down
             SystemClock.sleep(CLOCK_SETTLE_DELAY);
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                        mTraceDumpInterval, mRootTrace,
-                        String.format("%s-%d", TEST_SCREEN_TURNON, i));
-            }
+            mTraceSession.beginIteration(i);
 
             mDevice.executeShellCommand(TURN_ON_SCREEN_COMMAND);
             mDevice.waitForIdle();
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStop();
-            }
+            mTraceSession.endIteration();
         }
 
         // Put device to home screen.
@@ -231,25 +179,17 @@ public class LatencyTests extends Instrumentation {
     @Test
     public void testPinCheckDelay() throws Exception {
         LockscreenHelper.getInstance().setScreenLockViaShell(PIN, LockscreenHelper.MODE_PIN);
-        if (isTracesEnabled()) {
-            createTraceDirectory();
-        }
+        mTraceSession.start(TEST_PINCHECK_DELAY);
         for (int i = 0; i < mIterationCount; i++) {
             mDevice.sleep();
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                        mTraceDumpInterval, mRootTrace,
-                        String.format("%s-%d", TEST_PINCHECK_DELAY, i));
-            }
+            mTraceSession.beginIteration(i);
 
             // Make sure not to launch camera with "double-tap".
             Thread.sleep(300);
             mDevice.wakeUp();
             LockscreenHelper.getInstance().unlockScreen(PIN);
             mDevice.waitForIdle();
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStop();
-            }
+            mTraceSession.endIteration();
         }
         LockscreenHelper.getInstance().removeScreenLockViaShell(PIN);
         mDevice.pressHome();
@@ -262,19 +202,13 @@ public class LatencyTests extends Instrumentation {
      */
     @Test
     public void testRotationLatency() throws Exception {
-        if (isTracesEnabled()) {
-            createTraceDirectory();
-        }
+        mTraceSession.start(TEST_ROTATION_LATENCY);
         mDevice.wakeUp();
         for (int i = 0; i < mIterationCount; i++) {
             mDevice.executeShellCommand(String.format(AM_START_COMMAND_TEMPLATE,
                     Settings.ACTION_SETTINGS));
             mDevice.waitForIdle();
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                        mTraceDumpInterval, mRootTrace,
-                        String.format("%s-%d", TEST_ROTATION_LATENCY, i));
-            }
+            mTraceSession.beginIteration(i);
 
             IWindowManager wm = WindowManagerGlobal.getWindowManagerService();
             wm.freezeRotation(Surface.ROTATION_0);
@@ -284,9 +218,7 @@ public class LatencyTests extends Instrumentation {
             wm.thawRotation();
             mDevice.waitForIdle();
 
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStop();
-            }
+            mTraceSession.endIteration();
         }
         mDevice.pressHome();
         mDevice.waitForIdle();
@@ -303,9 +235,7 @@ public class LatencyTests extends Instrumentation {
      */
     @Test
     public void testAppToRecents() throws Exception {
-        if (isTracesEnabled()) {
-            createTraceDirectory();
-        }
+        mTraceSession.start(TEST_APPTORECENTS);
         OverviewHelper.getInstance().populateManyRecentApps();
         for (int i = 0; i < mIterationCount; i++) {
             mDevice.executeShellCommand(String.format(AM_START_COMMAND_TEMPLATE,
@@ -314,26 +244,18 @@ public class LatencyTests extends Instrumentation {
 
             // Wait for clocks to settle.
             SystemClock.sleep(CLOCK_SETTLE_DELAY);
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                        mTraceDumpInterval, mRootTrace,
-                        String.format("%s-%d", TEST_APPTORECENTS, i));
-            }
+            mTraceSession.beginIteration(i);
             mLauncher.getBackground().switchToOverview();
 
             // Make sure all the animations are really done.
             SystemClock.sleep(200);
-            if (null != mAtraceLogger) {
-                mAtraceLogger.atraceStop();
-            }
+            mTraceSession.endIteration();
         }
     }
 
     @Test
     public void testSettingsSearch() throws Exception {
-        if (isTracesEnabled()) {
-            createTraceDirectory();
-        }
+        mTraceSession.start(TEST_SETTINGS_SEARCH);
         SettingsHelper settingsHelper = SettingsHelper.getInstance();
 
         for (int i = 0; i < mIterationCount; i++) {
@@ -341,35 +263,11 @@ public class LatencyTests extends Instrumentation {
                     Settings.ACTION_SETTINGS));
             settingsHelper.openSearch(InstrumentationRegistry.
                     getInstrumentation().getContext());
-            if (mAtraceLogger != null) {
-                mAtraceLogger.atraceStart(mTraceCategoriesSet, mTraceBufferSize,
-                        mTraceDumpInterval, mRootTrace,
-                        String.format("%s-%d", TEST_SETTINGS_SEARCH, i));
-            }
+            mTraceSession.beginIteration(i);
             settingsHelper.performNoResultQuery();
-            if (mAtraceLogger != null) {
-                mAtraceLogger.atraceStop();
-            }
+            mTraceSession.endIteration();
             mDevice.pressHome();
             mDevice.waitForIdle();
         }
     }
-
-    /**
-     * Create trace directory for the latency tests to store the trace files.
-     */
-    private void createTraceDirectory() throws Exception {
-        mRootTrace = new File(mTraceDirectoryStr);
-        if (!mRootTrace.exists() && !mRootTrace.mkdirs()) {
-            throw new Exception("Unable to create the trace directory");
-        }
-        mAtraceLogger = AtraceLogger.getAtraceLoggerInstance(getInstrumentation());
-    }
-
-    /**
-     * @return
-     */
-    private boolean isTracesEnabled() {
-        return (null != mTraceDirectoryStr && !mTraceDirectoryStr.isEmpty());
-    }
 }
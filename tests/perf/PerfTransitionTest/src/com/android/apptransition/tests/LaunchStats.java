@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apptransition.tests;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Launch latency samples of one app, with the summary statistics used to decide when enough
+ * launches were measured.
+ */
+class LaunchStats {
+
+    // Two-sided 95% quantiles of Student's t-distribution, by degrees of freedom from 1 to 30
+    private static final double[] T_95 = {
+        12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+        2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+        2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+    };
+    // Normal approximation for larger samples
+    private static final double Z_95 = 1.960;
+
+    private final List<Long> mSamples = new ArrayList<Long>();
+
+    /**
+     * Add a launch latency sample.
+     * @param latencyMs launch time reported by the activity manager
+     */
+    public void add(long latencyMs) {
+        mSamples.add(latencyMs);
+    }
+
+    /**
+     * @return number of samples
+     */
+    public int getCount() {
+        return mSamples.size();
+    }
+
+    /**
+     * @return mean of the samples, or 0 if there are none
+     */
+    public double getMean() {
+        if (mSamples.isEmpty()) {
+            return 0;
+        }
+        double sum = 0;
+        for (long sample : mSamples) {
+            sum += sample;
+        }
+        return sum / mSamples.size();
+    }
+
+    /**
+     * @return half-width of the 95% confidence interval of the mean, or infinity if there are
+     *     fewer than two samples
+     */
+    public double getConfidenceInterval() {
+        int count = mSamples.size();
+        if (count < 2) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double mean = getMean();
+        double squares = 0;
+        for (long sample : mSamples) {
+            squares += (sample - mean) * (sample - mean);
+        }
+        double stdDev = Math.sqrt(squares / (count - 1));
+        double t = count - 1 <= T_95.length ? T_95[count - 2] : Z_95;
+        return t * stdDev / Math.sqrt(count);
+    }
+
+    /**
+     * @param target maximum half-width of the confidence interval, relative to the mean
+     * @return true if the confidence interval is within the target
+     */
+    public boolean isConverged(double target) {
+        return getConfidenceInterval() <= target * getMean();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return nearest-rank percentile of the samples, or 0 if there are none
+     */
+    public long getPercentile(double percentile) {
+        if (mSamples.isEmpty()) {
+            return 0;
+        }
+        List<Long> sorted = new ArrayList<Long>(mSamples);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.size());
+        return sorted.get(Math.max(0, Math.min(rank, sorted.size()) - 1));
+    }
+
+    /**
+     * @param prefix prefix of the metric keys, e.g. the app name
+     * @return median, p90, mean, confidence interval and sample count as metrics
+     */
+    public Bundle toMetrics(String prefix) {
+        Bundle metrics = new Bundle();
+        metrics.putLong(prefix + "_launch_median_ms", getPercentile(50));
+        metrics.putLong(prefix + "_launch_p90_ms", getPercentile(90));
+        metrics.putDouble(prefix + "_launch_mean_ms", getMean());
+        if (getCount() >= 2) {
+            metrics.putDouble(prefix + "_launch_ci95_ms", getConfidenceInterval());
+        }
+        metrics.putInt(prefix + "_launch_count", getCount());
+        return metrics;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d launches, median %dms, p90 %dms, mean %.1fms +/- %.1fms",
+                getCount(), getPercentile(50), getPercentile(90), getMean(),
+                getConfidenceInterval());
+    }
+}
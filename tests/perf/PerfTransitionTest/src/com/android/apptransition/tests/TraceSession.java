@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apptransition.tests;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.os.Trace;
+import android.support.test.uiautomator.UiDevice;
+import android.util.Log;
+
+import com.android.helpers.PerfettoHelper;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * One perfetto trace session covering all the iterations of a test, instead of a trace started,
+ * stopped and dumped per iteration.
+ * <p>
+ * Each iteration is marked in the trace by an async slice named "&lt;test&gt;-&lt;iteration&gt;",
+ * so that its latency can be extracted from the slices overlapping it. The markers are only
+ * recorded if the trace config enables atrace for this package, e.g. with
+ * atrace_apps: "com.android.apptransition.tests".
+ * <p>
+ * Unless a perfetto_config_file is given, a config is generated from the trace_categories,
+ * trace_bufferSize and tracedump_interval arguments of the former atrace logger, and enables
+ * the markers.
+ */
+class TraceSession {
+
+    private static final String TAG = TraceSession.class.getSimpleName();
+    // Tracing is enabled when a directory is given for the trace files.
+    private static final String KEY_TRACE_DIRECTORY = "trace_directory";
+    // Perfetto config file under /data/misc/perfetto-traces/, as for the perfetto collector.
+    private static final String KEY_PERFETTO_CONFIG_FILE = "perfetto_config_file";
+    private static final String KEY_PERFETTO_CONFIG_TEXT_PROTO = "perfetto_config_text_proto";
+    // Time to wait for the trace buffers to be flushed before stopping perfetto.
+    private static final String KEY_PERFETTO_WAIT_TIME = "perfetto_wait_time_ms";
+    private static final String DEFAULT_WAIT_TIME_MSECS = "3000";
+    // Arguments of the generated config, as for the former atrace logger.
+    private static final String KEY_TRACE_CATEGORY = "trace_categories";
+    private static final String KEY_TRACE_BUFFERSIZE = "trace_bufferSize";
+    private static final String KEY_TRACE_DUMPINTERVAL = "tracedump_interval";
+    private static final String DEFAULT_TRACE_CATEGORIES = "sched,freq,gfx,view,dalvik,webview,"
+            + "input,wm,disk,am";
+    private static final String DEFAULT_TRACE_BUFFER_SIZE = "20000";
+    private static final String DEFAULT_TRACE_DUMP_INTERVAL = "10";
+    private static final String DELIMITER = ",";
+    private static final String GENERATED_CONFIG_FILE = "apptransition_trace_config.textproto";
+    private static final String PERFETTO_ROOT_DIR = "/data/misc/perfetto-traces/";
+    // The app can't write to the perfetto directory, so the config is copied there by the shell.
+    private static final String COPY_CMD = "cp %s %s";
+    private static final String PERFETTO_FILE_PATH = "perfetto_file_path";
+    // Instrumentation status code for results reported while the test is in progress
+    private static final int STATUS_CODE = 2;
+
+    private final PerfettoHelper mPerfettoHelper = new PerfettoHelper();
+    private final UiDevice mDevice;
+    private final String mTraceDirectory;
+    private final String mConfigFileName;
+    private final boolean mIsConfigTextProto;
+    // Config to generate, or null if a config file was given
+    private final String mGeneratedConfig;
+    private final long mWaitTimeInMs;
+    private String mTestName = null;
+    private String mIterationName = null;
+    // Identifies the async slice of the current iteration
+    private int mCookie;
+
+    TraceSession(Instrumentation instrumentation, Bundle args) {
+        mDevice = UiDevice.getInstance(instrumentation);
+        mTraceDirectory = args.getString(KEY_TRACE_DIRECTORY);
+        mWaitTimeInMs = Long.parseLong(args.getString(KEY_PERFETTO_WAIT_TIME,
+                DEFAULT_WAIT_TIME_MSECS));
+        String configFileName = args.getString(KEY_PERFETTO_CONFIG_FILE);
+        if (null != configFileName) {
+            for (String key : new String[] {
+                    KEY_TRACE_CATEGORY, KEY_TRACE_BUFFERSIZE, KEY_TRACE_DUMPINTERVAL}) {
+                if (null != args.getString(key)) {
+                    throw new IllegalArgumentException(String.format(
+                            "%s can't be used with %s, set it in the perfetto config instead",
+                            key, KEY_PERFETTO_CONFIG_FILE));
+                }
+            }
+            mConfigFileName = configFileName;
+            mIsConfigTextProto =
+                    Boolean.parseBoolean(args.getString(KEY_PERFETTO_CONFIG_TEXT_PROTO));
+            mGeneratedConfig = null;
+        } else {
+            mConfigFileName = GENERATED_CONFIG_FILE;
+            mIsConfigTextProto = true;
+            mGeneratedConfig = buildConfig(
+                    args.getString(KEY_TRACE_CATEGORY, DEFAULT_TRACE_CATEGORIES),
+                    Integer.parseInt(args.getString(KEY_TRACE_BUFFERSIZE,
+                            DEFAULT_TRACE_BUFFER_SIZE)),
+                    Integer.parseInt(args.getString(KEY_TRACE_DUMPINTERVAL,
+                            DEFAULT_TRACE_DUMP_INTERVAL)),
+                    instrumentation.getContext().getPackageName());
+        }
+    }
+
+    /**
+     * Builds a perfetto text config tracing the given atrace categories and app, with a buffer of
+     * bufferSizeKb drained into the trace file every dumpIntervalSecs.
+     */
+    private static String buildConfig(String categories, int bufferSizeKb, int dumpIntervalSecs,
+            String packageName) {
+        StringBuilder config = new StringBuilder();
+        config.append(String.format("buffers: { size_kb: %d fill_policy: RING_BUFFER }\n",
+                bufferSizeKb));
+        config.append("data_sources: { config { name: \"linux.ftrace\" ftrace_config {\n");
+        for (String category : categories.split(DELIMITER)) {
+            if (!category.isEmpty()) {
+                config.append(String.format("  atrace_categories: \"%s\"\n", category));
+            }
+        }
+        config.append(String.format("  atrace_apps: \"%s\"\n", packageName));
+        config.append("} } }\n");
+        config.append("write_into_file: true\n");
+        config.append(String.format("file_write_period_ms: %d\n", dumpIntervalSecs * 1000));
+        return config.toString();
+    }
+
+    /**
+     * Writes the generated config to the trace directory, and copies it to the perfetto
+     * directory.
+     */
+    private void writeConfig() {
+        File directory = new File(mTraceDirectory);
+        directory.mkdirs();
+        File config = new File(directory, GENERATED_CONFIG_FILE);
+        try {
+            try (Writer writer = new FileWriter(config)) {
+                writer.write(mGeneratedConfig);
+            }
+            mDevice.executeShellCommand(String.format(COPY_CMD, config.getAbsolutePath(),
+                    PERFETTO_ROOT_DIR + GENERATED_CONFIG_FILE));
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to write the perfetto config", e);
+        }
+    }
+
+    /**
+     * @return true if tracing was requested
+     */
+    public boolean isEnabled() {
+        return null != mTraceDirectory && !mTraceDirectory.isEmpty();
+    }
+
+    /**
+     * @return true if a trace is being collected
+     */
+    public boolean isStarted() {
+        return null != mTestName;
+    }
+
+    /**
+     * Start tracing a test, if tracing was requested.
+     * @param testName used to name the markers and the trace file
+     * @throws IllegalStateException if tracing was requested but couldn't start
+     */
+    public void start(String testName) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (isStarted()) {
+            stop(null);
+        }
+        if (null != mGeneratedConfig) {
+            writeConfig();
+        }
+        if (!mPerfettoHelper.startCollecting(mConfigFileName, mIsConfigTextProto)) {
+            throw new IllegalStateException(String.format(
+                    "Unable to start tracing %s with %s%s", testName, PERFETTO_ROOT_DIR,
+                    mConfigFileName));
+        }
+        mTestName = testName;
+    }
+
+    /**
+     * Mark the start of an iteration in the trace.
+     * @param iteration
+     */
+    public void beginIteration(int iteration) {
+        beginIteration(String.valueOf(iteration));
+    }
+
+    /**
+     * Mark the start of an iteration in the trace, e.g. "&lt;app&gt;-&lt;launch&gt;".
+     * @param iteration name of the iteration within the test
+     */
+    public void beginIteration(String iteration) {
+        if (!isStarted()) {
+            return;
+        }
+        endIteration();
+        mCookie++;
+        mIterationName = String.format("%s-%s", mTestName, iteration);
+        Trace.beginAsyncSection(mIterationName, mCookie);
+    }
+
+    /**
+     * Mark the end of the current iteration in the trace.
+     */
+    public void endIteration() {
+        if (null != mIterationName) {
+            Trace.endAsyncSection(mIterationName, mCookie);
+            mIterationName = null;
+        }
+    }
+
+    /**
+     * Stop tracing and save the trace as &lt;trace_directory&gt;/&lt;test&gt;.pb.
+     * @param instrumentation used to report the trace file path, or null
+     */
+    public void stop(Instrumentation instrumentation) {
+        if (!isStarted()) {
+            return;
+        }
+        endIteration();
+        String destinationFile = new File(mTraceDirectory, mTestName + ".pb").getAbsolutePath();
+        if (mPerfettoHelper.stopCollecting(mWaitTimeInMs, destinationFile)) {
+            Log.i(TAG, String.format("Saved the trace of %s to %s", mTestName, destinationFile));
+            if (null != instrumentation) {
+                Bundle result = new Bundle();
+                result.putString(
+                        String.format("%s_%s", mTestName, PERFETTO_FILE_PATH), destinationFile);
+                instrumentation.sendStatus(STATUS_CODE, result);
+            }
+        } else {
+            Log.e(TAG, String.format("Unable to save the trace of %s", mTestName));
+        }
+        mTestName = null;
+    }
+}